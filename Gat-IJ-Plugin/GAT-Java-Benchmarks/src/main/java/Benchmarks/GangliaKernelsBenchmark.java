@@ -0,0 +1,68 @@
+package Benchmarks;
+
+import Features.AnalyseWorkflows.GangliaOps;
+import ij.ImagePlus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Per-ganglion counting, areas and the at-least-N filter. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class GangliaKernelsBenchmark {
+
+    @Param({"1024", "2048", "4096"})
+    public int size;
+
+    @Param({"1500"})
+    public int cells;
+
+    @Param({"7"})
+    public int cellRadius;
+
+    @Param({"40"})
+    public int ganglia;
+
+    @Param({"90"})
+    public int gangliaRadius;
+
+    private ImagePlus neurons, gangliaLabels;
+    private int[] counts;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        neurons = SyntheticLabels.cells(size, size, cells, cellRadius, 42L);
+        gangliaLabels = SyntheticLabels.ganglia(size, size, ganglia, gangliaRadius, 11L);
+        counts = GangliaOps.countPerGanglion(neurons, gangliaLabels).countsPerGanglion;
+    }
+
+    @Benchmark
+    public GangliaOps.Result countPerGanglion() {
+        return GangliaOps.countPerGanglion(neurons, gangliaLabels);
+    }
+
+    @Benchmark
+    public double[] areaPerGanglionUm2() {
+        return GangliaOps.areaPerGanglionUm2(gangliaLabels);
+    }
+
+    @Benchmark
+    public ImagePlus keepGangliaWithAtLeast() {
+        return GangliaOps.keepGangliaWithAtLeast(gangliaLabels, counts, 2);
+    }
+}
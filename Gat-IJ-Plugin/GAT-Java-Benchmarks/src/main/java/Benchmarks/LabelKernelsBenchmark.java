@@ -0,0 +1,63 @@
+package Benchmarks;
+
+import Features.Tools.LabelOps;
+import ij.ImagePlus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Hu x marker overlap and Hu label selection (the multi-channel pipelines' per-marker work). */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class LabelKernelsBenchmark {
+
+    @Param({"1024", "2048", "4096"})
+    public int size;
+
+    @Param({"1500"})
+    public int cells;
+
+    @Param({"7"})
+    public int cellRadius;
+
+    @Param({"0.4"})
+    public double markerFraction;
+
+    private ImagePlus hu, marker;
+    private boolean[] keep;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        hu = SyntheticLabels.cells(size, size, cells, cellRadius, 42L);
+        marker = SyntheticLabels.marker(hu, markerFraction, 2, 7L);
+        keep = LabelOps.neuronsPositiveByOverlap(hu, marker, 0.4);
+    }
+
+    @Benchmark
+    public boolean[] neuronsPositiveByOverlap() {
+        return LabelOps.neuronsPositiveByOverlap(hu, marker, 0.4);
+    }
+
+    @Benchmark
+    public ImagePlus keepHuLabels() {
+        ImagePlus out = LabelOps.keepHuLabels(hu, keep);
+        out.changes = false;
+        out.close();
+        return out;
+    }
+}
@@ -0,0 +1,214 @@
+package Benchmarks;
+
+import Features.AnalyseWorkflows.NeuronsHuPipeline;
+import Features.AnalyseWorkflows.NeuronsMultiNoHuPipeline;
+import Features.AnalyseWorkflows.NeuronsMultiPipeline;
+import Features.Core.Params;
+import Features.Core.SegmentationBackends;
+import Features.Tools.ProgressUI;
+import Features.Tools.StageMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * End-to-end throughput of the headless Hu, Hu + multi and no-Hu multi pipelines on
+ * {@link SyntheticImages}, with {@link StubSegmenter} in place of StarDist (no Fiji needed).
+ * <p>
+ * Reports images/minute, per-image and per-stage latency percentiles (from ProgressUI's stage
+ * metrics), peak heap and the count error against the generated cells. Writes
+ * throughput_summary.csv and throughput_stages.csv to --out.
+ * <pre>
+ * java -cp target/benchmarks.jar Benchmarks.PipelineThroughput --images 20 --size 2048 --cells 800
+ *      [--pipelines hu,multi,nohu] [--warmup 2] [--overlays] [--cache] [--out dir]
+ * </pre>
+ */
+public final class PipelineThroughput {
+    private PipelineThroughput(){}
+
+    private interface Run {
+        /** Runs one image and returns {counted, expected} pairs for the accuracy check. */
+        int[][] run(SyntheticImages.Sample s, ProgressUI progress);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> a = parse(args);
+        int images = Integer.parseInt(a.getOrDefault("images", "10"));
+        int warmup = Integer.parseInt(a.getOrDefault("warmup", "1"));
+        int size = Integer.parseInt(a.getOrDefault("size", "2048"));
+        int cells = Integer.parseInt(a.getOrDefault("cells", "600"));
+        int radius = Integer.parseInt(a.getOrDefault("radius", "9"));
+        int ganglia = Integer.parseInt(a.getOrDefault("ganglia", "12"));
+        boolean overlays = a.containsKey("overlays"), cache = a.containsKey("cache");
+        File out = new File(a.getOrDefault("out", "gat-throughput"));
+        List<String> pipelines = Arrays.asList(a.getOrDefault("pipelines", "hu,multi,nohu").split(","));
+
+        System.setProperty("java.awt.headless", "true");
+        SegmentationBackends.register(StubSegmenter.NAME, new StubSegmenter());
+
+        File inDir = new File(out, "input");
+        List<SyntheticImages.Sample> samples = new ArrayList<>();
+        for (int i = 0; i < warmup + images; i++)
+            samples.add(SyntheticImages.write(inDir, String.format("synthetic_%03d", i), size, cells, radius,
+                    ganglia, 0.5, 0.4, 1000L + i));
+        double placed = 0;
+        for (SyntheticImages.Sample s : samples) placed += s.cells.size();
+        System.out.printf(Locale.US, "%d images of %dx%d px, %.0f cells each on average (asked %d), in %s%n",
+                samples.size(), size, size, placed / samples.size(), cells, inDir.getAbsolutePath());
+
+        List<String[]> summary = new ArrayList<>();
+        List<String[]> stageRows = new ArrayList<>();
+        for (String name : pipelines) {
+            Run run = pipeline(name.trim(), new File(out, name.trim()), overlays, cache);
+            List<Double> latency = new ArrayList<>();
+            Map<String, List<Double>> stageMs = new LinkedHashMap<>();
+            long peakHeap = 0;
+            double errSum = 0;
+            int errN = 0;
+            long t0 = 0;
+            for (int i = 0; i < samples.size(); i++) {
+                if (i == warmup) t0 = System.nanoTime();
+                ProgressUI progress = new ProgressUI(name, false);
+                long s0 = System.nanoTime();
+                int[][] counts = run.run(samples.get(i), progress);
+                double ms = (System.nanoTime() - s0) / 1e6;
+                progress.metrics().end();
+                if (i < warmup) continue;
+                latency.add(ms);
+                for (StageMetrics.Stage st : progress.metrics().stages()) {
+                    stageMs.computeIfAbsent(st.name, k -> new ArrayList<>()).add(st.wallNs / 1e6);
+                    peakHeap = Math.max(peakHeap, st.heapPeakBytes);
+                }
+                for (int[] c : counts) {
+                    if (c[1] == 0) continue;
+                    errSum += Math.abs(c[0] - c[1]) / (double) c[1];
+                    errN++;
+                }
+            }
+            double minutes = (System.nanoTime() - t0) / 6e10;
+            double perMin = (minutes > 0) ? images / minutes : 0;
+            double err = (errN > 0) ? 100.0 * errSum / errN : 0;
+            summary.add(new String[]{ name, String.valueOf(images), f(perMin), f(pct(latency, 50)), f(pct(latency, 90)),
+                    f(pct(latency, 99)), f(peakHeap / (1024.0 * 1024.0)), f(err) });
+            System.out.printf(Locale.US, "%n%-6s %.2f images/min  latency p50 %.0f ms  p90 %.0f ms  p99 %.0f ms  peak heap %.0f MB  count error %.2f%%%n",
+                    name, perMin, pct(latency, 50), pct(latency, 90), pct(latency, 99), peakHeap / (1024.0 * 1024.0), err);
+            for (Map.Entry<String, List<Double>> e : stageMs.entrySet()) {
+                List<Double> v = e.getValue();
+                stageRows.add(new String[]{ name, e.getKey(), String.valueOf(v.size()),
+                        f(pct(v, 50)), f(pct(v, 90)), f(pct(v, 99)), f(pct(v, 100)) });
+                System.out.printf(Locale.US, "  %-40s p50 %8.1f  p90 %8.1f  p99 %8.1f ms%n",
+                        e.getKey(), pct(v, 50), pct(v, 90), pct(v, 99));
+            }
+        }
+
+        write(new File(out, "throughput_summary.csv"),
+                "pipeline,images,images_per_min,latency_p50_ms,latency_p90_ms,latency_p99_ms,peak_heap_mb,count_error_pct", summary);
+        write(new File(out, "throughput_stages.csv"),
+                "pipeline,stage,n,p50_ms,p90_ms,p99_ms,max_ms", stageRows);
+        System.out.println("\nReports in " + out.getAbsolutePath());
+    }
+
+    private static Run pipeline(String name, File outDir, boolean overlays, boolean cache) {
+        switch (name) {
+            case "hu":
+                return (s, progress) -> {
+                    Params p = params(s, outDir, overlays, cache);
+                    progress.start(NeuronsHuPipeline.estimateSteps(p));
+                    NeuronsHuPipeline.HuResult r = new NeuronsHuPipeline().run(p, true, progress);
+                    return new int[][]{ { r.totalNeuronCount, s.cells.size() } };
+                };
+            case "multi":
+                return (s, progress) -> {
+                    NeuronsMultiPipeline.MultiParams mp = new NeuronsMultiPipeline.MultiParams();
+                    mp.base = params(s, outDir, overlays, cache);
+                    mp.markers.add(new NeuronsMultiPipeline.MarkerSpec("A", SyntheticImages.MARKER_A_CHANNEL));
+                    mp.markers.add(new NeuronsMultiPipeline.MarkerSpec("B", SyntheticImages.MARKER_B_CHANNEL));
+                    NeuronsMultiPipeline.MultiResult r = new NeuronsMultiPipeline().runDirect(mp, progress);
+                    return new int[][]{ { r.totalHu, s.cells.size() },
+                            { r.totals.get("A"), s.count(true, false) },
+                            { r.totals.get("B"), s.count(false, true) },
+                            { r.totals.get("A+B"), s.count(true, true) } };
+                };
+            case "nohu":
+                return (s, progress) -> {
+                    NeuronsMultiNoHuPipeline.MultiParams mp = new NeuronsMultiNoHuPipeline.MultiParams();
+                    mp.base = params(s, outDir, overlays, cache);
+                    mp.base.gangliaMode = Params.GangliaMode.IMPORT_ROI;
+                    mp.base.customGangliaRoiZip = s.gangliaRoiZip.getAbsolutePath();
+                    mp.markers.add(new NeuronsMultiNoHuPipeline.MarkerSpec("A", SyntheticImages.MARKER_A_CHANNEL));
+                    mp.markers.add(new NeuronsMultiNoHuPipeline.MarkerSpec("B", SyntheticImages.MARKER_B_CHANNEL));
+                    NeuronsMultiNoHuPipeline.NoHuResult r = new NeuronsMultiNoHuPipeline().runDirect(mp, progress);
+                    return new int[][]{ { r.totals.get("A"), s.count(true, false) },
+                            { r.totals.get("B"), s.count(false, true) },
+                            { r.totals.get("A+B"), s.count(true, true) } };
+                };
+            default:
+                throw new IllegalArgumentException("Unknown pipeline '" + name + "' (hu, multi, nohu)");
+        }
+    }
+
+    private static Params params(SyntheticImages.Sample s, File outDir, boolean overlays, boolean cache) {
+        Params p = new Params();
+        p.headless = true;
+        p.segmentationBackend = StubSegmenter.NAME;
+        p.imagePath = s.tif.getAbsolutePath();
+        p.outputDir = outDir.getAbsolutePath();
+        p.huChannel = SyntheticImages.HU_CHANNEL;
+        p.gangliaChannel = SyntheticImages.GANGLIA_CHANNEL;
+        p.trainingPixelSizeUm = SyntheticLabels.PIXEL_UM;
+        p.useProjectionCache = cache;
+        p.projectionCacheDir = new File(outDir, "projection-cache").getAbsolutePath();
+        p.saveFlattenedOverlay = overlays;
+        p.cellCountsPerGanglia = true;
+        p.gangliaMode = Params.GangliaMode.DEFINE_FROM_HU;
+        p.doSpatialAnalysis = false;
+        return p;
+    }
+
+    // nearest-rank percentile
+    private static double pct(List<Double> v, double q) {
+        if (v.isEmpty()) return 0;
+        List<Double> s = new ArrayList<>(v);
+        Collections.sort(s);
+        int rank = (int) Math.ceil(q / 100.0 * s.size());
+        return s.get(Math.max(0, Math.min(s.size() - 1, rank - 1)));
+    }
+
+    private static String f(double d) {
+        return String.format(Locale.US, "%.2f", d);
+    }
+
+    private static void write(File csv, String header, List<String[]> rows) throws IOException {
+        try (PrintWriter pw = new PrintWriter(csv, "UTF-8")) {
+            pw.println(header);
+            for (String[] r : rows) {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < r.length; i++) {
+                    if (i > 0) sb.append(',');
+                    String c = r[i];
+                    sb.append(c.indexOf(',') >= 0 || c.indexOf('"') >= 0 ? '"' + c.replace("\"", "\"\"") + '"' : c);
+                }
+                pw.println(sb);
+            }
+        }
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> m = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            String k = args[i].substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) m.put(k, args[++i]);
+            else m.put(k, "");
+        }
+        return m;
+    }
+}
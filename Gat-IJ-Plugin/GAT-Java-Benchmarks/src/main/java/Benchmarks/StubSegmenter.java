@@ -0,0 +1,37 @@
+package Benchmarks;
+
+import Features.Core.Params;
+import Features.Core.SegmentationBackend;
+import Features.Tools.LabelOps;
+import ij.ImagePlus;
+import ij.process.AutoThresholder;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * Deterministic stand-in for StarDist: Otsu threshold of the (8-bit scaled) input and
+ * 8-connected components. Needs no model, GPU or Fiji plugins; on {@link SyntheticImages} it
+ * finds exactly the generated cells, so the pipelines' own work is what gets measured.
+ */
+public final class StubSegmenter implements SegmentationBackend {
+
+    public static final String NAME = "Stub";
+
+    @Override
+    public ImagePlus segment(ImagePlus input, String modelZip, double prob, double nms, Params p) {
+        ImageProcessor ip = input.getProcessor().convertToByte(true);
+        int t = new AutoThresholder().getThreshold(AutoThresholder.Method.Otsu, ip.getHistogram());
+        byte[] in = (byte[]) ip.getPixels();
+        byte[] bin = new byte[in.length];
+        for (int i = 0; i < in.length; i++) if ((in[i] & 0xFF) > t) bin[i] = (byte) 255;
+        ImagePlus out = new ImagePlus(input.getTitle() + "_labels",
+                LabelOps.binaryToLabels(new ByteProcessor(ip.getWidth(), ip.getHeight(), bin, null)));
+        out.setCalibration(input.getCalibration());
+        return out;
+    }
+
+    @Override
+    public boolean needsModel() {
+        return false;
+    }
+}
@@ -0,0 +1,147 @@
+package Benchmarks;
+
+import Features.Tools.OutputIO;
+import ij.CompositeImage;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.OvalRoi;
+import ij.gui.Roi;
+import ij.io.FileSaver;
+import ij.measure.Calibration;
+import ij.process.ByteProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Seeded multi-channel images with known cell positions, laid out like the lab's acquisitions:
+ * C1 ganglia (fibre) signal, C2 marker A, C3 Hu, C4 marker B. Cells are bright discs on noise,
+ * clustered in elliptical ganglia, kept apart and away from the border so that a threshold +
+ * connected-components segmenter finds exactly the generated cells.
+ */
+public final class SyntheticImages {
+    private SyntheticImages(){}
+
+    public static final int GANGLIA_CHANNEL = 1, MARKER_A_CHANNEL = 2, HU_CHANNEL = 3, MARKER_B_CHANNEL = 4;
+
+    public static final class Cell {
+        public final int x, y, radius;
+        public final boolean markerA, markerB;
+
+        Cell(int x, int y, int radius, boolean markerA, boolean markerB) {
+            this.x = x;
+            this.y = y;
+            this.radius = radius;
+            this.markerA = markerA;
+            this.markerB = markerB;
+        }
+    }
+
+    /** Generated image on disk plus its ground truth. */
+    public static final class Sample {
+        public final File tif, gangliaRoiZip;
+        public final List<Cell> cells;
+        public final int nGanglia;
+
+        Sample(File tif, File gangliaRoiZip, List<Cell> cells, int nGanglia) {
+            this.tif = tif;
+            this.gangliaRoiZip = gangliaRoiZip;
+            this.cells = cells;
+            this.nGanglia = nGanglia;
+        }
+
+        public int count(boolean a, boolean b) {
+            int n = 0;
+            for (Cell c : cells) if ((!a || c.markerA) && (!b || c.markerB)) n++;
+            return n;
+        }
+    }
+
+    /**
+     * Writes &lt;dir&gt;/&lt;name&gt;.tif (4 channels, 8-bit, {@link SyntheticLabels#PIXEL_UM} µm pixels)
+     * and &lt;name&gt;_ganglia.zip (one oval ROI per ganglion).
+     */
+    public static Sample write(File dir, String name, int size, int cells, int cellRadius, int ganglia,
+                               double fractionA, double fractionB, long seed) throws IOException {
+        Random rnd = new Random(seed);
+        int n = size * size;
+        byte[] gPx = noise(n, rnd), aPx = noise(n, rnd), huPx = noise(n, rnd), bPx = noise(n, rnd);
+
+        // ganglia: ellipses, cells are drawn from inside them
+        int margin = 3 * cellRadius;
+        List<Roi> gRois = new ArrayList<>();
+        double[] gx = new double[ganglia], gy = new double[ganglia], grx = new double[ganglia], gry = new double[ganglia];
+        for (int g = 0; g < ganglia; g++) {
+            grx[g] = size * (0.05 + 0.04 * rnd.nextDouble());
+            gry[g] = grx[g] * (0.4 + 0.3 * rnd.nextDouble());
+            gx[g] = margin + grx[g] + rnd.nextDouble() * Math.max(1, size - 2 * (margin + grx[g]));
+            gy[g] = margin + gry[g] + rnd.nextDouble() * Math.max(1, size - 2 * (margin + gry[g]));
+            Roi r = new OvalRoi(gx[g] - grx[g], gy[g] - gry[g], 2 * grx[g], 2 * gry[g]);
+            r.setName(String.format("g%03d", g + 1));
+            gRois.add(r);
+            ellipse(gPx, size, gx[g], gy[g], grx[g], gry[g], 70);
+        }
+
+        List<Cell> placed = new ArrayList<>();
+        double minDist = 2.6 * cellRadius;
+        for (int tries = 0; placed.size() < cells && tries < cells * 200; tries++) {
+            int g = rnd.nextInt(ganglia);
+            double t = 2 * Math.PI * rnd.nextDouble(), s = Math.sqrt(rnd.nextDouble());
+            int x = (int) Math.round(gx[g] + s * grx[g] * Math.cos(t));
+            int y = (int) Math.round(gy[g] + s * gry[g] * Math.sin(t));
+            if (x < margin || y < margin || x >= size - margin || y >= size - margin) continue;
+            boolean free = true;
+            for (Cell c : placed) {
+                double dx = c.x - x, dy = c.y - y;
+                if (dx * dx + dy * dy < minDist * minDist) { free = false; break; }
+            }
+            if (!free) continue;
+            Cell c = new Cell(x, y, cellRadius, rnd.nextDouble() < fractionA, rnd.nextDouble() < fractionB);
+            placed.add(c);
+            ellipse(huPx, size, x, y, cellRadius, cellRadius, 150 + rnd.nextInt(80));
+            if (c.markerA) ellipse(aPx, size, x, y, cellRadius, cellRadius, 140 + rnd.nextInt(80));
+            if (c.markerB) ellipse(bPx, size, x, y, cellRadius, cellRadius, 140 + rnd.nextInt(80));
+        }
+
+        ImageStack stack = new ImageStack(size, size);
+        stack.addSlice("c1", new ByteProcessor(size, size, gPx));
+        stack.addSlice("c2", new ByteProcessor(size, size, aPx));
+        stack.addSlice("c3", new ByteProcessor(size, size, huPx));
+        stack.addSlice("c4", new ByteProcessor(size, size, bPx));
+        ImagePlus imp = new ImagePlus(name, stack);
+        imp.setDimensions(4, 1, 1);
+        imp = new CompositeImage(imp, CompositeImage.COMPOSITE);
+        Calibration cal = new Calibration();
+        cal.pixelWidth = cal.pixelHeight = SyntheticLabels.PIXEL_UM;
+        cal.setUnit("micron");
+        imp.setCalibration(cal);
+
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("cannot create " + dir);
+        File tif = new File(dir, name + ".tif");
+        if (!new FileSaver(imp).saveAsTiff(tif.getAbsolutePath())) throw new IOException("could not write " + tif);
+        File zip = new File(dir, name + "_ganglia.zip");
+        OutputIO.saveRois(gRois.toArray(new Roi[0]), zip);
+        return new Sample(tif, zip, placed, ganglia);
+    }
+
+    private static byte[] noise(int n, Random rnd) {
+        byte[] px = new byte[n];
+        for (int i = 0; i < n; i++) px[i] = (byte) (8 + rnd.nextInt(16));
+        return px;
+    }
+
+    private static void ellipse(byte[] px, int size, double cx, double cy, double rx, double ry, int value) {
+        int x0 = Math.max(0, (int) Math.floor(cx - rx)), x1 = Math.min(size - 1, (int) Math.ceil(cx + rx));
+        int y0 = Math.max(0, (int) Math.floor(cy - ry)), y1 = Math.min(size - 1, (int) Math.ceil(cy + ry));
+        for (int y = y0; y <= y1; y++) {
+            double fy = (y - cy) / ry;
+            for (int x = x0; x <= x1; x++) {
+                double fx = (x - cx) / rx;
+                if (fx * fx + fy * fy <= 1.0) px[y * size + x] = (byte) Math.max(px[y * size + x] & 0xFF, value);
+            }
+        }
+    }
+}
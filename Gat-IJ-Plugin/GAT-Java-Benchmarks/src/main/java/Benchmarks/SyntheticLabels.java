@@ -0,0 +1,121 @@
+package Benchmarks;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.process.ByteProcessor;
+import ij.process.ShortProcessor;
+
+import java.util.Random;
+
+/**
+ * Seeded synthetic inputs shaped like the pipeline's: 16-bit neuron label maps (jittered discs,
+ * later cells overlapping earlier ones), marker label maps covering a fraction of the cells,
+ * ganglia label maps (large ellipses) and 8-bit time-lapse stacks. Same arguments, same pixels.
+ */
+public final class SyntheticLabels {
+    private SyntheticLabels(){}
+
+    /** Pixel size given to every synthetic image (µm). */
+    public static final double PIXEL_UM = 0.568;
+
+    /** count discs of radius ~cellRadius (±25%) labelled 1..count at random positions. */
+    public static ImagePlus cells(int w, int h, int count, int cellRadius, long seed) {
+        if (count > 65535) throw new IllegalArgumentException("At most 65535 labels fit a 16-bit map: " + count);
+        Random rnd = new Random(seed);
+        short[] px = new short[w * h];
+        for (int id = 1; id <= count; id++) {
+            double r = cellRadius * (0.75 + 0.5 * rnd.nextDouble());
+            disc(px, w, h, rnd.nextInt(w), rnd.nextInt(h), r, r, (short) id);
+        }
+        return labels("synthetic_cells", w, h, px);
+    }
+
+    /**
+     * Marker labels: about fraction of the cells in cellLabels, each shifted by up to shiftPx and
+     * renumbered 1..K, like a second StarDist run on a marker channel.
+     */
+    public static ImagePlus marker(ImagePlus cellLabels, double fraction, int shiftPx, long seed) {
+        int w = cellLabels.getWidth(), h = cellLabels.getHeight();
+        short[] src = (short[]) cellLabels.getProcessor().getPixels();
+        int maxId = 0;
+        for (short v : src) maxId = Math.max(maxId, v & 0xFFFF);
+        Random rnd = new Random(seed);
+        int[] newId = new int[maxId + 1];
+        int[] dx = new int[maxId + 1], dy = new int[maxId + 1];
+        int k = 0;
+        for (int id = 1; id <= maxId; id++) {
+            if (rnd.nextDouble() >= fraction) continue;
+            newId[id] = ++k;
+            dx[id] = rnd.nextInt(2 * shiftPx + 1) - shiftPx;
+            dy[id] = rnd.nextInt(2 * shiftPx + 1) - shiftPx;
+        }
+        short[] px = new short[w * h];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int id = src[y * w + x] & 0xFFFF;
+                if (id == 0 || newId[id] == 0) continue;
+                int tx = x + dx[id], ty = y + dy[id];
+                if (tx >= 0 && ty >= 0 && tx < w && ty < h) px[ty * w + tx] = (short) newId[id];
+            }
+        }
+        return labels("synthetic_marker", w, h, px);
+    }
+
+    /** count non-overlapping-ish ellipses with semi-axes around meanRadius, labelled 1..count. */
+    public static ImagePlus ganglia(int w, int h, int count, int meanRadius, long seed) {
+        Random rnd = new Random(seed);
+        short[] px = new short[w * h];
+        for (int id = 1; id <= count; id++) {
+            double rx = meanRadius * (0.6 + 0.8 * rnd.nextDouble());
+            double ry = meanRadius * (0.3 + 0.4 * rnd.nextDouble());
+            disc(px, w, h, rnd.nextInt(w), rnd.nextInt(h), rx, ry, (short) id);
+        }
+        return labels("synthetic_ganglia", w, h, px);
+    }
+
+    /** Single-channel 8-bit stack of frames with drifting bright blobs over noise (dimensions 1, 1, frames). */
+    public static ImagePlus timeLapse(int w, int h, int frames, long seed) {
+        Random rnd = new Random(seed);
+        int blobs = Math.max(1, w * h / 4096);
+        double[] bx = new double[blobs], by = new double[blobs];
+        for (int i = 0; i < blobs; i++) { bx[i] = rnd.nextInt(w); by[i] = rnd.nextInt(h); }
+        ImageStack stack = new ImageStack(w, h);
+        for (int t = 0; t < frames; t++) {
+            byte[] px = new byte[w * h];
+            for (int i = 0; i < px.length; i++) px[i] = (byte) rnd.nextInt(40);
+            for (int i = 0; i < blobs; i++) {
+                bx[i] += rnd.nextGaussian();
+                by[i] += rnd.nextGaussian();
+                int cx = (int) bx[i], cy = (int) by[i];
+                for (int y = Math.max(0, cy - 4); y < Math.min(h, cy + 5); y++)
+                    for (int x = Math.max(0, cx - 4); x < Math.min(w, cx + 5); x++) px[y * w + x] = (byte) 220;
+            }
+            stack.addSlice("t" + (t + 1), new ByteProcessor(w, h, px));
+        }
+        ImagePlus imp = new ImagePlus("synthetic_timelapse", stack);
+        imp.setDimensions(1, 1, frames);
+        return imp;
+    }
+
+    private static void disc(short[] px, int w, int h, int cx, int cy, double rx, double ry, short id) {
+        int x0 = Math.max(0, (int) Math.floor(cx - rx)), x1 = Math.min(w - 1, (int) Math.ceil(cx + rx));
+        int y0 = Math.max(0, (int) Math.floor(cy - ry)), y1 = Math.min(h - 1, (int) Math.ceil(cy + ry));
+        for (int y = y0; y <= y1; y++) {
+            double fy = (y - cy) / ry;
+            for (int x = x0; x <= x1; x++) {
+                double fx = (x - cx) / rx;
+                if (fx * fx + fy * fy <= 1.0) px[y * w + x] = id;
+            }
+        }
+    }
+
+    private static ImagePlus labels(String title, int w, int h, short[] px) {
+        ImagePlus imp = new ImagePlus(title, new ShortProcessor(w, h, px, null));
+        Calibration cal = new Calibration();
+        cal.pixelWidth = cal.pixelHeight = PIXEL_UM;
+        cal.setUnit("micron");
+        imp.setCalibration(cal);
+        return imp;
+    }
+}
@@ -0,0 +1,58 @@
+package Benchmarks;
+
+import Analysis.TemporalColorCoder;
+import Features.Core.Params;
+import ij.ImagePlus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Temporal colour coding of a time-lapse, with and without the max projection. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class TemporalColorCoderBenchmark {
+
+    @Param({"512", "1024"})
+    public int size;
+
+    @Param({"50"})
+    public int frames;
+
+    @Param({"", "Max Intensity"})
+    public String projection;
+
+    private ImagePlus stack;
+    private Params params;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        stack = SyntheticLabels.timeLapse(size, size, frames, 3L);
+        params = new Params();
+        params.batchMode = true;
+        params.createColorScale = false;
+        params.lutName = "Fire";
+        params.projectionMethod = projection;
+        params.referenceFrame = 1;
+        params.referenceFrameEnd = 0;
+    }
+
+    @Benchmark
+    public ImagePlus run() throws Exception {
+        return TemporalColorCoder.run(stack, params).rgbStack;
+    }
+}
@@ -5,8 +5,7 @@ import ij.ImagePlus;
 import ij.WindowManager;
 import ij.plugin.frame.RoiManager;
 
-// add this import to use your existing helpers
-import Features.Core.PluginCalls;
+import Features.Tools.LabelOps;
 
 public class ConvertROIToLabels {
 
@@ -36,19 +35,15 @@ public class ConvertROIToLabels {
         ImagePlus old = WindowManager.getImage("label_mapss");
         if (old != null) { old.changes = false; old.close(); }
 
-        // Deterministic conversion: ROIs -> binary -> labels
-        // (these helpers already exist in your codebase and do not depend on overlay)
-        ImagePlus bin = PluginCalls.roisToBinary(canvas, rm);   // same size as canvas
-        ImagePlus lab = PluginCalls.binaryToLabels(bin);        // 16-bit label map
+        // Deterministic conversion: each ROI painted with its own ID (RoiManager order)
+        ImagePlus lab = new ImagePlus("label_mapss",
+                LabelOps.roisToLabels(rm.getRoisAsArray(), canvas.getWidth(), canvas.getHeight()));
 
         // Match calibration and publish under the fixed name that upstream code expects
         lab.setCalibration(canvas.getCalibration());
         lab.setTitle("label_mapss");
         lab.show();
 
-        // Tidy
-        bin.changes = false;
-        bin.close();
         rm.reset(); // optional
     }
 }
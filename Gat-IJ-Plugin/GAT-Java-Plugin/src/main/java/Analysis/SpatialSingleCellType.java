@@ -2,6 +2,7 @@ package Analysis;
 
 import ij.*;
 import ij.process.ImageProcessor;
+import Features.Tools.LabelStats;
 import ij.measure.ResultsTable;
 import net.haesleinhuepf.clij2.CLIJ2;
 import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
@@ -16,22 +17,29 @@ public class SpatialSingleCellType {
                                String savePath, double labelDilation, boolean saveParametricImage,
                                double pixelWidth, String roiPath) throws Exception {
 
-        CLIJ2 clij2 = CLIJ2.getInstance();
-        int labelDilationPixels = (int) Math.round(labelDilation / pixelWidth);
-
-        String spatialSavePath = savePath + FILE_SEPARATOR + "spatial_analysis" + FILE_SEPARATOR;
-        new File(spatialSavePath).mkdirs();
-
         ImagePlus cellImg = WindowManager.getImage(cellImage);
         if (cellImg == null) {
             IJ.error("Cell image not found: " + cellImage);
             return;
         }
+        execute(cellType, cellImg, savePath, labelDilation, saveParametricImage, pixelWidth);
+    }
+
+    /** Same analysis on a label image passed by reference (no WindowManager lookup). */
+    public static void execute(String cellType, ImagePlus cellImg, String savePath, double labelDilation,
+                               boolean saveParametricImage, double pixelWidth) throws Exception {
+
+        CLIJ2 clij2 = CLIJ2.getInstance();
+        int labelDilationPixels = (int) Math.round(labelDilation / pixelWidth);
+
+        String spatialSavePath = savePath + FILE_SEPARATOR + "spatial_analysis" + FILE_SEPARATOR;
+        new File(spatialSavePath).mkdirs();
 
         int width = cellImg.getWidth();
         int height = cellImg.getHeight();
         ImageProcessor labelIp = cellImg.getProcessor();
-        int maxLabel = (int) labelIp.getStatistics().max;
+        LabelStats labelStats = LabelStats.of(labelIp);
+        int maxLabel = labelStats.maxId;
 
         // Push label image to GPU
         ClearCLBuffer cellBuffer = clij2.push(cellImg);
@@ -51,16 +59,9 @@ public class SpatialSingleCellType {
         // Prepare CSV
         ResultsTable outTable = new ResultsTable();
         for (int label = 1; label <= maxLabel; label++) {
-            int neighborCount = 0;
-            outer:
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    if ((int) labelIp.getPixel(x, y) == label) {
-                        neighborCount = (int) neighborIp.getPixel(x, y);
-                        break outer;
-                    }
-                }
-            }
+            // value of the neighbour map at the label's first pixel
+            int first = labelStats.first[label];
+            int neighborCount = (first >= 0) ? (int) neighborIp.getPixel(first % width, first / width) : 0;
             outTable.incrementCounter();
             outTable.addLabel(String.valueOf(label));
             outTable.addValue("No of cells around " + cellType, neighborCount);
@@ -2,6 +2,7 @@ package Analysis;
 
 import ij.*;
 import ij.process.ImageProcessor;
+import Features.Tools.LabelStats;
 import ij.measure.ResultsTable;
 import net.haesleinhuepf.clij2.CLIJ2;
 import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
@@ -43,8 +44,8 @@ public class SpatialTwoCellType {
         // Get max labels for each cell type
         ImageProcessor labelIp1 = cellImg1.getProcessor();
         ImageProcessor labelIp2 = cellImg2.getProcessor();
-        int maxLabel1 = (int) labelIp1.getStatistics().max;
-        int maxLabel2 = (int) labelIp2.getStatistics().max;
+        int maxLabel1 = LabelStats.maxId(labelIp1);
+        int maxLabel2 = LabelStats.maxId(labelIp2);
 
         // Count cell2 neighbors around cell1
         int[] countsCell2AroundCell1 = countNeighboursAroundRef(clij2, cellImg1, cellImg2, labelDilationPixels, gangliaBinary, width, height);
@@ -141,20 +142,14 @@ public class SpatialTwoCellType {
 
         // Get max label in reference image
         ImageProcessor refIp = refImg.getProcessor();
-        int maxLabel = (int) refIp.getStatistics().max;
+        LabelStats refStats = LabelStats.of(refIp);
+        int maxLabel = refStats.maxId;
 
         int[] counts = new int[maxLabel + 1]; // counts[0] is background
         for (int label = 1; label <= maxLabel; label++) {
-            // Find first pixel of this label and read count from overlap map
-            outer:
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    if ((int) refIp.getPixel(x, y) == label) {
-                        counts[label] = (int) overlapIp.getPixel(x, y);
-                        break outer;
-                    }
-                }
-            }
+            // Read count from overlap map at the first pixel of this label
+            int first = refStats.first[label];
+            if (first >= 0) counts[label] = (int) overlapIp.getPixel(first % width, first / width);
         }
 
         // Cleanup GPU buffers
@@ -2,13 +2,21 @@ package Features.AnalyseWorkflows;
 
 import Features.Core.Params;
 import Features.Core.PluginCalls;
+import Features.Tools.DistanceTransform;
+import Features.Tools.LabelOps;
+import Features.Tools.LabelStats;
+import Features.Tools.OutputIO;
 import Features.Tools.ProgressUI;
 import ij.IJ;
 import ij.ImagePlus;
+import ij.gui.Roi;
 import ij.gui.WaitForUserDialog;
+import ij.plugin.RoiScaler;
 import ij.plugin.frame.RoiManager;
+import ij.process.ByteProcessor;
+
+import java.util.BitSet;
 
-import static Features.Core.PluginCalls.clearThreshold;
 import static Features.Tools.RoiManagerHelper.*;
 
 public final class GangliaOps {
@@ -22,58 +30,91 @@ public final class GangliaOps {
             case IMPORT_ROI:
                 return importRoiToLabels(p, maxProjection);
             case MANUAL:
-                return manualDrawToLabels(p,maxProjection);
+                return manualDrawToLabels(p, maxProjection, progress);
             case DEEPIMAGEJ:
             default:
                 return deepImageJ(p, maxProjection, progress);
         }
     }
 
-    /** Count neurons per ganglion via neuron-label centroids sampled in ganglia label map. */
-    public static Result countPerGanglion(ImagePlus neuronLabels, ImagePlus gangliaLabels) {
-        final int w = neuronLabels.getWidth(), h = neuronLabels.getHeight();
-        final short[] nl = (short[]) neuronLabels.getProcessor().convertToShort(false).getPixels();
-        final short[] gl = (short[]) gangliaLabels.getProcessor().convertToShort(false).getPixels();
+    /**
+     * Window-free variant of {@link #segment} for headless runs. Only the modes that need no
+     * user interaction or external plugin (DEFINE_FROM_HU, IMPORT_ROI) are supported.
+     */
+    public static ImagePlus segmentDirect(Params p, ImagePlus maxProjection, ImagePlus neuronLabels) {
+        return segmentDirect(p, maxProjection, neuronLabels, 1.0);
+    }
 
-        int maxN = 0, maxG = 0;
-        for (short v : nl) if ((v & 0xffff) > maxN) maxN = (v & 0xffff);
-        for (short v : gl) if ((v & 0xffff) > maxG) maxG = (v & 0xffff);
+    /** As above; imported ROIs are scaled by roiScale first (maxProjection is a downsampled MAX). */
+    public static ImagePlus segmentDirect(Params p, ImagePlus maxProjection, ImagePlus neuronLabels, double roiScale) {
+        int w = maxProjection.getWidth(), h = maxProjection.getHeight();
+        ByteProcessor bin;
+        switch (p.gangliaMode) {
+            case DEFINE_FROM_HU: {
+                if (neuronLabels == null) throw new IllegalArgumentException("Define-from-Hu needs neuron labels.");
+                double pxUm = (maxProjection.getCalibration() != null) ? maxProjection.getCalibration().pixelWidth : 0.0;
+                if (pxUm <= 0) throw new IllegalStateException("Image must be calibrated in microns.");
+                bin = LabelOps.toBinary(neuronLabels.getProcessor());
+                DistanceTransform.dilate(bin, p.huDilationMicron / pxUm);
+                break;
+            }
+            case IMPORT_ROI: {
+                if (p.customGangliaRoiZip == null || p.customGangliaRoiZip.isEmpty())
+                    throw new IllegalArgumentException("Custom ROI zip path is empty.");
+                bin = new ByteProcessor(w, h);
+                bin.setValue(255);
+                for (Roi r : OutputIO.loadRois(new java.io.File(p.customGangliaRoiZip)))
+                    bin.fill(roiScale == 1.0 ? r : RoiScaler.scale(r, roiScale, roiScale, false));
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Ganglia mode " + p.gangliaMode + " is not available in headless mode.");
+        }
+        ImagePlus labels = new ImagePlus("ganglia_labels", LabelOps.binaryToLabels(bin));
+        labels.setCalibration(maxProjection.getCalibration());
+        return labels;
+    }
 
+    /** Count neurons per ganglion via neuron-label centroids sampled in ganglia label map. */
+    public static Result countPerGanglion(ImagePlus neuronLabels, ImagePlus gangliaLabels) {
+        LabelStats ganglia = LabelStats.of(gangliaLabels.getProcessor());
+        int[] ganglionOf = ganglionOfLabels(neuronLabels, gangliaLabels);
+        int maxN = ganglionOf.length - 1, maxG = ganglia.maxId;
         if (maxN == 0 || maxG == 0) return new Result(new int[0], new double[0], 0);
 
-        double[] sx = new double[maxN + 1], sy = new double[maxN + 1];
-        int[] cnt = new int[maxN + 1];
-
-        int idx = 0;
-        for (int y = 0; y < h; y++)
-            for (int x = 0; x < w; x++, idx++) {
-                int id = nl[idx] & 0xffff;
-                if (id > 0) { sx[id] += x; sy[id] += y; cnt[id]++; }
-            }
-
         int[] perGanglion = new int[maxG + 1];
-        for (int id = 1; id <= maxN; id++) {
-            if (cnt[id] == 0) continue;
-            int cx = (int)Math.round(sx[id] / cnt[id]);
-            int cy = (int)Math.round(sy[id] / cnt[id]);
+        for (int id = 1; id <= maxN; id++) if (ganglionOf[id] > 0) perGanglion[ganglionOf[id]]++;
+        return new Result(perGanglion, ganglia.areaUm2(gangliaLabels.getCalibration()), maxG);
+    }
+
+    /**
+     * Ganglion ID (0 = none) under the rounded centroid of every neuron label, indexed by neuron ID;
+     * labels that do not occur map to 0. Lets cell-level subsets be counted per ganglion without
+     * rebuilding label maps.
+     */
+    public static int[] ganglionOfLabels(ImagePlus neuronLabels, ImagePlus gangliaLabels) {
+        LabelStats neurons = LabelStats.of(neuronLabels.getProcessor());
+        final int w = neurons.width, h = neurons.height;
+        final short[] gl = (short[]) LabelOps.asShortLabels(gangliaLabels.getProcessor()).getPixels();
+        int[] ganglionOf = new int[neurons.maxId + 1];
+        for (int id = 1; id <= neurons.maxId; id++) {
+            if (neurons.area[id] == 0) continue;
+            int cx = (int)Math.round(neurons.centroidX(id));
+            int cy = (int)Math.round(neurons.centroidY(id));
             if (cx < 0) cx = 0; if (cy < 0) cy = 0;
             if (cx >= w) cx = w - 1; if (cy >= h) cy = h - 1;
-            int gid = gl[cy * w + cx] & 0xffff;
-            if (gid > 0) perGanglion[gid]++;
+            ganglionOf[id] = gl[cy * w + cx] & 0xffff;
         }
+        return ganglionOf;
+    }
 
-        // area in µm²
-        int[] areaPx = new int[maxG + 1];
-        for (short v : gl) {
-            int gid = v & 0xffff;
-            if (gid > 0) areaPx[gid]++;
-        }
-        double pxUm = gangliaLabels.getCalibration().pixelWidth > 0 ? gangliaLabels.getCalibration().pixelWidth : 1.0;
-        double s = pxUm * pxUm;
-        double[] areaUm2 = new double[maxG + 1];
-        for (int g = 1; g <= maxG; g++) areaUm2[g] = areaPx[g] * s;
-
-        return new Result(perGanglion, areaUm2, maxG);
+    /** {@link #countPerGanglion} counts for a subset of neuron IDs (same empty-result rule). */
+    public static int[] countPerGanglion(BitSet neuronIds, int[] ganglionOf, int maxG) {
+        if (neuronIds.isEmpty() || maxG == 0) return new int[0];
+        int[] perGanglion = new int[maxG + 1];
+        for (int id = neuronIds.nextSetBit(0); id >= 0 && id < ganglionOf.length; id = neuronIds.nextSetBit(id + 1))
+            if (ganglionOf[id] > 0) perGanglion[ganglionOf[id]]++;
+        return perGanglion;
     }
 
     // ---------- methods (reuse PluginCalls everywhere possible) ----------
@@ -96,19 +137,14 @@ public final class GangliaOps {
     }
 
     private static ImagePlus defineFromHu(Params p, ImagePlus neuronLabels, ImagePlus ref) {
-        // labels -> binary (inline)
-        ImagePlus bin = neuronLabels.duplicate();
-        bin.show();
-        IJ.run(bin, "Select None", "");
-        IJ.setThreshold(bin, 1, 65535);
-        IJ.run(bin, "Convert to Mask", "");
-        clearThreshold(bin);
-
         double pxUm = (ref.getCalibration() != null) ? ref.getCalibration().pixelWidth : 0.0;
         if (pxUm <= 0) throw new IllegalStateException("Image must be calibrated in microns.");
-        int iters = Math.max(0, (int) Math.round(p.huDilationMicron / pxUm));  // allow 0
 
-        for (int i = 0; i < iters; i++) IJ.run(bin, "Dilate", "");
+        // grow somata by huDilationMicron: one Euclidean distance transform instead of n x "Dilate"
+        ByteProcessor mask = LabelOps.toBinary(neuronLabels.getProcessor());
+        DistanceTransform.dilate(mask, p.huDilationMicron / pxUm);
+        ImagePlus bin = new ImagePlus("ganglia_binary", mask);
+        bin.setCalibration(ref.getCalibration());
 
         ImagePlus labels = PluginCalls.binaryToLabels(bin);
         labels.setCalibration(ref.getCalibration());
@@ -133,23 +169,11 @@ public final class GangliaOps {
     }
 
     public static double[] areaPerGanglionUm2(ImagePlus gangliaLabels) {
-        short[] gl = (short[]) gangliaLabels.getProcessor().convertToShort(false).getPixels();
-        int maxG = 0;
-        for (short v : gl) { int g = v & 0xffff; if (g > maxG) maxG = g; }
-        int[] areaPx = new int[maxG + 1];
-        for (short v : gl) { int g = v & 0xffff; if (g > 0) areaPx[g]++; }
-
-        double pxUm = gangliaLabels.getCalibration().pixelWidth > 0
-                ? gangliaLabels.getCalibration().pixelWidth : 1.0;
-        double s = pxUm * pxUm;
-
-        double[] areaUm2 = new double[maxG + 1];
-        for (int g = 1; g <= maxG; g++) areaUm2[g] = areaPx[g] * s;
-        return areaUm2;
+        return LabelStats.of(gangliaLabels.getProcessor()).areaUm2(gangliaLabels.getCalibration());
     }
 
 
-    private static ImagePlus manualDrawToLabels(Params p, ImagePlus ref) {
+    private static ImagePlus manualDrawToLabels(Params p, ImagePlus ref, ProgressUI progress) {
         // Use shared RM; caller/pipeline will close via maybeCloseRM(...)
         RmHandle rmh = ensureGlobalRM();
         RoiManager rm = rmh.rm;
@@ -170,12 +194,17 @@ public final class GangliaOps {
 
 
         IJ.setTool("freehand");
-        new WaitForUserDialog(
-                "Ganglia outline",
-                "Draw each ganglion (Freehand/Polygon) and press 'T' to add to ROI Manager.\n" +
-                        "Delete to remove.\n" +
-                        "Click OK when done."
-        ).show();
+        if (progress != null) progress.metrics().pause();   // drawing time is not segmentation time
+        try {
+            new WaitForUserDialog(
+                    "Ganglia outline",
+                    "Draw each ganglion (Freehand/Polygon) and press 'T' to add to ROI Manager.\n" +
+                            "Delete to remove.\n" +
+                            "Click OK when done."
+            ).show();
+        } finally {
+            if (progress != null) progress.metrics().resume();
+        }
 
         ij.macro.Interpreter.batchMode = true;
 
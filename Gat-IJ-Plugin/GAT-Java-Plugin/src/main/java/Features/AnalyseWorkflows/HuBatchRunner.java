@@ -0,0 +1,190 @@
+package Features.AnalyseWorkflows;
+
+import Features.Core.DirectCalls;
+import Features.Core.Params;
+import Features.Tools.ProgressUI;
+import UI.util.InputValidation;
+import ij.IJ;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the Hu pipeline over every image in a folder on a fixed pool of workers.
+ * Each image gets its own Params copy and goes through the headless path, so workers share
+ * no WindowManager titles, RoiManager or batch-mode flag. A failing image is recorded in the
+ * manifest and does not stop the others.
+ */
+public final class HuBatchRunner {
+    private HuBatchRunner(){}
+
+    public static final String MANIFEST_NAME = "Hu_batch_manifest.csv";
+
+    /**
+     * Workers when none are given. StarDist runs one at a time ({@link DirectCalls#STARDIST_PERMITS}),
+     * so two workers already overlap one image's reading/projection and saving with the other's
+     * segmentation; more mainly multiply the projections held in memory.
+     */
+    public static final int DEFAULT_WORKERS = 2;
+
+    public static final class Entry {
+        public final File file;
+        public final boolean ok;
+        public final int neurons;
+        public final Integer nGanglia;   // null if ganglia were not analysed
+        public final double seconds;
+        public final File outDir;        // null on failure
+        public final String error;       // null on success
+
+        Entry(File file, boolean ok, int neurons, Integer nGanglia, double seconds, File outDir, String error) {
+            this.file = file;
+            this.ok = ok;
+            this.neurons = neurons;
+            this.nGanglia = nGanglia;
+            this.seconds = seconds;
+            this.outDir = outDir;
+            this.error = error;
+        }
+    }
+
+    /** Uses template.inputDir / template.fileExt; workers <= 0 means {@link #DEFAULT_WORKERS}. */
+    public static List<Entry> run(Params template, int workers) {
+        if (template.inputDir == null || template.inputDir.trim().isEmpty())
+            throw new IllegalArgumentException("Input directory not specified");
+        return run(new File(template.inputDir.trim()), template, workers);
+    }
+
+    public static List<Entry> run(File folder, Params template, int workers) {
+        if (!folder.isDirectory())
+            throw new IllegalArgumentException("Invalid input directory: " + folder.getAbsolutePath());
+
+        File[] files = listImages(folder, template.fileExt);
+        if (files.length == 0) {
+            IJ.log("No images found in " + folder.getAbsolutePath());
+            return new ArrayList<>();
+        }
+
+        int n = Math.min(files.length,
+                workers > 0 ? workers : DEFAULT_WORKERS);
+        IJ.log("Hu batch: " + files.length + " image(s), " + n + " worker(s)");
+
+        ProgressUI progress = new ProgressUI("Hu batch");
+        progress.start(files.length);
+        AtomicInteger done = new AtomicInteger();
+        AtomicInteger threadNo = new AtomicInteger();
+
+        ExecutorService pool = Executors.newFixedThreadPool(n, r -> {
+            Thread t = new Thread(r, "gat-hu-batch-" + threadNo.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        List<Entry> entries = new ArrayList<>(files.length);
+        try {
+            List<Future<Entry>> futures = new ArrayList<>(files.length);
+            for (File f : files) {
+                futures.add(pool.submit(() -> {
+                    Entry e = runOne(f, template);
+                    IJ.log((e.ok ? "  done " : "  FAILED ") + f.getName()
+                            + (e.ok ? " (" + e.neurons + " neurons)" : ": " + e.error));
+                    int k = done.incrementAndGet();
+                    synchronized (progress) { progress.set(k, "Processed " + k + "/" + files.length); }
+                    return e;
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    entries.add(futures.get(i).get());
+                } catch (ExecutionException ex) {
+                    // runOne catches everything it can; this is only a safety net
+                    entries.add(new Entry(files[i], false, 0, null, 0, null, String.valueOf(ex.getCause())));
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            IJ.log("Hu batch interrupted; manifest lists the finished images only.");
+        } finally {
+            pool.shutdownNow();
+            progress.close();
+        }
+
+        File manifest = new File(manifestParent(folder, template), MANIFEST_NAME);
+        writeManifest(manifest, entries);
+        IJ.log("Hu batch manifest: " + manifest.getAbsolutePath());
+        return entries;
+    }
+
+    private static Entry runOne(File f, Params template) {
+        Params p = template.copy();
+        p.imagePath = f.getAbsolutePath();
+        p.headless = true;
+
+        long t0 = System.nanoTime();
+        ProgressUI quiet = new ProgressUI(f.getName(), false);
+        quiet.start(NeuronsHuPipeline.estimateSteps(p));
+        try {
+            NeuronsHuPipeline.HuResult r = new NeuronsHuPipeline().run(p, false, quiet);
+            return new Entry(f, true, r.totalNeuronCount, r.nGanglia, secondsSince(t0), r.outDir, null);
+        } catch (Throwable t) {
+            String msg = (t.getMessage() != null) ? t.getMessage() : t.getClass().getSimpleName();
+            return new Entry(f, false, 0, null, secondsSince(t0), null, msg);
+        }
+    }
+
+    static File[] listImages(File folder, String fileExt) {
+        String ext = (fileExt == null) ? "" : fileExt.trim().toLowerCase(Locale.ROOT);
+        File[] files = folder.listFiles(f -> f.isFile() && (ext.isEmpty()
+                ? InputValidation.hasImageExtension(f)
+                : f.getName().toLowerCase(Locale.ROOT).endsWith(ext)));
+        if (files == null) return new File[0];
+        Arrays.sort(files);
+        return files;
+    }
+
+    // same parent rule as OutputIO.prepareOutputDir, so the manifest sits next to the per-image folders
+    static File manifestParent(File folder, Params template) {
+        File parent = (template.outputDir != null && !template.outputDir.trim().isEmpty())
+                ? new File(template.outputDir) : folder;
+        File analysis = new File(parent, "Analysis");
+        if (!analysis.isDirectory() && !analysis.mkdirs())
+            throw new IllegalStateException("Failed to create dir: " + analysis.getAbsolutePath());
+        return analysis;
+    }
+
+    static void writeManifest(File csv, List<Entry> entries) {
+        try (PrintWriter pw = new PrintWriter(csv, "UTF-8")) {
+            pw.println("File name,Status,Total neurons,No of ganglia,Seconds,Output folder,Error");
+            for (Entry e : entries) {
+                pw.printf(Locale.US, "%s,%s,%d,%s,%.1f,%s,%s%n",
+                        csvField(e.file.getName()),
+                        e.ok ? "OK" : "FAILED",
+                        e.neurons,
+                        e.nGanglia != null ? e.nGanglia.toString() : "",
+                        e.seconds,
+                        csvField(e.outDir != null ? e.outDir.getAbsolutePath() : ""),
+                        csvField(e.error != null ? e.error : ""));
+            }
+        } catch (IOException e) {
+            IJ.log("Failed writing batch manifest: " + e.getMessage());
+        }
+    }
+
+    private static String csvField(String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) return s;
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+
+    private static double secondsSince(long t0) {
+        return (System.nanoTime() - t0) / 1e9;
+    }
+}
@@ -0,0 +1,210 @@
+package Features.AnalyseWorkflows;
+
+import Features.Core.Params;
+import Features.Core.PluginCalls;
+import Features.Core.ProjectionCache;
+import Features.Core.SegmentationBackends;
+import Features.Tools.ImageOps;
+import Features.Tools.LabelOps;
+import Features.Tools.OutputIO;
+import Features.Tools.ProgressUI;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.Overlay;
+import ij.gui.Roi;
+import ij.measure.Calibration;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Quick look before a full Hu run: the MAX is shrunk by {@link Params#previewDownsample} and the
+ * Hu segmentation (at the pipeline's training-size input, shrunk by the same factor), size filter
+ * and ganglia counting run at that size. Nothing is written for a single preview; the counts are
+ * estimates (small somata drop out first as the factor grows).
+ * <p>
+ * Ganglia are estimated only for the window-free modes (DEFINE_FROM_HU, IMPORT_ROI); imported
+ * ROIs are scaled to the preview. {@link #screen} previews a folder and writes a manifest so
+ * full-resolution runs can be queued for the images that pass QC.
+ */
+public final class HuPreview {
+    private HuPreview(){}
+
+    public static final String MANIFEST_NAME = "Hu_preview_manifest.csv";
+    public static final String OVERLAY_DIR = "Hu_preview";
+
+    public static final class Preview {
+        public final String baseName;
+        public final int downsample;
+        public final double pixelUm;          // preview pixel size
+        public final int neurons;
+        public final Integer nGanglia;        // null if ganglia were not estimated
+        public final ImagePlus overlay;       // RGB preview with neurons (yellow) and ganglia (cyan)
+        public final double seconds;
+
+        Preview(String baseName, int downsample, double pixelUm, int neurons, Integer nGanglia,
+                ImagePlus overlay, double seconds) {
+            this.baseName = baseName;
+            this.downsample = downsample;
+            this.pixelUm = pixelUm;
+            this.neurons = neurons;
+            this.nGanglia = nGanglia;
+            this.overlay = overlay;
+            this.seconds = seconds;
+        }
+    }
+
+    public static int estimateSteps(Params p) {
+        return 4 + (p.cellCountsPerGanglia ? 1 : 0);
+    }
+
+    /** Window-free; progress may be null. */
+    public static Preview run(Params p, ProgressUI progress) {
+        if (p.imagePath == null || p.imagePath.isEmpty())
+            throw new IllegalArgumentException("The preview needs Params.imagePath.");
+        if (p.previewDownsample < 1)
+            throw new IllegalArgumentException("Preview downsample must be >= 1: " + p.previewDownsample);
+        SegmentationBackends.requireModel(p, p.stardistModelZip, "StarDist model");
+        long t0 = System.nanoTime();
+        int f = p.previewDownsample;
+
+        if (progress != null) progress.step("Opening projection");
+        ImagePlus max = ProjectionCache.open(p);
+        Calibration cal = max.getCalibration();
+        if (p.requireMicronUnits && !PluginCalls.isMicronUnit(cal.getUnit()))
+            throw new IllegalStateException("Image must be calibrated in microns. Unit: " + cal.getUnit());
+        String t = max.getTitle();
+        String baseName = (t.lastIndexOf('.') > 0) ? t.substring(0, t.lastIndexOf('.')) : t;
+        int pw = Math.max(1, (int) Math.round(max.getWidth() / (double) f));
+        int ph = Math.max(1, (int) Math.round(max.getHeight() / (double) f));
+
+        if (progress != null) progress.step("Downsampling by " + f);
+        ImagePlus huFull = ImageOps.extractChannel(max, p.huChannel);
+        ImagePlus hu = ImageOps.resizeToIntensity(huFull, pw, ph);
+        ImagePlus ganglia = (p.gangliaChannel >= 1 && p.gangliaChannel <= max.getNChannels())
+                ? ImageOps.resizeToIntensity(ImageOps.extractChannel(max, p.gangliaChannel), pw, ph) : hu;
+
+        // the pipeline's training-size rule, then shrunk by the factor (one resample from full size)
+        if (progress != null) progress.step("Segmenting preview");
+        double pxUm = hu.getCalibration().pixelWidth;
+        double scale = (p.trainingRescaleFactor > 0) ? p.trainingRescaleFactor : 1.0;
+        double sf = p.rescaleToTrainingPx && (cal.pixelWidth > 0) ? (cal.pixelWidth / (p.trainingPixelSizeUm / scale)) : 1.0;
+        if (Math.abs(sf - 1.0) < 1e-3) sf = 1.0;
+        int sw = Math.max(1, (int) Math.round(max.getWidth() * sf / f));
+        int sh = Math.max(1, (int) Math.round(max.getHeight() * sf / f));
+        ImagePlus segInput = (sw == pw && sh == ph) ? hu : ImageOps.resizeToIntensity(huFull, sw, sh);
+        ImagePlus labels = SegmentationBackends.segment(segInput, p.stardistModelZip, p.probThresh, p.nmsThresh, p);
+
+        if (progress != null) progress.step("Filtering and counting");
+        // the full-resolution pixel-area limit, shrunk with the area (f^2) rather than the pixel width
+        int minPixelArea = 0;
+        if (p.neuronSegLowerLimitUm != null && pxUm > 0)
+            minPixelArea = (int) Math.max(1, Math.round(p.neuronSegLowerLimitUm / (cal.pixelWidth / sf) / ((double) f * f)));
+        labels = LabelOps.filterBorderAndSize(labels, true, minPixelArea);
+        if (labels.getWidth() != pw || labels.getHeight() != ph) labels = ImageOps.resizeTo(labels, pw, ph);
+        labels.setCalibration(hu.getCalibration());
+        Roi[] neurons = LabelOps.labelsToRois(labels.getProcessor());
+
+        Roi[] gRois = null;
+        if (p.cellCountsPerGanglia) {
+            if (progress != null) progress.step("Estimating ganglia");
+            gRois = ganglia(p, hu, labels, 1.0 / f);
+        }
+
+        ImagePlus overlay = overlay(hu, ganglia, neurons, gRois);
+        overlay.setTitle("PREVIEW_" + baseName);
+        return new Preview(baseName, f, pxUm, neurons.length, gRois != null ? gRois.length : null,
+                overlay, (System.nanoTime() - t0) / 1e9);
+    }
+
+    // the gangliaDirect chain (keep ganglia with >= 1 neuron, fill holes, relabel) without saving
+    private static Roi[] ganglia(Params p, ImagePlus ref, ImagePlus labels, double roiScale) {
+        if (p.gangliaMode != Params.GangliaMode.DEFINE_FROM_HU && p.gangliaMode != Params.GangliaMode.IMPORT_ROI) {
+            IJ.log("Preview: ganglia mode " + p.gangliaMode + " needs interaction or DeepImageJ; ganglia not estimated.");
+            return null;
+        }
+        ImagePlus raw = GangliaOps.segmentDirect(p, ref, labels, roiScale);
+        GangliaOps.Result r = GangliaOps.countPerGanglion(labels, raw);
+        ImagePlus bin = GangliaOps.keepGangliaWithAtLeast(raw, r.countsPerGanglion, 1);
+        LabelOps.fillHoles((ByteProcessor) bin.getProcessor());
+        return LabelOps.labelsToRois(LabelOps.binaryToLabels(bin.getProcessor()));
+    }
+
+    private static ImagePlus overlay(ImagePlus hu, ImagePlus ganglia, Roi[] neurons, Roi[] gRois) {
+        IJ.resetMinAndMax(hu);
+        IJ.resetMinAndMax(ganglia);
+        byte[] r = (byte[]) hu.getProcessor().convertToByte(true).getPixels();
+        byte[] g = (byte[]) ganglia.getProcessor().convertToByte(true).getPixels();
+        ColorProcessor cp = new ColorProcessor(hu.getWidth(), hu.getHeight());
+        cp.setRGB(r, g, r);
+        ImagePlus base = new ImagePlus("preview", cp);
+        base.setCalibration(hu.getCalibration());
+
+        Overlay ov = new Overlay();
+        if (gRois != null) for (Roi roi : gRois) { roi.setStrokeColor(Color.CYAN); ov.add(roi); }
+        for (Roi roi : neurons) { roi.setStrokeColor(Color.YELLOW); ov.add(roi); }
+        base.setOverlay(ov);
+        ImagePlus flat = base.flatten();
+        flat.setCalibration(hu.getCalibration());
+        return flat;
+    }
+
+    /**
+     * Previews every image in folder (template.fileExt filter) one after another, saves each
+     * overlay to Analysis/Hu_preview and writes Analysis/Hu_preview_manifest.csv. A failing
+     * image is recorded and does not stop the others.
+     */
+    public static List<Preview> screen(File folder, Params template) {
+        if (!folder.isDirectory())
+            throw new IllegalArgumentException("Invalid input directory: " + folder.getAbsolutePath());
+        File[] files = HuBatchRunner.listImages(folder, template.fileExt);
+        File analysis = HuBatchRunner.manifestParent(folder, template);
+        File overlays = new File(analysis, OVERLAY_DIR);
+        if (!overlays.isDirectory() && !overlays.mkdirs())
+            throw new IllegalStateException("Failed to create dir: " + overlays.getAbsolutePath());
+
+        List<Preview> previews = new ArrayList<>();
+        File manifest = new File(analysis, MANIFEST_NAME);
+        try (ProgressUI progress = new ProgressUI("Hu preview");
+             PrintWriter pw = new PrintWriter(manifest, "UTF-8")) {
+            progress.start(files.length);
+            pw.println("File name,Status,Estimated neurons,Estimated ganglia,Downsample,Seconds,Error");
+            for (File f : files) {
+                progress.step("Previewing " + f.getName());
+                Params p = template.copy();
+                p.imagePath = f.getAbsolutePath();
+                p.headless = true;
+                long t0 = System.nanoTime();
+                try {
+                    Preview pr = run(p, null);
+                    OutputIO.saveTiff(pr.overlay, new File(overlays, pr.overlay.getTitle() + ".tif"));
+                    previews.add(pr);
+                    pw.printf(Locale.US, "%s,OK,%d,%s,%d,%.1f,%n", csvField(f.getName()), pr.neurons,
+                            pr.nGanglia != null ? pr.nGanglia.toString() : "", pr.downsample, pr.seconds);
+                } catch (Throwable t) {
+                    String msg = (t.getMessage() != null) ? t.getMessage() : t.getClass().getSimpleName();
+                    IJ.log("  preview FAILED " + f.getName() + ": " + msg);
+                    pw.printf(Locale.US, "%s,FAILED,,,%d,%.1f,%s%n", csvField(f.getName()), p.previewDownsample,
+                            (System.nanoTime() - t0) / 1e9, csvField(msg));
+                }
+                pw.flush();
+            }
+        } catch (IOException e) {
+            IJ.log("Failed writing preview manifest: " + e.getMessage());
+        }
+        IJ.log("Hu preview manifest: " + manifest.getAbsolutePath());
+        return previews;
+    }
+
+    private static String csvField(String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) return s;
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,268 @@
+package Features.AnalyseWorkflows;
+
+import Features.Core.Params;
+import Features.Tools.ProgressUI;
+import UI.panes.Tools.ReviewUI;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.Roi;
+import ij.plugin.frame.RoiManager;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static Features.Tools.RoiManagerHelper.*;
+
+/**
+ * Pipelined folder run of the Hu workflow with human QC in the loop:
+ * <ul>
+ *   <li>segmentation workers run the window-free stages on every image and queue the results;</li>
+ *   <li>the calling thread is the reviewer: it takes images off the queue in the order they finish,
+ *       shows them in the RoiManager and waits for OK (plus manual/DeepImageJ ganglia if selected);</li>
+ *   <li>an approved image goes to a single downstream thread for saving, ganglia counts, CSVs and
+ *       spatial analysis, while the reviewer already looks at the next one.</li>
+ * </ul>
+ * Only the reviewer thread touches windows or the RoiManager. Must not be called on the EDT.
+ */
+public final class HuReviewQueue {
+    private HuReviewQueue(){}
+
+    public static final String MANIFEST_NAME = "Hu_review_manifest.csv";
+
+    /** One queue slot: either a segmented image or the reason it could not be segmented. */
+    private static final class Item {
+        final int index;
+        final Params p;
+        final NeuronsHuPipeline.Segmented seg;
+        final String error;
+        final double seconds;
+
+        Item(int index, Params p, NeuronsHuPipeline.Segmented seg, String error, double seconds) {
+            this.index = index;
+            this.p = p;
+            this.seg = seg;
+            this.error = error;
+            this.seconds = seconds;
+        }
+    }
+
+    /** Uses template.inputDir / template.fileExt; segWorkers <= 0 means {@link HuBatchRunner#DEFAULT_WORKERS}. */
+    public static List<HuBatchRunner.Entry> run(Params template, int segWorkers) {
+        if (template.inputDir == null || template.inputDir.trim().isEmpty())
+            throw new IllegalArgumentException("Input directory not specified");
+        return run(new File(template.inputDir.trim()), template, segWorkers);
+    }
+
+    public static List<HuBatchRunner.Entry> run(File folder, Params template, int segWorkers) {
+        if (javax.swing.SwingUtilities.isEventDispatchThread())
+            throw new IllegalStateException("The review queue blocks for user input; run it off the EDT.");
+        if (!folder.isDirectory())
+            throw new IllegalArgumentException("Invalid input directory: " + folder.getAbsolutePath());
+
+        File[] files = HuBatchRunner.listImages(folder, template.fileExt);
+        if (files.length == 0) {
+            IJ.log("No images found in " + folder.getAbsolutePath());
+            return new ArrayList<>();
+        }
+        int n = Math.min(files.length,
+                segWorkers > 0 ? segWorkers : HuBatchRunner.DEFAULT_WORKERS);
+        IJ.log("Hu review queue: " + files.length + " image(s), " + n + " segmentation worker(s)");
+
+        // bounded so segmentation cannot run arbitrarily far ahead of the reviewer (each item holds a MAX image)
+        BlockingQueue<Item> ready = new LinkedBlockingQueue<>(2 * n);
+        AtomicInteger threadNo = new AtomicInteger();
+        ExecutorService segPool = Executors.newFixedThreadPool(n, r -> {
+            Thread t = new Thread(r, "gat-hu-segment-" + threadNo.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        ExecutorService downstream = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "gat-hu-downstream");
+            t.setDaemon(true);
+            return t;
+        });
+
+        for (int i = 0; i < files.length; i++) {
+            final int idx = i;
+            segPool.submit(() -> {
+                Item it = segmentOne(idx, files[idx], template);
+                try {
+                    ready.put(it);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        segPool.shutdown();
+
+        HuBatchRunner.Entry[] entries = new HuBatchRunner.Entry[files.length];
+        List<Future<HuBatchRunner.Entry>> pending = new ArrayList<>();
+        ProgressUI progress = new ProgressUI("Hu review queue");
+        progress.start(files.length);
+        RmHandle rmh = ensureGlobalRM();
+        List<HuBatchRunner.Entry> out = new ArrayList<>();
+        try {
+            for (int k = 1; k <= files.length; k++) {
+                progress.set(k - 1, "Waiting for segmentation (" + (k - 1) + "/" + files.length + " reviewed)");
+                Item it = ready.take();
+                File f = files[it.index];
+                if (it.seg == null) {
+                    IJ.log("  FAILED " + f.getName() + ": " + it.error);
+                    entries[it.index] = new HuBatchRunner.Entry(f, false, 0, null, it.seconds, null, it.error);
+                    continue;
+                }
+
+                progress.set(k - 1, "Reviewing " + f.getName() + " (" + ready.size() + " more ready)");
+                long t0 = System.nanoTime();
+                Approved a;
+                try {
+                    a = review(it, rmh.rm, k, files.length, progress);
+                } catch (Throwable t) {
+                    // one bad image must not end the queue for the ones behind it
+                    String msg = (t.getMessage() != null) ? t.getMessage() : t.getClass().getSimpleName();
+                    IJ.log("  FAILED " + f.getName() + ": " + msg);
+                    entries[it.index] = new HuBatchRunner.Entry(f, false, 0, null,
+                            it.seconds + (System.nanoTime() - t0) / 1e9, it.seg.outDir, msg);
+                    rmh.rm.reset();
+                    progress.setVisible(true);
+                    continue;
+                }
+                double reviewSec = (System.nanoTime() - t0) / 1e9;
+
+                pending.add(downstream.submit(() -> finishOne(it, f, a, reviewSec)));
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            IJ.log("Hu review queue interrupted; manifest lists the finished images only.");
+        } finally {
+            segPool.shutdownNow();
+            // approved images still finish and a partial run still gets its manifest
+            progress.set(files.length, "Finishing downstream steps");
+            collect(pending, entries, files);
+            downstream.shutdown();
+            progress.close();
+            maybeCloseRM(rmh);
+            for (HuBatchRunner.Entry e : entries) if (e != null) out.add(e);
+            File manifest = new File(HuBatchRunner.manifestParent(folder, template), MANIFEST_NAME);
+            HuBatchRunner.writeManifest(manifest, out);
+            IJ.log("Hu review manifest: " + manifest.getAbsolutePath());
+        }
+        return out;
+    }
+
+    /** Waits for every downstream step (even when interrupted) and files its entry. */
+    private static void collect(List<Future<HuBatchRunner.Entry>> pending, HuBatchRunner.Entry[] entries, File[] files) {
+        boolean interrupted = Thread.interrupted();
+        for (Future<HuBatchRunner.Entry> fu : pending) {
+            while (true) {
+                try {
+                    HuBatchRunner.Entry e = fu.get();
+                    entries[indexOf(files, e.file)] = e;
+                    break;
+                } catch (ExecutionException ex) {
+                    IJ.log("Downstream step failed: " + ex.getCause());
+                    break;
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private static Item segmentOne(int idx, File f, Params template) {
+        Params p = template.copy();
+        p.imagePath = f.getAbsolutePath();
+        p.headless = true;
+        long t0 = System.nanoTime();
+        try {
+            ProgressUI quiet = new ProgressUI(f.getName(), false);
+            quiet.start(NeuronsHuPipeline.estimateSteps(p));
+            NeuronsHuPipeline.Segmented seg = NeuronsHuPipeline.segmentDirect(p, quiet);
+            return new Item(idx, p, seg, null, (System.nanoTime() - t0) / 1e9);
+        } catch (Throwable t) {
+            String msg = (t.getMessage() != null) ? t.getMessage() : t.getClass().getSimpleName();
+            return new Item(idx, p, null, msg, (System.nanoTime() - t0) / 1e9);
+        }
+    }
+
+    private static final class Approved {
+        final Roi[] rois;
+        final ImagePlus labels;
+        final ImagePlus gangliaRaw;   // only for the interactive ganglia modes
+
+        Approved(Roi[] rois, ImagePlus labels, ImagePlus gangliaRaw) {
+            this.rois = rois;
+            this.labels = labels;
+            this.gangliaRaw = gangliaRaw;
+        }
+    }
+
+    /** Reviewer-thread half: RoiManager edit of the neurons, then the ganglia modes that need a person. */
+    private static Approved review(Item it, RoiManager rm, int k, int total, ProgressUI progress) {
+        NeuronsHuPipeline.Segmented seg = it.seg;
+        rm.reset();
+        for (Roi r : seg.rois) rm.addRoi((Roi) r.clone());
+
+        ImagePlus backdrop = seg.hu.duplicate();
+        IJ.run(backdrop, "Magenta", "");
+        IJ.resetMinAndMax(backdrop);
+        progress.setVisible(false);
+        ImagePlus labels = ReviewUI.reviewAndRebuildLabels(backdrop, rm,
+                seg.baseName + " (" + k + "/" + total + ")", seg.max.getCalibration(), seg.labels);
+        backdrop.changes = false; backdrop.close();
+
+        Roi[] rois = rm.getRoisAsArray();
+        if (rois.length == 0) rois = seg.rois; // ReviewUI fell back to the original labels as well
+        rm.reset();
+        rm.setVisible(false);
+
+        ImagePlus gangliaRaw = null;
+        Params p = it.p;
+        if (p.cellCountsPerGanglia
+                && (p.gangliaMode == Params.GangliaMode.MANUAL || p.gangliaMode == Params.GangliaMode.DEEPIMAGEJ)) {
+            boolean prevBatch = ij.macro.Interpreter.batchMode;
+            ij.macro.Interpreter.batchMode = true;
+            try {
+                gangliaRaw = GangliaOps.segment(p, seg.max, labels, progress);
+            } finally {
+                ij.macro.Interpreter.batchMode = prevBatch;
+            }
+        }
+        progress.setVisible(true);
+        return new Approved(rois, labels, gangliaRaw);
+    }
+
+    private static HuBatchRunner.Entry finishOne(Item it, File f, Approved a, double reviewSec) {
+        long t0 = System.nanoTime();
+        try {
+            ProgressUI quiet = new ProgressUI(f.getName(), false);
+            quiet.start(NeuronsHuPipeline.estimateSteps(it.p));
+            NeuronsHuPipeline.HuResult r = NeuronsHuPipeline.finishDirect(
+                    it.p, it.seg, a.rois, a.labels, a.gangliaRaw, quiet);
+            double sec = it.seconds + reviewSec + (System.nanoTime() - t0) / 1e9;
+            IJ.log("  done " + f.getName() + " (" + r.totalNeuronCount + " neurons)");
+            return new HuBatchRunner.Entry(f, true, r.totalNeuronCount, r.nGanglia, sec, r.outDir, null);
+        } catch (Throwable t) {
+            String msg = (t.getMessage() != null) ? t.getMessage() : t.getClass().getSimpleName();
+            IJ.log("  FAILED " + f.getName() + ": " + msg);
+            return new HuBatchRunner.Entry(f, false, 0, null,
+                    it.seconds + reviewSec + (System.nanoTime() - t0) / 1e9, it.seg.outDir, msg);
+        }
+    }
+
+    private static int indexOf(File[] files, File f) {
+        int i = Arrays.asList(files).indexOf(f);
+        if (i < 0) throw new IllegalStateException("Unknown file in review queue: " + f);
+        return i;
+    }
+}
@@ -11,16 +11,32 @@ import ij.measure.Calibration;
 import ij.plugin.filter.EDM;
 import ij.plugin.frame.RoiManager;
 
+import Features.Core.DirectCalls;
 import Features.Core.Params;
 import Features.Core.PluginCalls;
+import Features.Core.ProjectionCache;
+import Features.Core.SegmentationBackends;
+import Features.Core.StageGraph;
+import Features.Core.StreamingProjector;
+import Features.Core.TiledSegmentation;
 import Features.Tools.ImageOps;
+import Features.Tools.LabelOps;
 import Features.Tools.OutputIO;
+import ij.gui.Roi;
+import ij.process.ByteProcessor;
 import ij.process.ImageConverter;
 import ij.process.ImageProcessor;
 import Features.Tools.ProgressUI;
+import Features.Tools.StageMetrics;
 
 import javax.swing.*;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
 import static Features.Tools.RoiManagerHelper.*;
 
 public class NeuronsHuPipeline {
@@ -57,35 +73,55 @@ public class NeuronsHuPipeline {
         return run(p, huReturn, null);
     }
 
+    /** Steps of the last completed run of this variant; the fixed count only until one has finished. */
     public static int estimateSteps(Params p) {
-        // keep this in sync with your step() calls
-        return 12 + (p.cellCountsPerGanglia ? 7 : 0);
+        int recorded = StageMetrics.recordedSteps(stepsKey(p));
+        return (recorded > 0) ? recorded : 12 + (p.cellCountsPerGanglia ? 7 : 0);
     }
 
-    public HuResult run(Params p, Boolean huReturn, ProgressUI progress) {
-
+    // the step() sequence differs per execution path and with the ganglia stages
+    private static String stepsKey(Params p) {
+        String path = !p.headless ? "interactive" : p.checkpointStages ? "checkpointed" : "headless";
+        return "Neuron/Hu pipeline." + path + (p.cellCountsPerGanglia ? ".ganglia" : "");
+    }
 
+    public HuResult run(Params p, Boolean huReturn, ProgressUI progress) {
         boolean ownProgress = (progress == null);
         if (ownProgress) {
             progress = new ProgressUI("Neuron/Hu pipeline");
             progress.start(estimateSteps(p));
         }
+        int steps0 = progress.steps();
+        HuResult result = run(p, huReturn, progress, ownProgress);
+        // resumed checkpoint stages skip their steps; runCheckpointed records only full runs
+        if (!(p.headless && p.checkpointStages)) StageMetrics.recordSteps(stepsKey(p), progress.steps() - steps0);
+        return result;
+    }
+
+    private HuResult run(Params p, Boolean huReturn, ProgressUI progress, boolean ownProgress) {
+        if (p.headless) {
+            try {
+                HuResult result = runDirect(p, progress);
+                if (ownProgress) progress.writeMetrics(result.outDir);
+                return result;
+            } finally {
+                if (ownProgress) progress.close();
+            }
+        }
 
         boolean prevBatch = ij.macro.Interpreter.batchMode;
         ij.macro.Interpreter.batchMode = true;
 
 
         // 0) Basic validation
-        if (p.stardistModelZip == null || !new File(p.stardistModelZip).isFile()) {
-            throw new IllegalArgumentException("StarDist model not found: " + p.stardistModelZip);
-        }
+        SegmentationBackends.requireModel(p, p.stardistModelZip, "StarDist model");
 
 
         progress.step("Opening image");
-        // 1) Open image (Bio-Formats if path provided)
+        // 1) Open image (streamed Z-projection from Bio-Formats if path provided)
         ImagePlus imp = (p.imagePath == null || p.imagePath.isEmpty())
                 ? IJ.getImage()
-                : PluginCalls.openWithBioFormats(p.imagePath);
+                : ProjectionCache.open(p);
 
 
         if (imp == null)
@@ -132,8 +168,7 @@ public class NeuronsHuPipeline {
 
         progress.step("Segmenting with Stardist");
         // ==== 6) StarDist 2D -> Label Image (ZIP) ====
-        ImagePlus labels = PluginCalls.runStarDist2DLabel(
-                segInput, p.stardistModelZip, p.probThresh, p.nmsThresh);
+        ImagePlus labels = SegmentationBackends.segment(segInput, p.stardistModelZip, p.probThresh, p.nmsThresh, p);
 
         progress.step("Removing border labels and size filtering");
         // ==== 7) Remove border labels + size filtering ====
@@ -143,10 +178,7 @@ public class NeuronsHuPipeline {
             double effPxUm = segInput.getCalibration().pixelWidth; // in case segInput was scaled
             minPixelArea = (int)Math.max(1, Math.round(p.neuronSegLowerLimitUm / effPxUm));
         }
-        labels = PluginCalls.removeBorderLabels(labels);
-        if (minPixelArea > 0) {
-            labels = PluginCalls.labelMinSizeFilterPx(labels, minPixelArea);
-        }
+        labels = LabelOps.filterBorderAndSize(labels, true, minPixelArea);
 
         progress.step("Scaling Labels");
         // ==== 8) Scale labels back to MAX size if we scaled ====
@@ -156,11 +188,10 @@ public class NeuronsHuPipeline {
         progress.step("Converting Labels to ROI's");
         // ==== 9) Labels -> ROIs ====
         RoiManager rm = rmh.rm;
-        rm.reset();
 
 // push labels into RM (silent)
-        PluginCalls.labelsToRois(labels);
-        syncToSingleton(new RoiManager[]{ rm });
+        Roi[] unmodifiedRois = PluginCalls.labelsToRois(labels);
+        fillRM(rm, unmodifiedRois);
         ij.macro.Interpreter.batchMode = false;
 
         progress.step("Show Hu review");
@@ -181,14 +212,19 @@ public class NeuronsHuPipeline {
 
 // let user edit: draw new ROIs (Polygon/Freehand) + press 'T' to add; select + Delete to remove
         IJ.setTool("polygon");
-        new WaitForUserDialog(
-                "Neuron ROIs review",
-                "Review Hu + ROIs.\n" +
-                        "• Draw a new ROI and press 'T' to add\n" +
-                        "• Select a ROI and press Delete to remove\n" +
-                        "• Drag vertices to tweak shapes\n" +
-                        "Click OK when done."
-        ).show();
+        progress.metrics().pause();                  // reviewer time stays out of the stage timings
+        try {
+            new WaitForUserDialog(
+                    "Neuron ROIs review",
+                    "Review Hu + ROIs.\n" +
+                            "• Draw a new ROI and press 'T' to add\n" +
+                            "• Select a ROI and press Delete to remove\n" +
+                            "• Drag vertices to tweak shapes\n" +
+                            "Click OK when done."
+            ).show();
+        } finally {
+            progress.metrics().resume();
+        }
 
         progress.step("Rebuilding labels from edited ROIs");
 // remove overlay and rebuild labels from whatever is in RM now
@@ -198,15 +234,13 @@ public class NeuronsHuPipeline {
         progress.setVisible(true);
 
 
-// paint ROIs → binary → labels, at MAX size
-        ImagePlus correctedBinary = PluginCalls.roisToBinary(huReview, rm);
-        applyWatershedInPlace(correctedBinary);
-        ImagePlus labelsEdited    = PluginCalls.binaryToLabels(correctedBinary);
+// paint each ROI with its own ID, at MAX size (touching neurons stay separate)
+        ImagePlus labelsEdited = new ImagePlus("labels_edited",
+                LabelOps.roisToLabels(rm.getRoisAsArray(), huReview.getWidth(), huReview.getHeight()));
         labelsEdited.setCalibration(max.getCalibration());
 
 // cleanup temps and replace 'labels' going forward
-        if (correctedBinary != labelsEdited) { correctedBinary.changes = false; correctedBinary.close(); }
-        if (labels != labelsEdited)          { labels.changes = false; labels.close(); }
+        labels.changes = false; labels.close();
         huReview.changes = false; huReview.close();
         labels = labelsEdited;
 
@@ -216,7 +250,7 @@ public class NeuronsHuPipeline {
         //save our stuff here
 
         //Save outputs (faithful names/locations) ====
-        OutputIO.saveRois(rm, new File(outDir, p.cellTypeName + "_unmodified_ROIs_" + baseName + ".zip"));
+        OutputIO.saveRois(unmodifiedRois, new File(outDir, p.cellTypeName + "_unmodified_ROIs_" + baseName + ".zip"));
         OutputIO.saveRois(rm, new File(outDir, p.cellTypeName + "_ROIs_" + baseName + ".zip"));
 
         if (p.saveFlattenedOverlay && nHu > 0) {
@@ -288,20 +322,17 @@ public class NeuronsHuPipeline {
 
             progress.step("Converting Ganglia to ROI's");
             // E) Convert to ROIs and save (matches macro’s ROI export stage)
-            RoiManager rmG = rmh.rm;
-            rmG.reset();
-            PluginCalls.labelsToRois(gangliaLabels);
-            syncToSingleton(new RoiManager[]{ rmG });
-            int nG = rmG.getCount();
+            Roi[] gRois = PluginCalls.labelsToRois(gangliaLabels);
+            int nG = gRois.length;
 
             //save ganglia roi's
             if (nG > 0) {
-                OutputIO.saveRois(rmG, new File(outDir, "Ganglia_ROIs_" + baseName + ".zip"));
+                OutputIO.saveRois(gRois, new File(outDir, "Ganglia_ROIs_" + baseName + ".zip"));
             }
 
             progress.step("Saving Image Overlay's");
-            if (p.saveFlattenedOverlay && rmG.getCount() > 0) {
-                OutputIO.saveFlattenedOverlay(max, rmG, new File(outDir, "MAX_" + baseName + "_ganglia_overlay.tif"));
+            if (p.saveFlattenedOverlay && nG > 0) {
+                OutputIO.saveFlattenedOverlay(max, gRois, new File(outDir, "MAX_" + baseName + "_ganglia_overlay.tif"));
             }
 
             progress.step("Final Ganglia Counting");
@@ -310,20 +341,19 @@ public class NeuronsHuPipeline {
 
             try {
                 ImagePlus rgbBase2 = PluginCalls.buildGangliaRgbForOverlay(max, p.gangliaChannel, p.huChannel);
-                OutputIO.saveFlattenedOverlay(rgbBase2, rmG,
+                OutputIO.saveFlattenedOverlay(rgbBase2, gRois,
                         new File(outDir, "RGB_" + baseName + "_ganglia_overlay.tif"));
                 rgbBase2.changes = false; rgbBase2.close();
             } catch (Throwable t) {
                 IJ.log("RGB ganglia overlay save skipped: " + t.getMessage());
             }
 
-            rmG.setVisible(false);
-            rmG.reset();
 
             if (huReturn){
                 return new HuResult(outDir, baseName, max, labels, nHu, gangliaLabels, r.countsPerGanglion, r.areaUm2, nG);
             }else {
 
+                progress.writeMetrics(outDir);
                 progress.close();
                 OutputIO.writeGangliaCsv(
                         new File(outDir, "Analysis_Ganglia_" + baseName + "_counts.csv"),
@@ -350,6 +380,7 @@ public class NeuronsHuPipeline {
 
 
         ij.macro.Interpreter.batchMode = prevBatch;
+        if (!huReturn) progress.writeMetrics(outDir);
         if (ownProgress) progress.close();
 
 
@@ -375,6 +406,444 @@ public class NeuronsHuPipeline {
 
 
 
+    // ---------- direct (window-free) execution ----------
+
+    /**
+     * Headless variant of {@link #run}: stages hand ImagePlus/processor objects to each other,
+     * ROIs live in plain arrays, and the interactive Hu review is skipped.
+     * Always returns the result (there is no results window to prompt for).
+     */
+    private HuResult runDirect(Params p, ProgressUI progress) {
+        if (p.checkpointStages) return runCheckpointed(p, progress);
+        Segmented seg = segmentDirect(p, progress);
+        progress.step("Hu review skipped (headless)");
+        return finishDirect(p, seg, seg.rois, seg.labels, null, progress);
+    }
+
+    /** Output of the compute half of the direct path: everything up to (not including) review. */
+    static final class Segmented {
+        final File outDir;
+        final String baseName;
+        final ImagePlus max;      // MAX_* projection
+        final ImagePlus hu;       // Hu channel at MAX size (review backdrop)
+        final ImagePlus labels;   // filtered labels at MAX size
+        final Roi[] rois;         // ROIs of 'labels' (saved as the unmodified set)
+
+        Segmented(File outDir, String baseName, ImagePlus max, ImagePlus hu, ImagePlus labels, Roi[] rois) {
+            this.outDir = outDir;
+            this.baseName = baseName;
+            this.max = max;
+            this.hu = hu;
+            this.labels = labels;
+            this.rois = rois;
+        }
+    }
+
+    /** Open -> projection -> StarDist -> filtering -> ROIs, window-free. Safe to call from worker threads. */
+    static Segmented segmentDirect(Params p, ProgressUI progress) {
+        if (p.imagePath == null || p.imagePath.isEmpty())
+            throw new IllegalArgumentException("Headless mode needs Params.imagePath (there is no active image).");
+        SegmentationBackends.requireModel(p, p.stardistModelZip, "StarDist model");
+
+        // whole-mount: StarDist tile by tile from disk (border/size filtered while stitching)
+        // before the full projection is in memory
+        ImagePlus tiledLabels = null;
+        if (TiledSegmentation.applies(p)) {
+            progress.step("Segmenting with Stardist (" + p.tileSizePx + " px tiles)");
+            File scratch = (p.outputDir != null && !p.outputDir.trim().isEmpty())
+                    ? new File(p.outputDir) : new File(p.imagePath).getAbsoluteFile().getParentFile();
+            tiledLabels = TiledSegmentation.segmentLabels(p, scratch);
+        }
+
+        progress.step("Opening image");
+        ImagePlus imp = ProjectionCache.open(p);
+        String baseName = stripExt(imp.getTitle());
+        File outDir = OutputIO.prepareOutputDir(p.outputDir, imp, baseName);
+
+        progress.step("Checking calibration");
+        Calibration cal = imp.getCalibration();
+        if (p.requireMicronUnits && !PluginCalls.isMicronUnit(cal.getUnit()))
+            throw new IllegalStateException("Image must be calibrated in microns. Unit: " + cal.getUnit());
+        double pxUm = cal.pixelWidth;
+
+        progress.step("Creating Projection");
+        ImagePlus max = imp; // already projected while streaming the planes
+        max.setTitle("MAX_" + baseName);
+
+        progress.step("Extracting Hu Channel");
+        ImagePlus hu = ImageOps.extractChannel(max, p.huChannel);
+        hu.setTitle(p.cellTypeName + "_segmentation");
+
+        ImagePlus labels;
+        if (tiledLabels != null) {
+            labels = tiledLabels;
+            progress.step("Rescaling to the training pixel size");
+            progress.step("Removing border labels and size filtering");
+            progress.step("Scaling Labels");
+        } else {
+            progress.step("Rescaling to the training pixel size");
+            double scale = (p.trainingRescaleFactor > 0) ? p.trainingRescaleFactor : 1.0;
+            double targetPxUm = p.trainingPixelSizeUm / scale;
+            double scaleFactor = p.rescaleToTrainingPx && (pxUm > 0) ? (pxUm / targetPxUm) : 1.0;
+            if (Math.abs(scaleFactor - 1.0) < 1e-3) scaleFactor = 1.0;
+            ImagePlus segInput = (scaleFactor == 1.0)
+                    ? hu
+                    : ImageOps.resizeToIntensity(hu,
+                    (int)Math.round(hu.getWidth() * scaleFactor),
+                    (int)Math.round(hu.getHeight() * scaleFactor));
+
+            progress.step("Segmenting with Stardist");
+            labels = SegmentationBackends.segment(segInput, p.stardistModelZip, p.probThresh, p.nmsThresh, p);
+
+            progress.step("Removing border labels and size filtering");
+            int minPixelArea = 0;
+            if (p.neuronSegLowerLimitUm != null && pxUm > 0) {
+                double effPxUm = segInput.getCalibration().pixelWidth;
+                minPixelArea = (int)Math.max(1, Math.round(p.neuronSegLowerLimitUm / effPxUm));
+            }
+            labels = LabelOps.filterBorderAndSize(labels, true, minPixelArea);
+            labels.setCalibration(segInput.getCalibration());
+
+            progress.step("Scaling Labels");
+            if (labels.getWidth() != max.getWidth() || labels.getHeight() != max.getHeight()) {
+                labels = ImageOps.resizeTo(labels, max.getWidth(), max.getHeight());
+            }
+            if (segInput != hu) segInput.close();
+        }
+        labels.setCalibration(max.getCalibration());
+
+        progress.step("Converting Labels to ROI's");
+        Roi[] rois = LabelOps.labelsToRois(labels.getProcessor());
+        return new Segmented(outDir, baseName, max, hu, labels, rois);
+    }
+
+    /**
+     * Save/count/ganglia/spatial half of the direct path. {@code rois}/{@code labels} are the
+     * (possibly reviewed) final neurons; {@code gangliaRaw} may carry ganglia labels produced
+     * interactively (manual/DeepImageJ), otherwise ganglia come from {@link GangliaOps#segmentDirect}.
+     */
+    static HuResult finishDirect(Params p, Segmented seg, Roi[] rois, ImagePlus labels,
+                                 ImagePlus gangliaRaw, ProgressUI progress) {
+        HuResult result = countDirect(p, seg, rois, labels, gangliaRaw, progress);
+        if (p.doSpatialAnalysis) {
+            runSpatialDirect(result, p);
+        }
+        return result;
+    }
+
+    /** Saving, counts and ganglia of {@link #finishDirect}, without the spatial step. */
+    private static HuResult countDirect(Params p, Segmented seg, Roi[] rois, ImagePlus labels,
+                                        ImagePlus gangliaRaw, ProgressUI progress) {
+        File outDir = seg.outDir;
+        String baseName = seg.baseName;
+        ImagePlus max = seg.max;
+        int nHu = rois.length;
+
+        progress.step("Counting ROIs + saving");
+        OutputIO.saveRois(seg.rois, new File(outDir, p.cellTypeName + "_unmodified_ROIs_" + baseName + ".zip"));
+        OutputIO.saveRois(rois, new File(outDir, p.cellTypeName + "_ROIs_" + baseName + ".zip"));
+        if (p.saveFlattenedOverlay && nHu > 0) {
+            OutputIO.saveFlattenedOverlay(max, rois, new File(outDir, "MAX_" + baseName + "_overlay.tif"));
+        }
+        try {
+            ImagePlus rgbBase = PluginCalls.buildGangliaRgbForOverlay(max, p.gangliaChannel, p.huChannel);
+            OutputIO.saveFlattenedOverlay(rgbBase, rois, new File(outDir, "RGB_" + baseName + "_neurons_overlay.tif"));
+            rgbBase.changes = false; rgbBase.close();
+        } catch (Throwable t) {
+            IJ.log("RGB neuron overlay save skipped: " + t.getMessage());
+        }
+
+        labels.setTitle("Neuron_label_MAX_" + baseName);
+        OutputIO.saveTiff(labels, new File(outDir, labels.getTitle() + ".tif"));
+        OutputIO.saveTiff(max,    new File(outDir, "MAX_" + baseName + ".tif"));
+        OutputIO.writeCountsCsv(
+                new File(outDir, "Analysis_" + p.cellTypeName + "_" + baseName + "_cell_counts.csv"),
+                baseName, p.cellTypeName, nHu);
+        seg.hu.close();
+
+        HuResult result = new HuResult(outDir, baseName, max, labels, nHu, null, null, null, null);
+        if (p.cellCountsPerGanglia) {
+            result = gangliaDirect(p, result, gangliaRaw, progress);
+        }
+        return result;
+    }
+
+    private static HuResult gangliaDirect(Params p, HuResult hu, ImagePlus gangliaRaw, ProgressUI progress) {
+        ImagePlus max = hu.max, labels = hu.neuronLabels;
+        String baseName = hu.baseName;
+        File outDir = hu.outDir;
+
+        progress.step("Segmenting Ganglia");
+        ImagePlus gangliaLabelsRaw = (gangliaRaw != null) ? gangliaRaw : GangliaOps.segmentDirect(p, max, labels);
+        gangliaLabelsRaw.setCalibration(max.getCalibration());
+
+        progress.step("Ganglia: pre-count");
+        GangliaOps.Result rAll = GangliaOps.countPerGanglion(labels, gangliaLabelsRaw);
+
+        progress.step("Ganglia: keep ≥1 neuron");
+        ImagePlus gangliaBinary = GangliaOps.keepGangliaWithAtLeast(gangliaLabelsRaw, rAll.countsPerGanglion, 1);
+        gangliaBinary.setCalibration(max.getCalibration());
+        gangliaBinary.setTitle("ganglia_binary_MAX_" + baseName);
+        OutputIO.saveTiff(gangliaBinary, new File(outDir, gangliaBinary.getTitle() + ".tif"));
+        gangliaLabelsRaw.close();
+
+        progress.step("Filtering Ganglia Projections");
+        LabelOps.fillHoles((ByteProcessor) gangliaBinary.getProcessor());
+        ImagePlus gangliaLabels = new ImagePlus("Ganglia_label_MAX_" + baseName,
+                LabelOps.binaryToLabels(gangliaBinary.getProcessor()));
+        gangliaLabels.setCalibration(max.getCalibration());
+        OutputIO.saveTiff(gangliaLabels, new File(outDir, gangliaLabels.getTitle() + ".tif"));
+        gangliaBinary.close();
+
+        progress.step("Converting Ganglia to ROI's");
+        Roi[] gRois = LabelOps.labelsToRois(gangliaLabels.getProcessor());
+        int nG = gRois.length;
+        if (nG > 0) OutputIO.saveRois(gRois, new File(outDir, "Ganglia_ROIs_" + baseName + ".zip"));
+
+        progress.step("Saving Image Overlay's");
+        if (p.saveFlattenedOverlay && nG > 0) {
+            OutputIO.saveFlattenedOverlay(max, gRois, new File(outDir, "MAX_" + baseName + "_ganglia_overlay.tif"));
+        }
+
+        progress.step("Final Ganglia Counting");
+        GangliaOps.Result r = GangliaOps.countPerGanglion(labels, gangliaLabels);
+        try {
+            ImagePlus rgbBase2 = PluginCalls.buildGangliaRgbForOverlay(max, p.gangliaChannel, p.huChannel);
+            OutputIO.saveFlattenedOverlay(rgbBase2, gRois, new File(outDir, "RGB_" + baseName + "_ganglia_overlay.tif"));
+            rgbBase2.changes = false; rgbBase2.close();
+        } catch (Throwable t) {
+            IJ.log("RGB ganglia overlay save skipped: " + t.getMessage());
+        }
+        OutputIO.writeGangliaCsv(
+                new File(outDir, "Analysis_Ganglia_" + baseName + "_counts.csv"),
+                r.countsPerGanglion, r.areaUm2);
+
+        return new HuResult(outDir, baseName, max, labels, hu.totalNeuronCount,
+                gangliaLabels, r.countsPerGanglion, r.areaUm2, nG);
+    }
+
+    /** False when the spatial step failed (already logged). */
+    private static boolean runSpatialDirect(HuResult hu, Params p) {
+        try {
+            synchronized (DirectCalls.CLIJ_LOCK) {
+                SpatialSingleCellType.execute(
+                        p.spatialCellTypeName != null ? p.spatialCellTypeName : "Hu",
+                        hu.neuronLabels.duplicate(),
+                        hu.outDir.getAbsolutePath(),
+                        p.spatialExpansionUm != null ? p.spatialExpansionUm : 6.5,
+                        Boolean.TRUE.equals(p.spatialSaveParametric),
+                        (hu.max.getCalibration() != null && hu.max.getCalibration().pixelWidth > 0)
+                                ? hu.max.getCalibration().pixelWidth : 1.0
+                );
+            }
+            return true;
+        } catch (Exception ex) {
+            IJ.log("Spatial analysis failed: " + ex.getMessage());
+            return false;
+        }
+    }
+
+    // ---------- checkpointed direct execution ----------
+
+    /** Checkpoint folder inside the image's output folder. */
+    public static final String CHECKPOINT_DIR = ".gat_checkpoints";
+
+    /**
+     * Headless run as a {@link StageGraph}: project -> rescale -> segment -> filter -> [ganglia]
+     * -> counts -> [spatial], each checkpointed under &lt;outDir&gt;/{@value #CHECKPOINT_DIR}.
+     * The output folder is Analysis/&lt;name&gt; without numbering so a rerun finds its checkpoints
+     * and resumes at the first stage whose inputs or parameters changed. Open and projection are
+     * one stage (they are streamed together).
+     */
+    private static HuResult runCheckpointed(Params p, ProgressUI progress) {
+        if (p.imagePath == null || p.imagePath.isEmpty())
+            throw new IllegalArgumentException("Headless mode needs Params.imagePath (there is no active image).");
+        SegmentationBackends.requireModel(p, p.stardistModelZip, "StarDist model");
+
+        File src = new File(p.imagePath);
+        String baseName = stripExt(src.getName());
+        File outDir = OutputIO.stableOutputDir(p.outputDir, src, baseName);
+        StageGraph g = new StageGraph(new File(outDir, CHECKPOINT_DIR));
+        int steps0 = progress.steps();
+
+        StageGraph.Stage<ImagePlus> project = g.stage("project",
+                StageGraph.fingerprint(p.imagePath) + "|" + StreamingProjector.methodFor(p)
+                        + "|" + p.projectionZStart + "-" + p.projectionZEnd,
+                StageGraph.IMAGE, () -> {
+                    progress.step("Opening image + projection");
+                    return ProjectionCache.open(p);
+                });
+
+        StageGraph.Stage<ImagePlus> rescale = g.stage("rescale",
+                p.huChannel + "|" + p.rescaleToTrainingPx + "|" + p.trainingPixelSizeUm + "|" + p.trainingRescaleFactor,
+                StageGraph.IMAGE, () -> {
+                    progress.step("Rescaling to the training pixel size");
+                    ImagePlus max = project.get();
+                    ImagePlus hu = ImageOps.extractChannel(max, p.huChannel);
+                    double pxUm = max.getCalibration().pixelWidth;
+                    double scale = (p.trainingRescaleFactor > 0) ? p.trainingRescaleFactor : 1.0;
+                    double scaleFactor = p.rescaleToTrainingPx && (pxUm > 0) ? (pxUm / (p.trainingPixelSizeUm / scale)) : 1.0;
+                    if (Math.abs(scaleFactor - 1.0) < 1e-3) return hu;
+                    return ImageOps.resizeToIntensity(hu,
+                            (int)Math.round(hu.getWidth() * scaleFactor),
+                            (int)Math.round(hu.getHeight() * scaleFactor));
+                }, project);
+
+        String segmentKey = p.segmentationBackend + "|" + SegmentationBackends.forParams(p).paramsKey(p)
+                + "|" + StageGraph.fingerprint(p.stardistModelZip) + "|" + p.probThresh + "|" + p.nmsThresh;
+        // whole-mount: one tiled stage reads the planes itself (rescale never runs) and filters while stitching
+        boolean tiled = TiledSegmentation.applies(p);
+        StageGraph.Stage<ImagePlus> segment = tiled
+                ? g.stage("segment",
+                        segmentKey + "|tiled|" + p.tileSizePx + "|" + p.tileOverlapPx + "|" + p.huChannel
+                                + "|" + p.rescaleToTrainingPx + "|" + p.trainingPixelSizeUm + "|" + p.trainingRescaleFactor
+                                + "|" + p.neuronSegLowerLimitUm,
+                        StageGraph.IMAGE, () -> {
+                            progress.step("Segmenting with Stardist (" + p.tileSizePx + " px tiles)");
+                            return TiledSegmentation.segmentLabels(p, outDir);
+                        }, project)
+                : g.stage("segment", segmentKey,
+                        StageGraph.IMAGE, () -> {
+                            progress.step("Segmenting with Stardist");
+                            ImagePlus in = rescale.get();
+                            return SegmentationBackends.segment(in, p.stardistModelZip, p.probThresh, p.nmsThresh, p);
+                        }, rescale);
+
+        StageGraph.Stage<ImagePlus> filter = g.stage("filter",
+                String.valueOf(p.neuronSegLowerLimitUm) + (tiled ? "|tiled" : ""),
+                StageGraph.IMAGE, () -> {
+                    progress.step("Removing border labels and size filtering");
+                    ImagePlus max = project.get(), raw = segment.get();
+                    if (tiled) {   // already filtered while stitching; no second full-size copy
+                        raw.setCalibration(max.getCalibration());
+                        return raw;
+                    }
+                    int minPixelArea = 0;
+                    double effPxUm = raw.getCalibration().pixelWidth;   // segmentation input's pixel size
+                    if (p.neuronSegLowerLimitUm != null && max.getCalibration().pixelWidth > 0 && effPxUm > 0)
+                        minPixelArea = (int)Math.max(1, Math.round(p.neuronSegLowerLimitUm / effPxUm));
+                    ImagePlus labels = LabelOps.filterBorderAndSize(raw.duplicate(), true, minPixelArea);
+                    if (labels.getWidth() != max.getWidth() || labels.getHeight() != max.getHeight())
+                        labels = ImageOps.resizeTo(labels, max.getWidth(), max.getHeight());
+                    labels.setCalibration(max.getCalibration());
+                    return labels;
+                }, segment, project);
+
+        StageGraph.Stage<ImagePlus> ganglia = !p.cellCountsPerGanglia ? null : g.stage("ganglia",
+                p.gangliaMode + "|" + p.huDilationMicron + "|" + StageGraph.fingerprint(p.customGangliaRoiZip),
+                StageGraph.IMAGE, () -> {
+                    progress.step("Segmenting Ganglia");
+                    return GangliaOps.segmentDirect(p, project.get(), filter.get());
+                }, project, filter);
+
+        StageGraph.Codec<HuResult> resultCodec = countsCodec(project, filter);
+        StageGraph.Stage<HuResult> counts = g.stage("counts",
+                p.cellTypeName + "|" + p.saveFlattenedOverlay + "|" + p.huChannel + "|" + p.gangliaChannel
+                        + "|" + p.cellCountsPerGanglia,
+                resultCodec, () -> {
+                    ImagePlus max = project.get();
+                    max.setTitle("MAX_" + baseName);
+                    ImagePlus labels = filter.get();
+                    Roi[] rois = LabelOps.labelsToRois(labels.getProcessor());
+                    ImagePlus hu = ImageOps.extractChannel(max, p.huChannel);
+                    Segmented seg = new Segmented(outDir, baseName, max, hu, labels, rois);
+                    return countDirect(p, seg, rois, labels, (ganglia != null) ? ganglia.get() : null, progress);
+                }, (ganglia != null) ? new StageGraph.Stage<?>[]{ filter, project, ganglia } : new StageGraph.Stage<?>[]{ filter, project });
+
+        if (tiled) segment.get();   // tile by tile, before the full projection is in memory
+        ImagePlus max = project.get();
+        Calibration cal = max.getCalibration();
+        if (p.requireMicronUnits && !PluginCalls.isMicronUnit(cal.getUnit()))
+            throw new IllegalStateException("Image must be calibrated in microns. Unit: " + cal.getUnit());
+        max.setTitle("MAX_" + baseName);
+
+        HuResult result = counts.get();
+        if (p.doSpatialAnalysis) {
+            g.stage("spatial",
+                    p.spatialCellTypeName + "|" + p.spatialExpansionUm + "|" + p.spatialSaveParametric,
+                    StageGraph.DONE, () -> runSpatialDirect(result, p) ? Boolean.TRUE : null, counts).get();
+        }
+        if (g.resumedCount() > 0)
+            IJ.log("  " + baseName + ": resumed " + g.resumedCount() + " stage(s) from checkpoints, ran " + g.computedCount());
+        else
+            StageMetrics.recordSteps(stepsKey(p), progress.steps() - steps0);
+        return result;
+    }
+
+    /**
+     * Counts stage artifacts: the CSVs/overlays are already in the output folder, so the
+     * checkpoint only keeps the numbers (and ganglia labels); images come from the upstream stages.
+     */
+    private static StageGraph.Codec<HuResult> countsCodec(StageGraph.Stage<ImagePlus> project,
+                                                          StageGraph.Stage<ImagePlus> filter) {
+        return new StageGraph.Codec<HuResult>() {
+            @Override public void save(HuResult r, File dir) throws IOException {
+                Properties props = new Properties();
+                props.setProperty("baseName", r.baseName);
+                props.setProperty("outDir", r.outDir.getAbsolutePath());
+                props.setProperty("totalNeuronCount", String.valueOf(r.totalNeuronCount));
+                if (r.nGanglia != null) props.setProperty("nGanglia", r.nGanglia.toString());
+                if (r.neuronsPerGanglion != null) props.setProperty("neuronsPerGanglion", join(r.neuronsPerGanglion));
+                if (r.gangliaAreaUm2 != null) props.setProperty("gangliaAreaUm2", join(r.gangliaAreaUm2));
+                try (OutputStream os = new FileOutputStream(new File(dir, "counts.properties"))) {
+                    props.store(os, "Hu counts checkpoint");
+                }
+                if (r.gangliaLabels != null) {
+                    File gDir = new File(dir, "ganglia");
+                    if (!gDir.isDirectory() && !gDir.mkdirs()) throw new IOException("cannot create " + gDir);
+                    StageGraph.IMAGE.save(r.gangliaLabels, gDir);
+                }
+            }
+
+            @Override public HuResult load(File dir) throws IOException {
+                Properties props = new Properties();
+                try (InputStream is = new FileInputStream(new File(dir, "counts.properties"))) {
+                    props.load(is);
+                }
+                File gDir = new File(dir, "ganglia");
+                ImagePlus gLabels = gDir.isDirectory() ? StageGraph.IMAGE.load(gDir) : null;
+                String nG = props.getProperty("nGanglia");
+                return new HuResult(new File(props.getProperty("outDir")), props.getProperty("baseName"),
+                        project.get(), filter.get(),
+                        Integer.parseInt(props.getProperty("totalNeuronCount")),
+                        gLabels,
+                        splitInts(props.getProperty("neuronsPerGanglion")),
+                        splitDoubles(props.getProperty("gangliaAreaUm2")),
+                        (nG != null) ? Integer.valueOf(nG) : null);
+            }
+        };
+    }
+
+    private static String join(int[] a) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < a.length; i++) sb.append(i > 0 ? "," : "").append(a[i]);
+        return sb.toString();
+    }
+
+    private static String join(double[] a) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < a.length; i++) sb.append(i > 0 ? "," : "").append(Double.toString(a[i]));
+        return sb.toString();
+    }
+
+    private static int[] splitInts(String s) {
+        if (s == null) return null;
+        if (s.isEmpty()) return new int[0];
+        String[] t = s.split(",");
+        int[] a = new int[t.length];
+        for (int i = 0; i < t.length; i++) a[i] = Integer.parseInt(t[i]);
+        return a;
+    }
+
+    private static double[] splitDoubles(String s) {
+        if (s == null) return null;
+        if (s.isEmpty()) return new double[0];
+        String[] t = s.split(",");
+        double[] a = new double[t.length];
+        for (int i = 0; i < t.length; i++) a[i] = Double.parseDouble(t[i]);
+        return a;
+    }
+
     private static String stripExt(String name) {
         int dot = name.lastIndexOf('.');
         return dot > 0 ? name.substring(0, dot) : name;
@@ -3,17 +3,25 @@ package Features.AnalyseWorkflows;
 
 import Features.Core.Params;
 import Features.Core.PluginCalls;
+import Features.Core.ProjectionCache;
+import Features.Core.SegmentationBackends;
 import Features.Tools.ImageOps;
+import Features.Tools.LabelOps;
+import Features.Tools.LabelStats;
 import Features.Tools.OutputIO;
+import Features.Tools.Phenotypes;
+import Features.Tools.Phenotypes.Phenotype;
 import Features.Tools.ProgressUI;
 import UI.panes.Tools.ReviewUI;
 import ij.IJ;
 import ij.ImagePlus;
+import ij.gui.Roi;
 import ij.plugin.frame.RoiManager;
 
 import javax.swing.*;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -44,6 +52,14 @@ public class NeuronsMultiNoHuPipeline {
         public double multiProb = 0.50;
         public double multiNms  = 0.30;
         public double overlapFrac = 0.40; // kept for parity; combos are hard AND here
+
+        /** Count every non-empty intersection of up to this many markers (pairs are always listed). */
+        public int comboOrder = 2;
+        /** Save ROI zips / overlays for the marker pairs; larger combinations are only counted. */
+        public boolean saveComboRois = true;
+        /** Extra phenotypes such as "A+B-C" (pixel-wise), always counted and saved. */
+        public final List<String> phenotypes = new ArrayList<>();
+
         public final List<MarkerSpec> markers = new ArrayList<>();
     }
 
@@ -51,6 +67,7 @@ public class NeuronsMultiNoHuPipeline {
 
         int n = mp != null ? mp.markers.size() : 0;
         int nCombos = (n * (n - 1)) / 2;
+        int nPhenotypes = mp != null ? mp.phenotypes.size() : 0;
 
         // Base: open + projection + rescale math
         int base = 3;
@@ -63,8 +80,8 @@ public class NeuronsMultiNoHuPipeline {
         // Per-marker: prep, segment, post/resize, review, save  (5 each)
         int perMarker = 5 * n;
 
-        // Combos: build AND + save (2 each)
-        int combos = 2 * nCombos;
+        // Combos: one AND + count pass, then a save per pair / requested phenotype
+        int combos = 1 + nCombos + nPhenotypes;
 
         // Finalize: write CSV + save MAX/cleanup
         int tail = 2;
@@ -101,9 +118,19 @@ public class NeuronsMultiNoHuPipeline {
     // ------- run -------
     public void run(MultiParams mp) {
         if (mp == null || mp.base == null) throw new IllegalArgumentException("MultiParams/base cannot be null.");
-        if (mp.subtypeModelZip == null || !new File(mp.subtypeModelZip).isFile())
-            throw new IllegalArgumentException("Subtype StarDist model not found: " + mp.subtypeModelZip);
+        SegmentationBackends.requireModel(mp.base, mp.subtypeModelZip, "Subtype StarDist model");
         if (mp.markers.isEmpty()) throw new IllegalArgumentException("Add at least one marker.");
+        checkPhenotypes(mp);
+
+        if (mp.base.headless) {
+            ProgressUI progress = new ProgressUI("No-Hu multi-channel", false);   // no dialog or status bar
+            try {
+                runDirect(mp, progress);
+            } finally {
+                progress.close();
+            }
+            return;
+        }
 
         ij.macro.Interpreter.batchMode = true;
         ProgressUI progress = new ProgressUI("No-Hu multi-channel");
@@ -113,7 +140,7 @@ public class NeuronsMultiNoHuPipeline {
         progress.step("Open image");
         ImagePlus imp = (mp.base.imagePath == null || mp.base.imagePath.isEmpty())
                 ? IJ.getImage()
-                : PluginCalls.openWithBioFormats(mp.base.imagePath);
+                : ProjectionCache.open(mp.base);
         if (imp == null) throw new IllegalStateException("No image available to analyze.");
 
         final String baseName = stripExt(imp.getTitle());
@@ -165,19 +192,15 @@ public class NeuronsMultiNoHuPipeline {
             glabels.setCalibration(max.getCalibration());
             gangliaLabels = glabels;
 
-            RoiManager rmG = rmh.rm;
-            rmG.reset(); rmG.setVisible(false);
-            PluginCalls.labelsToRois(gangliaLabels);
-            syncToSingleton(new RoiManager[]{ rmG });
-            nGanglia = rmG.getCount();
+            Roi[] gRois = PluginCalls.labelsToRois(gangliaLabels);
+            nGanglia = gRois.length;
 
             if (nGanglia > 0) {
-                OutputIO.saveRois(rmG, new File(outDir, "Ganglia_ROIs_" + baseName + ".zip"));
+                OutputIO.saveRois(gRois, new File(outDir, "Ganglia_ROIs_" + baseName + ".zip"));
                 if (mp.base.saveFlattenedOverlay)
-                    OutputIO.saveFlattenedOverlay(max, rmG,
+                    OutputIO.saveFlattenedOverlay(max, gRois,
                             new File(outDir, "MAX_" + baseName + "_ganglia_overlay.tif"));
             }
-            rmG.reset(); rmG.setVisible(false);
 
             gangliaAreaUm2 = GangliaOps.areaPerGanglionUm2(gangliaLabels);
 
@@ -238,9 +261,8 @@ public class NeuronsMultiNoHuPipeline {
                 }}else {
                 double prob = (m.prob != null) ? m.prob : mp.multiProb;
                 double nms  = (m.nms  != null) ? m.nms  : mp.multiNms;
-                markerLabels = PluginCalls.runStarDist2DLabel(segInput, mp.subtypeModelZip, prob, nms);
-                markerLabels = PluginCalls.removeBorderLabels(markerLabels);
-                if (minPx > 0) markerLabels = PluginCalls.labelMinSizeFilterPx(markerLabels, minPx);
+                markerLabels = SegmentationBackends.segment(segInput, mp.subtypeModelZip, prob, nms, mp.base);
+                markerLabels = LabelOps.filterBorderAndSize(markerLabels, true, minPx);
                 if (markerLabels.getWidth() != max.getWidth() || markerLabels.getHeight() != max.getHeight()) {
                     markerLabels = ImageOps.resizeTo(markerLabels, max.getWidth(), max.getHeight());
                 }
@@ -250,13 +272,17 @@ public class NeuronsMultiNoHuPipeline {
             progress.step("Review: " + m.name);
             // ---- Review (seed RM, pass fallback) ----
             RoiManager rmRev = rmh.rm;
-            rmRev.reset();
-            PluginCalls.labelsToRois(markerLabels);        // seed with current call
-            syncToSingleton(new RoiManager[]{ rmRev });
+            fillRM(rmRev, PluginCalls.labelsToRois(markerLabels));        // seed with current call
             ImagePlus fallback = markerLabels.duplicate();
             ij.macro.Interpreter.batchMode = false;
-            ImagePlus reviewed = ReviewUI.reviewAndRebuildLabels(
-                    ch, rmRev, m.name + " (review)", max.getCalibration(), fallback);
+            ImagePlus reviewed;
+            progress.metrics().pause();
+            try {
+                reviewed = ReviewUI.reviewAndRebuildLabels(
+                        ch, rmRev, m.name + " (review)", max.getCalibration(), fallback);
+            } finally {
+                progress.metrics().resume();
+            }
             ij.macro.Interpreter.batchMode = true;
             rmRev.reset();
             rmRev.setVisible(false);
@@ -275,17 +301,12 @@ public class NeuronsMultiNoHuPipeline {
             int n = countLabels(reviewed);
             totals.put(m.name, n);
 
-            RoiManager rmSave = rmh.rm;
-            rmSave.reset();
-            PluginCalls.labelsToRois(reviewed);
-            syncToSingleton(new RoiManager[]{ rmSave });
-            if (rmSave.getCount() > 0) {
-                OutputIO.saveRois(rmSave, new File(outDir, m.name + "_ROIs_" + baseName + ".zip"));
+            Roi[] saveRois = PluginCalls.labelsToRois(reviewed);
+            if (saveRois.length > 0) {
+                OutputIO.saveRois(saveRois, new File(outDir, m.name + "_ROIs_" + baseName + ".zip"));
                 if (mp.base.saveFlattenedOverlay)
-                    OutputIO.saveFlattenedOverlay(max, rmSave, new File(outDir, "MAX_" + baseName + "_" + m.name + "_overlay.tif"));
+                    OutputIO.saveFlattenedOverlay(max, saveRois, new File(outDir, "MAX_" + baseName + "_" + m.name + "_overlay.tif"));
             }
-            rmSave.reset();
-            rmSave.setVisible(false);
 
             labelsByMarker.put(m.name, reviewed); // keep for combos
             ch.close();
@@ -293,41 +314,27 @@ public class NeuronsMultiNoHuPipeline {
             markerLabels.close();
         }
 
-        // 5) Pairwise combos (AND)
-        List<String> names = new ArrayList<>(labelsByMarker.keySet());
-        for (int i = 0; i < names.size(); i++) {
-            for (int j = i + 1; j < names.size(); j++) {
-                String aName = names.get(i), bName = names.get(j);
-                String combo = aName + "+" + bName;
-
-                progress.step("Combo: " + combo);
-                ImagePlus a = labelsByMarker.get(aName);
-                ImagePlus b = labelsByMarker.get(bName);
-                ImagePlus c = andLabels(a, b);                 // pixelwise AND -> relabel
-
-                int n = countLabels(c);
-                totals.put(combo, n);
-
-                if (gangliaLabels != null) {
-                    GangliaOps.Result rc = GangliaOps.countPerGanglion(c, gangliaLabels);
-                    perGanglia.put(combo, rc.countsPerGanglion);
-                }
-
-                progress.step("Save combo: " + combo);
+        // 5) Combos and requested phenotypes (pixel-wise AND / AND NOT, then relabelled)
+        progress.step("Phenotypes");
+        Phenotypes ph = markerPhenotypes(labelsByMarker);
+        for (Phenotype p : NeuronsMultiPipeline.phenotypeRows(ph, mp.comboOrder, mp.phenotypes)) {
+            ImagePlus c = labelsOf(p.members, max);
+            totals.put(p.name, countLabels(c));
+            if (gangliaLabels != null) {
+                GangliaOps.Result rc = GangliaOps.countPerGanglion(c, gangliaLabels);
+                perGanglia.put(p.name, rc.countsPerGanglion);
+            }
 
-                RoiManager rm = rmh.rm;
-                rm.reset();
-                PluginCalls.labelsToRois(c);
-                syncToSingleton(new RoiManager[]{ rm});
-                if (rm.getCount() > 0) {
-                    OutputIO.saveRois(rm, new File(outDir, combo + "_ROIs_" + baseName + ".zip"));
+            if (NeuronsMultiPipeline.saveRow(p, mp.saveComboRois, mp.phenotypes)) {
+                progress.step("Save combo: " + p.name);
+                Roi[] comboRois = PluginCalls.labelsToRois(c);
+                if (comboRois.length > 0) {
+                    OutputIO.saveRois(comboRois, new File(outDir, p.name + "_ROIs_" + baseName + ".zip"));
                     if (mp.base.saveFlattenedOverlay)
-                        OutputIO.saveFlattenedOverlay(max, rm, new File(outDir, "MAX_" + baseName + "_" + combo + "_overlay.tif"));
+                        OutputIO.saveFlattenedOverlay(max, comboRois, new File(outDir, "MAX_" + baseName + "_" + p.name + "_overlay.tif"));
                 }
-                rm.reset();
-                rm.setVisible(false);
-                c.close();
             }
+            c.close();
         }
 
 
@@ -348,6 +355,7 @@ public class NeuronsMultiNoHuPipeline {
         if (gangliaLabels != null) { gangliaLabels.changes = false; gangliaLabels.close(); }
 
         //close the progress bar
+        progress.writeMetrics(outDir);
         progress.close();
 
         NoHuResult result = new NoHuResult(
@@ -369,36 +377,170 @@ public class NeuronsMultiNoHuPipeline {
     }
 
     // ------- helpers -------
-    private static int countLabels(ImagePlus labels16) {
-        short[] px = (short[]) labels16.getProcessor().getPixels();
-        int max = 0;
-        for (short v : px) { int u = v & 0xFFFF; if (u > max) max = u; }
-        return max;
+    /**
+     * Window-free run (mp.base.headless): needs imagePath; ganglia via
+     * {@link GangliaOps#segmentDirect} (IMPORT_ROI, since there are no Hu labels), no review
+     * dialogs and no spatial analysis. progress may be null. Returns the result instead of
+     * opening the results UI.
+     */
+    public NoHuResult runDirect(MultiParams mp, ProgressUI progress) {
+        if (mp == null || mp.base == null) throw new IllegalArgumentException("MultiParams/base cannot be null.");
+        SegmentationBackends.requireModel(mp.base, mp.subtypeModelZip, "Subtype StarDist model");
+        if (mp.markers.isEmpty()) throw new IllegalArgumentException("Add at least one marker.");
+        checkPhenotypes(mp);
+        if (!mp.base.headless) throw new IllegalArgumentException("runDirect needs Params.headless.");
+        if (mp.base.imagePath == null || mp.base.imagePath.isEmpty())
+            throw new IllegalArgumentException("Headless mode needs Params.imagePath (there is no active image).");
+
+        boolean ownProgress = (progress == null);
+        if (ownProgress) progress = new ProgressUI("No-Hu multi-channel", false);
+        progress.start(estimateSteps(mp));
+
+        progress.step("Open image");
+        ImagePlus imp = ProjectionCache.open(mp.base);
+        final String baseName = stripExt(imp.getTitle());
+        final File outDir = OutputIO.prepareOutputDir(mp.base.outputDir, imp, baseName);
+
+        progress.step("Create projection");
+        ImagePlus max = (imp.getNSlices() > 1) ? ImageOps.mip(imp) : imp;
+        max.setTitle("MAX_" + baseName);
+
+        progress.step("Rescale math");
+        final double pxUm = (max.getCalibration() != null && max.getCalibration().pixelWidth > 0)
+                ? max.getCalibration().pixelWidth : 1.0;
+        final double scale = (mp.base.trainingRescaleFactor > 0) ? mp.base.trainingRescaleFactor : 1.0;
+        final double targetPxUm = mp.base.trainingPixelSizeUm / scale;
+        double scaleFactor = (mp.base.rescaleToTrainingPx ? (pxUm / targetPxUm) : 1.0);
+        if (Math.abs(scaleFactor - 1.0) < 1e-3) scaleFactor = 1.0;
+        int minPx = 0;
+        if (mp.base.neuronSegMinMicron != null && pxUm > 0) {
+            double eff = (scaleFactor == 1.0) ? pxUm : targetPxUm;
+            minPx = (int)Math.max(1, Math.round(mp.base.neuronSegMinMicron / eff));
+        }
+
+        ImagePlus gangliaLabels = null;
+        double[] gangliaAreaUm2 = null;
+        int nGanglia = 0;
+        if (mp.base.cellCountsPerGanglia) {
+            progress.step("Ganglia: segment (" + mp.base.gangliaMode + ")");
+            gangliaLabels = GangliaOps.segmentDirect(mp.base, max, /*neuronLabels=*/null);
+            progress.step("Ganglia: label/export/areas");
+            Roi[] gRois = LabelOps.labelsToRois(gangliaLabels.getProcessor());
+            nGanglia = gRois.length;
+            if (nGanglia > 0) {
+                OutputIO.saveRois(gRois, new File(outDir, "Ganglia_ROIs_" + baseName + ".zip"));
+                if (mp.base.saveFlattenedOverlay)
+                    OutputIO.saveFlattenedOverlay(max, gRois, new File(outDir, "MAX_" + baseName + "_ganglia_overlay.tif"));
+            }
+            gangliaAreaUm2 = GangliaOps.areaPerGanglionUm2(gangliaLabels);
+        }
+
+        LinkedHashMap<String,Integer> totals = new LinkedHashMap<>();
+        LinkedHashMap<String,int[]>   perGanglia = new LinkedHashMap<>();
+        Map<String, ImagePlus>        labelsByMarker = new LinkedHashMap<>();
+
+        for (MarkerSpec m : mp.markers) {
+            progress.step("Prep: " + m.name);
+            ImagePlus markerLabels;
+            if (m.customRoisZip != null && m.customRoisZip.isFile()) {
+                markerLabels = NeuronsMultiPipeline.roiZipToLabels(m.customRoisZip, max);
+            } else {
+                ImagePlus ch = ImageOps.extractChannel(max, m.channel);
+                ImagePlus segInput = (scaleFactor == 1.0)
+                        ? ch
+                        : ImageOps.resizeToIntensity(ch,
+                        (int)Math.round(ch.getWidth() * scaleFactor),
+                        (int)Math.round(ch.getHeight() * scaleFactor));
+                progress.step("Segment: " + m.name);
+                double prob = (m.prob != null) ? m.prob : mp.multiProb;
+                double nms  = (m.nms  != null) ? m.nms  : mp.multiNms;
+                markerLabels = SegmentationBackends.segment(segInput, mp.subtypeModelZip, prob, nms, mp.base);
+                markerLabels = LabelOps.filterBorderAndSize(markerLabels, true, minPx);
+                if (markerLabels.getWidth() != max.getWidth() || markerLabels.getHeight() != max.getHeight())
+                    markerLabels = ImageOps.resizeTo(markerLabels, max.getWidth(), max.getHeight());
+                if (segInput != ch) segInput.close();
+                ch.close();
+            }
+
+            progress.step("Save: " + m.name);
+            if (gangliaLabels != null)
+                perGanglia.put(m.name, GangliaOps.countPerGanglion(markerLabels, gangliaLabels).countsPerGanglion);
+            totals.put(m.name, countLabels(markerLabels));
+            NeuronsMultiPipeline.saveLabelsDirect(markerLabels, m.name, max, outDir, baseName, mp.base.saveFlattenedOverlay);
+            labelsByMarker.put(m.name, markerLabels);
+        }
+
+        progress.step("Phenotypes");
+        Phenotypes ph = markerPhenotypes(labelsByMarker);
+        for (Phenotype p : NeuronsMultiPipeline.phenotypeRows(ph, mp.comboOrder, mp.phenotypes)) {
+            ImagePlus c = labelsOf(p.members, max);
+            totals.put(p.name, countLabels(c));
+            if (gangliaLabels != null)
+                perGanglia.put(p.name, GangliaOps.countPerGanglion(c, gangliaLabels).countsPerGanglion);
+            if (NeuronsMultiPipeline.saveRow(p, mp.saveComboRois, mp.phenotypes)) {
+                progress.step("Save combo: " + p.name);
+                NeuronsMultiPipeline.saveLabelsDirect(c, p.name, max, outDir, baseName, mp.base.saveFlattenedOverlay);
+            }
+            c.close();
+        }
+
+        progress.step("Write CSV");
+        OutputIO.writeMultiCsvNoHu(
+                new File(outDir, "Analysis_NoHu_" + baseName + "_cell_counts_multi.csv"),
+                baseName, totals, perGanglia, gangliaAreaUm2);
+
+        progress.step("Save MAX & cleanup");
+        OutputIO.saveTiff(max, new File(outDir, "MAX_" + baseName + ".tif"));
+        for (ImagePlus keep : labelsByMarker.values()) keep.close();
+        if (gangliaLabels != null) { gangliaLabels.changes = false; gangliaLabels.close(); }
+        if (mp.base.doSpatialAnalysis)
+            IJ.log("Marker spatial analysis needs the interactive pipeline; skipped for " + baseName);
+
+        progress.writeMetrics(outDir);
+        if (ownProgress) progress.close();
+        return new NoHuResult(outDir, baseName, max, totals, perGanglia,
+                (mp.base.cellCountsPerGanglia ? Integer.valueOf(nGanglia) : null), gangliaAreaUm2);
     }
 
-    private static String stripExt(String name) {
-        int dot = (name != null) ? name.lastIndexOf('.') : -1;
-        return (dot > 0) ? name.substring(0, dot) : name;
+    private static void checkPhenotypes(MultiParams mp) {
+        List<String> names = new ArrayList<>();
+        for (MarkerSpec m : mp.markers) names.add(m.name);
+        NeuronsMultiPipeline.checkPhenotypes(names, mp.phenotypes);
     }
 
-    /** pixelwise AND of two 16-bit label maps -> contiguous relabeled map */
-    private static ImagePlus andLabels(ImagePlus a, ImagePlus b) {
-        int w = a.getWidth(), h = a.getHeight();
-        short[] pa = (short[]) a.getProcessor().getPixels();
-        short[] pb = (short[]) b.getProcessor().getPixels();
+    /** Foreground pixels of every marker map, over the whole image. */
+    private static Phenotypes markerPhenotypes(Map<String, ImagePlus> labelsByMarker) {
+        Phenotypes ph = null;
+        for (Map.Entry<String, ImagePlus> e : labelsByMarker.entrySet()) {
+            short[] px = (short[]) LabelOps.asShortLabels(e.getValue().getProcessor()).getPixels();
+            if (ph == null) {
+                BitSet all = new BitSet(px.length);
+                all.set(0, px.length);
+                ph = new Phenotypes(all);
+            }
+            ph.add(e.getKey(), Phenotypes.fromLabels(px));
+        }
+        return ph;
+    }
+
+    /** Pixel set -> 16-bit map relabelled 1..K with 8-connectivity, calibrated like ref. */
+    private static ImagePlus labelsOf(BitSet pixels, ImagePlus ref) {
+        int w = ref.getWidth(), h = ref.getHeight();
         byte[] bin = new byte[w * h];
+        for (int i = pixels.nextSetBit(0); i >= 0 && i < bin.length; i = pixels.nextSetBit(i + 1)) bin[i] = (byte) 255;
+        ImagePlus out = new ImagePlus("and_labels", LabelOps.binaryToLabels(new ij.process.ByteProcessor(w, h, bin, null)));
+        out.setCalibration(ref.getCalibration());
+        return out;
+    }
 
-        for (int i = 0, n = bin.length; i < n; i++) {
-            int va = pa[i] & 0xFFFF;
-            int vb = pb[i] & 0xFFFF;
-            bin[i] = (byte) ((va > 0 && vb > 0) ? 255 : 0);
-        }
-        ImagePlus binary = new ImagePlus("and_bin", new ij.process.ByteProcessor(w, h, bin, null));
-        binary.setCalibration(a.getCalibration());
-        ImagePlus relabeled = PluginCalls.binaryToLabels(binary);
-        binary.close();
-        relabeled.setCalibration(a.getCalibration());
-        return relabeled;
+    private static int countLabels(ImagePlus labels16) {
+        // contiguous 1..K after relabelling, so the max ID is the count
+        return LabelStats.maxId(labels16.getProcessor());
+    }
+
+    private static String stripExt(String name) {
+        int dot = (name != null) ? name.lastIndexOf('.') : -1;
+        return (dot > 0) ? name.substring(0, dot) : name;
     }
 
     private void runSingleSpatialPerMarker(NoHuResult mr, MultiParams p) {
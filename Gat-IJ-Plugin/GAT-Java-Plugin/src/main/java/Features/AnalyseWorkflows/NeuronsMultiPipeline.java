@@ -4,6 +4,7 @@ import Analysis.SpatialSingleCellType;
 import Analysis.SpatialTwoCellType;
 import Features.Core.Params;
 import Features.Tools.*;
+import Features.Tools.Phenotypes.Phenotype;
 import UI.panes.Tools.ReviewUI;
 import ij.IJ;
 import ij.ImagePlus;
@@ -15,9 +16,11 @@ import static Features.Tools.RoiManagerHelper.*;
 import javax.swing.*;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 
 public class NeuronsMultiPipeline {
 
@@ -52,6 +55,13 @@ public class NeuronsMultiPipeline {
         public double multiNms    = 0.30;
         public double overlapFrac = 0.40;            // Hu label must be >= this fraction covered by marker
 
+        /** Count every non-empty intersection of up to this many markers (pairs are always listed). */
+        public int comboOrder = 2;
+        /** Save ROI zips / overlays for the marker pairs; larger combinations are only counted. */
+        public boolean saveComboRois = true;
+        /** Extra phenotypes such as "A+B-C", always counted and saved. */
+        public final List<String> phenotypes = new ArrayList<>();
+
         public final List<MarkerSpec> markers = new ArrayList<>();
     }
 
@@ -71,6 +81,10 @@ public class NeuronsMultiPipeline {
         // marker or combo name -> neurons-per-ganglion array (1..G)
         public final LinkedHashMap<String,int[]> perGanglia;
 
+        // Hu ID -> marker overlap, for re-gating at other overlap fractions; may be null
+        public final OverlapTable overlap;
+        public final double overlapFrac;            // fraction the totals were gated at
+
         public MultiResult(File outDir,
                            String baseName,
                            ImagePlus max,
@@ -80,6 +94,20 @@ public class NeuronsMultiPipeline {
                            ImagePlus gangliaLabels,
                            LinkedHashMap<String,Integer> totals,
                            LinkedHashMap<String,int[]> perGanglia) {
+            this(outDir, baseName, max, totalHu, nGanglia, gangliaAreaUm2, gangliaLabels, totals, perGanglia, null, Double.NaN);
+        }
+
+        public MultiResult(File outDir,
+                           String baseName,
+                           ImagePlus max,
+                           int totalHu,
+                           Integer nGanglia,
+                           double[] gangliaAreaUm2,
+                           ImagePlus gangliaLabels,
+                           LinkedHashMap<String,Integer> totals,
+                           LinkedHashMap<String,int[]> perGanglia,
+                           OverlapTable overlap,
+                           double overlapFrac) {
             this.outDir = outDir;
             this.baseName = baseName;
             this.max = max;
@@ -89,32 +117,90 @@ public class NeuronsMultiPipeline {
             this.gangliaLabels = gangliaLabels;
             this.totals = totals;
             this.perGanglia = perGanglia;
+            this.overlap = overlap;
+            this.overlapFrac = overlapFrac;
         }
     }
 
 
-    // ----- Run ----------------------------------------------------------------
-    public void run(MultiParams mp) {
-        if (mp == null || mp.base == null) throw new IllegalArgumentException("MultiParams/base cannot be null");
-        if (mp.subtypeModelZip == null || !new File(mp.subtypeModelZip).isFile())
-            throw new IllegalArgumentException("Subtype StarDist model not found: " + mp.subtypeModelZip);
-        if (mp.markers.isEmpty()) throw new IllegalArgumentException("No markers provided.");
-
-
-
+    public static int estimateSteps(MultiParams mp) {
         final int perMarkerSteps = 4;
-        final int comboSteps     = 1;
         final int nm              = mp.markers.size();
-        final int nCombos        = (nm * (nm - 1)) / 2;
+        final int nSaved         = (mp.saveComboRois ? (nm * (nm - 1)) / 2 : 0) + mp.phenotypes.size();
 
-        // total = Hu + per-marker + combos + 1(final CSV)
-        int totalSteps = NeuronsHuPipeline.estimateSteps(mp.base)
+        // total = Hu + per-marker + 1(phenotypes) + saved combos + 1(final CSV)
+        return NeuronsHuPipeline.estimateSteps(mp.base)
                 + (perMarkerSteps * nm)
-                + (comboSteps * nCombos)
+                + 1 + nSaved
                 + 1;
+    }
+
+    /** Hu IDs positive for each marker of the table, over the Hu IDs present. */
+    public static Phenotypes markerPhenotypes(OverlapTable overlap, double frac) {
+        Phenotypes ph = new Phenotypes(overlap.present());
+        for (String m : overlap.markers()) ph.add(m, Phenotypes.fromMask(overlap.positive(m, frac)));
+        return ph;
+    }
+
+    /**
+     * CSV rows: every marker pair (listed even when empty, so columns match across images),
+     * non-empty combinations of 3..comboOrder markers, then the requested phenotypes.
+     * Names are unique; a requested expression that repeats a combination name is not duplicated.
+     */
+    static List<Phenotype> phenotypeRows(Phenotypes ph, int comboOrder, List<String> requested) {
+        LinkedHashMap<String, Phenotype> rows = new LinkedHashMap<>();
+        List<String> names = ph.markers();
+        for (int i = 0; i < names.size(); i++)
+            for (int j = i + 1; j < names.size(); j++) {
+                Phenotype c = ph.evaluate(Arrays.asList(names.get(i), names.get(j)), Collections.emptyList());
+                rows.put(c.name, c);
+            }
+        if (comboOrder > 2) ph.forEachCombination(3, comboOrder, c -> rows.put(c.name, c));
+        for (String expr : requested) {
+            Phenotype c = ph.evaluate(expr);
+            rows.putIfAbsent(c.name, c);
+        }
+        return new ArrayList<>(rows.values());
+    }
+
+    /** Whether a {@link #phenotypeRows} row gets label maps / ROI zips (pairs by flag, requested always). */
+    static boolean saveRow(Phenotype c, boolean saveComboRois, List<String> requested) {
+        for (String expr : requested) if (expr.trim().equals(c.name)) return true;
+        return saveComboRois && c.positive.size() == 2 && c.negative.isEmpty();
+    }
+
+    private static List<String> markerNames(MultiParams mp) {
+        List<String> names = new ArrayList<>();
+        for (MarkerSpec m : mp.markers) names.add(m.name);
+        return names;
+    }
+
+    /** Fails fast on phenotype expressions that name unknown markers. */
+    static void checkPhenotypes(List<String> markerNames, List<String> requested) {
+        Phenotypes ph = new Phenotypes(new BitSet());
+        for (String m : markerNames) ph.add(m, new BitSet());
+        for (String expr : requested) ph.evaluate(expr);
+    }
+
+    // ----- Run ----------------------------------------------------------------
+    public void run(MultiParams mp) {
+        if (mp == null || mp.base == null) throw new IllegalArgumentException("MultiParams/base cannot be null");
+        Features.Core.SegmentationBackends.requireModel(mp.base, mp.subtypeModelZip, "Subtype StarDist model");
+        if (mp.markers.isEmpty()) throw new IllegalArgumentException("No markers provided.");
+        checkPhenotypes(markerNames(mp), mp.phenotypes);
+
+        if (mp.base.headless) {
+            ProgressUI progress = new ProgressUI("Hu + Multi-channel", false);   // no dialog or status bar
+            try {
+                runDirect(mp, progress);
+            } finally {
+                progress.close();
+            }
+            return;
+        }
 
         ProgressUI progress = new ProgressUI("Hu + Multi-channel");
-        progress.start(totalSteps);
+        progress.start(estimateSteps(mp));
 
         // 1) Run Hu once (returns MAX, Hu labels, ganglia info)
         NeuronsHuPipeline.HuResult hu = new NeuronsHuPipeline().run(mp.base, /*huReturn=*/true, progress);
@@ -145,8 +231,8 @@ public class NeuronsMultiPipeline {
         double[] gangliaArea = hu.gangliaAreaUm2;       // may be null
         Integer  nGanglia    = hu.nGanglia;             // may be null
 
-        // For combos later
-        Map<String, boolean[]> keepMaskByMarker = new LinkedHashMap<>();
+        // Hu x marker overlap, kept for combos and re-gating
+        OverlapTable overlap = OverlapTable.of(huLab.getProcessor());
 
         RmHandle rmh = ensureGlobalRM();
         RoiManager rm = rmh.rm;
@@ -188,7 +274,7 @@ public class NeuronsMultiPipeline {
 
                     // tidy
                     bin.changes = false; bin.close();
-                    markerLabels = lab;
+                    markerLabels = (subtypeMinPx > 0) ? LabelOps.filterBorderAndSize(lab, false, subtypeMinPx) : lab;
                 } finally {
                     ij.macro.Interpreter.batchMode = prevBatch;
                     tmp.reset();
@@ -198,12 +284,10 @@ public class NeuronsMultiPipeline {
                 double prob = (m.prob != null) ? m.prob : mp.multiProb;
                 double nms  = (m.nms  != null) ? m.nms  : mp.multiNms;
 
-                markerLabels = Features.Core.PluginCalls.runStarDist2DLabel(segInput, mp.subtypeModelZip, prob, nms);
-                markerLabels = Features.Core.PluginCalls.removeBorderLabels(markerLabels);
+                markerLabels = Features.Core.SegmentationBackends.segment(segInput, mp.subtypeModelZip, prob, nms, mp.base);
+                markerLabels = LabelOps.filterBorderAndSize(markerLabels, true, subtypeMinPx);
             }
 
-
-            if (subtypeMinPx > 0) markerLabels = Features.Core.PluginCalls.labelMinSizeFilterPx(markerLabels, subtypeMinPx);
             progress.stopPulse("Segment done: " + m.name);
             progress.step("Postprocess/resize: " + m.name);
             if (markerLabels.getWidth() != max.getWidth() || markerLabels.getHeight() != max.getHeight()) {
@@ -211,17 +295,15 @@ public class NeuronsMultiPipeline {
             }
 
             // Determine which Hu labels are positive for this marker (fractional overlap >= overlapFrac)
-            boolean[] keep = Features.Tools.LabelOps.neuronsPositiveByOverlap(huLab, markerLabels, mp.overlapFrac);
-            keepMaskByMarker.put(m.name, keep);
+            overlap.add(m.name, huLab.getProcessor(), markerLabels.getProcessor());
+            boolean[] keep = overlap.positive(m.name, mp.overlapFrac);
 
             // Build filtered Hu label map for this marker (for ROI export / ganglia counts)
-            ImagePlus filteredLabels = Features.Tools.LabelOps.keepHuLabels(huLab, keep);
+            ImagePlus filteredLabels = LabelOps.keepHuLabels(huLab, keep);
 
 
             // Seed RM with current Hu-gated labels
-            rm.reset();
-            Features.Core.PluginCalls.labelsToRois(filteredLabels);
-            syncToSingleton(new RoiManager[]{ rm });
+            fillRM(rm, Features.Core.PluginCalls.labelsToRois(filteredLabels));
 
             //Build our backdrop
             ImagePlus backdrop = ch.duplicate();
@@ -231,13 +313,19 @@ public class NeuronsMultiPipeline {
             progress.step("Review: " + m.name);
             // Launch review and rebuild labels from edited ROIs
             ij.macro.Interpreter.batchMode = false;
-            ImagePlus reviewed = ReviewUI.reviewAndRebuildLabels(
-                    backdrop,
-                    rm,
-                    m.name + " (Hu-gated)",
-                    max.getCalibration(),
-                    filteredLabels
-            );
+            ImagePlus reviewed;
+            progress.metrics().pause();
+            try {
+                reviewed = ReviewUI.reviewAndRebuildLabels(
+                        backdrop,
+                        rm,
+                        m.name + " (Hu-gated)",
+                        max.getCalibration(),
+                        filteredLabels
+                );
+            } finally {
+                progress.metrics().resume();
+            }
             ij.macro.Interpreter.batchMode = true;
 
             progress.step("Save: " + m.name);
@@ -248,15 +336,13 @@ public class NeuronsMultiPipeline {
 
 
             rm.reset();
-            Features.Core.PluginCalls.labelsToRois(reviewed);
-            syncToSingleton(new RoiManager[]{ rm });
-            if (rm.getCount() > 0) {
-                OutputIO.saveRois(rm, new File(outDir, m.name + "_ROIs_" + baseName + ".zip"));
+            rm.setVisible(false);
+            Roi[] markerRois = Features.Core.PluginCalls.labelsToRois(reviewed);
+            if (markerRois.length > 0) {
+                OutputIO.saveRois(markerRois, new File(outDir, m.name + "_ROIs_" + baseName + ".zip"));
                 if (mp.base.saveFlattenedOverlay)
-                    OutputIO.saveFlattenedOverlay(max, rm, new File(outDir, "MAX_" + baseName + "_" + m.name + "_overlay.tif"));
+                    OutputIO.saveFlattenedOverlay(max, markerRois, new File(outDir, "MAX_" + baseName + "_" + m.name + "_overlay.tif"));
             }
-            rm.reset();
-            rm.setVisible(false);
 
             // Per-ganglion counts if available
             if (hu.gangliaLabels != null) {
@@ -269,35 +355,25 @@ public class NeuronsMultiPipeline {
             filteredLabels.close();
         }
 
-        // 5) Build combos (AND of keep arrays)
-        List<String> names = new ArrayList<>(keepMaskByMarker.keySet());
-        for (int i = 0; i < names.size(); i++) {
-            for (int j = i+1; j < names.size(); j++) {
-                String comboName = names.get(i) + "+" + names.get(j);
-                boolean[] a = keepMaskByMarker.get(names.get(i));
-                boolean[] b = keepMaskByMarker.get(names.get(j));
-                boolean[] and = andMasks(a, b);
-                ImagePlus lab = LabelOps.keepHuLabels(huLab, and);
-                int n = countLabels(lab);
-                totals.put(comboName, n);
-
-                if (hu.gangliaLabels != null) {
-                    GangliaOps.Result rc = GangliaOps.countPerGanglion(lab, hu.gangliaLabels);
-                    perGanglia.put(comboName, rc.countsPerGanglion);
-                }
-                progress.step("Save combo: " + comboName);
-                rm.reset();
-                Features.Core.PluginCalls.labelsToRois(lab);
-                syncToSingleton(new RoiManager[]{ rm });
-                if (rm.getCount() > 0) {
-                    OutputIO.saveRois(rm, new File(outDir, comboName + "_ROIs_" + baseName + ".zip"));
-                    if (mp.base.saveFlattenedOverlay)
-                        OutputIO.saveFlattenedOverlay(max, rm, new File(outDir, "MAX_" + baseName + "_" + comboName + "_overlay.tif"));
-                }
-                rm.reset();
-                rm.setVisible(false);
-                lab.close();
+        // 5) Combos and requested phenotypes as Hu ID sets; label maps only for the saved ones
+        progress.step("Phenotypes");
+        Phenotypes ph = markerPhenotypes(overlap, mp.overlapFrac);
+        int[] ganglionOf = (hu.gangliaLabels != null) ? GangliaOps.ganglionOfLabels(huLab, hu.gangliaLabels) : null;
+        int maxG = (hu.gangliaLabels != null) ? LabelStats.maxId(hu.gangliaLabels.getProcessor()) : 0;
+        for (Phenotype c : phenotypeRows(ph, mp.comboOrder, mp.phenotypes)) {
+            totals.put(c.name, c.count());
+            if (ganglionOf != null) perGanglia.put(c.name, GangliaOps.countPerGanglion(c.members, ganglionOf, maxG));
+            if (!saveRow(c, mp.saveComboRois, mp.phenotypes)) continue;
+
+            progress.step("Save combo: " + c.name);
+            ImagePlus lab = LabelOps.keepHuLabels(huLab, Phenotypes.toMask(c.members, overlap.maxHuId() + 1));
+            Roi[] comboRois = Features.Core.PluginCalls.labelsToRois(lab);
+            if (comboRois.length > 0) {
+                OutputIO.saveRois(comboRois, new File(outDir, c.name + "_ROIs_" + baseName + ".zip"));
+                if (mp.base.saveFlattenedOverlay)
+                    OutputIO.saveFlattenedOverlay(max, comboRois, new File(outDir, "MAX_" + baseName + "_" + c.name + "_overlay.tif"));
             }
+            lab.close();
         }
 
 
@@ -311,13 +387,15 @@ public class NeuronsMultiPipeline {
                 perGanglia,
                 gangliaArea
         );
+        saveOverlap(overlap, outDir, baseName);
 
+        progress.writeMetrics(outDir);
         progress.close();
 
         MultiResult mr = new MultiResult(
                 outDir, baseName, max, totalHu,
                 nGanglia, gangliaArea, hu.gangliaLabels,
-                totals, perGanglia
+                totals, perGanglia, overlap, mp.overlapFrac
         );
 
         RoiManager rmRev = rmh.rm;
@@ -333,15 +411,138 @@ public class NeuronsMultiPipeline {
         SwingUtilities.invokeLater(() -> UI.panes.Results.ResultsMultiUI.promptAndMaybeShow(mr));
     }
 
-    private static boolean[] andMasks(boolean[] a, boolean[] b) {
-        int n = Math.max(a.length, b.length);
-        boolean[] out = new boolean[n];
-        for (int i = 0; i < n; i++) {
-            boolean ai = (i < a.length) && a[i];
-            boolean bi = (i < b.length) && b[i];
-            out[i] = ai && bi;
+    /**
+     * Window-free run (mp.base.headless): the Hu stage runs headless, markers keep their automatic
+     * Hu-gated labels (no review), custom marker ROI zips are read without the RoiManager and
+     * marker spatial analysis is skipped. progress may be null. Returns the result instead of
+     * opening the results UI.
+     */
+    public MultiResult runDirect(MultiParams mp, ProgressUI progress) {
+        if (mp == null || mp.base == null) throw new IllegalArgumentException("MultiParams/base cannot be null");
+        Features.Core.SegmentationBackends.requireModel(mp.base, mp.subtypeModelZip, "Subtype StarDist model");
+        if (mp.markers.isEmpty()) throw new IllegalArgumentException("No markers provided.");
+        checkPhenotypes(markerNames(mp), mp.phenotypes);
+        if (!mp.base.headless) throw new IllegalArgumentException("runDirect needs Params.headless.");
+
+        boolean ownProgress = (progress == null);
+        if (ownProgress) progress = new ProgressUI("Hu + Multi-channel", false);
+        progress.start(estimateSteps(mp));
+
+        NeuronsHuPipeline.HuResult hu = new NeuronsHuPipeline().run(mp.base, /*huReturn=*/true, progress);
+        ImagePlus max = hu.max, huLab = hu.neuronLabels;
+        File outDir = hu.outDir; String baseName = hu.baseName;
+
+        double pxUm = max.getCalibration().pixelWidth;
+        double scale = (mp.base.trainingRescaleFactor > 0) ? mp.base.trainingRescaleFactor : 1.0;
+        double targetPxUm = mp.base.trainingPixelSizeUm / scale;
+        double scaleFactor = (mp.base.rescaleToTrainingPx && pxUm > 0) ? (pxUm / targetPxUm) : 1.0;
+        if (Math.abs(scaleFactor - 1.0) < 1e-3) scaleFactor = 1.0;
+        int subtypeMinPx = 0;
+        if (mp.base.neuronSegMinMicron != null && pxUm > 0) {
+            double eff = (scaleFactor == 1.0) ? pxUm : targetPxUm;
+            subtypeMinPx = (int)Math.max(1, Math.round(mp.base.neuronSegMinMicron / eff));
+        }
+
+        LinkedHashMap<String,Integer> totals = new LinkedHashMap<>();
+        LinkedHashMap<String,int[]>   perGanglia = new LinkedHashMap<>();
+        OverlapTable overlap = OverlapTable.of(huLab.getProcessor());
+
+        for (MarkerSpec m : mp.markers) {
+            progress.step("Prep: " + m.name);
+            ImagePlus markerLabels;
+            if (m.customRoisZip != null && m.customRoisZip.isFile()) {
+                markerLabels = roiZipToLabels(m.customRoisZip, max);
+                if (subtypeMinPx > 0) markerLabels = LabelOps.filterBorderAndSize(markerLabels, false, subtypeMinPx);
+            } else {
+                ImagePlus ch = ImageOps.extractChannel(max, m.channel);
+                ImagePlus segInput = (scaleFactor == 1.0)
+                        ? ch
+                        : ImageOps.resizeToIntensity(ch,
+                        (int)Math.round(ch.getWidth() * scaleFactor),
+                        (int)Math.round(ch.getHeight() * scaleFactor));
+                progress.step("Segment: " + m.name);
+                double prob = (m.prob != null) ? m.prob : mp.multiProb;
+                double nms  = (m.nms  != null) ? m.nms  : mp.multiNms;
+                markerLabels = Features.Core.SegmentationBackends.segment(segInput, mp.subtypeModelZip, prob, nms, mp.base);
+                markerLabels = LabelOps.filterBorderAndSize(markerLabels, true, subtypeMinPx);
+                if (segInput != ch) segInput.close();
+                ch.close();
+            }
+
+            progress.step("Postprocess/resize: " + m.name);
+            if (markerLabels.getWidth() != max.getWidth() || markerLabels.getHeight() != max.getHeight())
+                markerLabels = ImageOps.resizeTo(markerLabels, max.getWidth(), max.getHeight());
+            overlap.add(m.name, huLab.getProcessor(), markerLabels.getProcessor());
+            boolean[] keep = overlap.positive(m.name, mp.overlapFrac);
+            ImagePlus gated = LabelOps.keepHuLabels(huLab, keep);
+
+            progress.step("Save: " + m.name);
+            totals.put(m.name, countLabels(gated));
+            saveLabelsDirect(gated, m.name, max, outDir, baseName, mp.base.saveFlattenedOverlay);
+            if (hu.gangliaLabels != null)
+                perGanglia.put(m.name, GangliaOps.countPerGanglion(gated, hu.gangliaLabels).countsPerGanglion);
+            markerLabels.close();
+            gated.close();
+        }
+
+        progress.step("Phenotypes");
+        Phenotypes ph = markerPhenotypes(overlap, mp.overlapFrac);
+        int[] ganglionOf = (hu.gangliaLabels != null) ? GangliaOps.ganglionOfLabels(huLab, hu.gangliaLabels) : null;
+        int maxG = (hu.gangliaLabels != null) ? LabelStats.maxId(hu.gangliaLabels.getProcessor()) : 0;
+        for (Phenotype c : phenotypeRows(ph, mp.comboOrder, mp.phenotypes)) {
+            totals.put(c.name, c.count());
+            if (ganglionOf != null) perGanglia.put(c.name, GangliaOps.countPerGanglion(c.members, ganglionOf, maxG));
+            if (!saveRow(c, mp.saveComboRois, mp.phenotypes)) continue;
+
+            progress.step("Save combo: " + c.name);
+            ImagePlus lab = LabelOps.keepHuLabels(huLab, Phenotypes.toMask(c.members, overlap.maxHuId() + 1));
+            saveLabelsDirect(lab, c.name, max, outDir, baseName, mp.base.saveFlattenedOverlay);
+            lab.close();
+        }
+
+        progress.step("Write CSV");
+        OutputIO.writeMultiCsv(
+                new File(outDir, "Analysis_Hu_" + baseName + "_cell_counts_multi.csv"),
+                baseName, hu.totalNeuronCount, hu.nGanglia, totals, perGanglia, hu.gangliaAreaUm2);
+        saveOverlap(overlap, outDir, baseName);
+        if (mp.base.doSpatialAnalysis)
+            IJ.log("Marker spatial analysis needs the interactive pipeline; skipped for " + baseName);
+
+        progress.writeMetrics(outDir);
+        if (ownProgress) progress.close();
+        return new MultiResult(outDir, baseName, max, hu.totalNeuronCount,
+                hu.nGanglia, hu.gangliaAreaUm2, hu.gangliaLabels, totals, perGanglia, overlap, mp.overlapFrac);
+    }
+
+    /** ROI zip painted into a MAX-sized mask and relabelled (touching ROIs merge, like the RoiManager path). */
+    static ImagePlus roiZipToLabels(File zip, ImagePlus ref) {
+        Roi[] rois = OutputIO.loadRois(zip);
+        if (rois.length == 0) throw new IllegalArgumentException("ROI zip '" + zip.getName() + "' contains no ROIs.");
+        ij.process.ByteProcessor bin = new ij.process.ByteProcessor(ref.getWidth(), ref.getHeight());
+        bin.setValue(255);
+        for (Roi r : rois) bin.fill(r);
+        ImagePlus lab = new ImagePlus(zip.getName(), LabelOps.binaryToLabels(bin));
+        lab.setCalibration(ref.getCalibration());
+        return lab;
+    }
+
+    /** &lt;name&gt;_ROIs_&lt;base&gt;.zip (+ overlay) without the RoiManager. */
+    static void saveLabelsDirect(ImagePlus labels, String name, ImagePlus max, File outDir, String baseName,
+                                 boolean overlay) {
+        Roi[] rois = LabelOps.labelsToRois(labels.getProcessor());
+        if (rois.length == 0) return;
+        OutputIO.saveRois(rois, new File(outDir, name + "_ROIs_" + baseName + ".zip"));
+        if (overlay)
+            OutputIO.saveFlattenedOverlay(max, rois, new File(outDir, "MAX_" + baseName + "_" + name + "_overlay.tif"));
+    }
+
+    /** Hu_marker_overlap_&lt;base&gt;.csv: per-Hu-label marker hits for re-gating without re-segmenting. */
+    private static void saveOverlap(OverlapTable overlap, File outDir, String baseName) {
+        try {
+            overlap.write(new File(outDir, OverlapTable.FILE_PREFIX + baseName + ".csv"));
+        } catch (java.io.IOException e) {
+            IJ.log("Failed writing overlap table: " + e.getMessage());
         }
-        return out;
     }
 
     // In NeuronsMultiPipeline (Java 8)
@@ -455,13 +656,7 @@ public class NeuronsMultiPipeline {
 
 
     private static int countLabels(ImagePlus labels16) {
-        // Label map with values 0..K; just find max label ID (they’re contiguous after binary re-label)
-        short[] px = (short[]) labels16.getProcessor().getPixels();
-        int max = 0;
-        for (short v : px) {
-            int u = v & 0xFFFF;
-            if (u > max) max = u;
-        }
-        return max;
+        // gated maps keep their Hu IDs, so count the IDs present rather than taking the max
+        return LabelStats.of(labels16.getProcessor()).count();
     }
 }
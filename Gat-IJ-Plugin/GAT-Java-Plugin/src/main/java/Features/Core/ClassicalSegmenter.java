@@ -0,0 +1,313 @@
+package Features.Core;
+
+import Features.Tools.DistanceTransform;
+import Features.Tools.LabelOps;
+import Features.Tools.Parallel;
+import ij.ImagePlus;
+import ij.process.AutoThresholder;
+import ij.process.ShortProcessor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Model-free segmenter ({@link SegmentationBackends#CLASSICAL}) for previews, QC and machines
+ * without TensorFlow: Gaussian smoothing, a local-mean threshold gated by global Otsu, and a
+ * distance-transform watershed that splits touching somata.
+ * <p>
+ * Seeds are maxima of the exact EDT, kept strongest first unless they lie inside the inscribed
+ * disc of a stronger seed (the same disc suppression StarDist's NMS applies to its polygons).
+ * Every foreground component is then flooded from its seeds in descending EDT order. Blur, box
+ * filter and EDT run in row/column stripes; the flooding runs one component per task. Sizes come
+ * from {@link Params#classicalSigmaUm} and {@link Params#classicalCellDiameterUm}; prob/nms
+ * and the model are ignored.
+ */
+public final class ClassicalSegmenter implements SegmentationBackend {
+
+    @Override
+    public ImagePlus segment(ImagePlus input, String modelZip, double prob, double nms, Params p) {
+        int w = input.getWidth(), h = input.getHeight();
+        double pxUm = (input.getCalibration() != null && input.getCalibration().pixelWidth > 0)
+                ? input.getCalibration().pixelWidth : 1.0;
+        double sigmaPx = Math.max(0, p.classicalSigmaUm / pxUm);
+        double diameterPx = Math.max(3, p.classicalCellDiameterUm / pxUm);
+
+        float[] img = (float[]) input.getProcessor().convertToFloatProcessor().getPixels();
+        float[] smooth = (sigmaPx > 0.3) ? gaussian(img, w, h, sigmaPx) : img;
+        byte[] fg = threshold(smooth, w, h, (int) Math.round(diameterPx));
+        short[] labels = watershed(fg, w, h);
+
+        ImagePlus out = new ImagePlus(input.getTitle() + "_labels", new ShortProcessor(w, h, labels, null));
+        out.setCalibration(input.getCalibration());
+        return out;
+    }
+
+    @Override
+    public boolean needsModel() {
+        return false;
+    }
+
+    @Override
+    public String paramsKey(Params p) {
+        return p.classicalSigmaUm + "|" + p.classicalCellDiameterUm;
+    }
+
+    // ---------- smoothing + threshold ----------
+
+    static float[] gaussian(float[] src, int w, int h, double sigma) {
+        int r = (int) Math.ceil(3 * sigma);
+        float[] k = new float[2 * r + 1];
+        double sum = 0;
+        for (int i = -r; i <= r; i++) sum += (k[i + r] = (float) Math.exp(-0.5 * i * i / (sigma * sigma)));
+        for (int i = 0; i < k.length; i++) k[i] /= sum;
+
+        float[] tmp = new float[w * h], dst = new float[w * h];
+        Parallel.forStripes(h, (s, y0, y1) -> {
+            for (int y = y0; y < y1; y++) {
+                int row = y * w;
+                for (int x = 0; x < w; x++) {
+                    double acc = 0;
+                    for (int i = -r; i <= r; i++) {
+                        int xx = Math.min(w - 1, Math.max(0, x + i));   // edge pixels repeat
+                        acc += k[i + r] * src[row + xx];
+                    }
+                    tmp[row + x] = (float) acc;
+                }
+            }
+        });
+        Parallel.forStripes(h, (s, y0, y1) -> {
+            for (int y = y0; y < y1; y++) {
+                for (int x = 0; x < w; x++) {
+                    double acc = 0;
+                    for (int i = -r; i <= r; i++) {
+                        int yy = Math.min(h - 1, Math.max(0, y + i));
+                        acc += k[i + r] * tmp[yy * w + x];
+                    }
+                    dst[y * w + x] = (float) acc;
+                }
+            }
+        });
+        return dst;
+    }
+
+    /** Foreground = above global Otsu and at least the mean of the surrounding (2r+1)^2 box. */
+    static byte[] threshold(float[] v, int w, int h, int r) {
+        float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+        for (float f : v) { if (f < min) min = f; if (f > max) max = f; }
+        byte[] fg = new byte[w * h];
+        if (!(max > min)) return fg;
+        int[] hist = new int[256];
+        double scale = 255.0 / (max - min);
+        for (float f : v) hist[(int) ((f - min) * scale)]++;
+        double otsu = min + new AutoThresholder().getThreshold(AutoThresholder.Method.Otsu, hist) / scale;
+
+        float[] mean = boxMean(v, w, h, r);
+        Parallel.forStripes(h, (s, y0, y1) -> {
+            for (int i = y0 * w, end = y1 * w; i < end; i++)
+                if (v[i] > otsu && v[i] >= mean[i]) fg[i] = (byte) 255;
+        });
+        return fg;
+    }
+
+    // separable running-sum box mean, window clipped at the image edges
+    private static float[] boxMean(float[] v, int w, int h, int r) {
+        float[] rows = new float[w * h], out = new float[w * h];
+        Parallel.forStripes(h, (s, y0, y1) -> {
+            for (int y = y0; y < y1; y++) {
+                int row = y * w;
+                double acc = 0;
+                int lo = 0, hi = -1;
+                for (int x = 0; x < w; x++) {
+                    int a = Math.max(0, x - r), b = Math.min(w - 1, x + r);
+                    while (hi < b) acc += v[row + ++hi];
+                    while (lo < a) acc -= v[row + lo++];
+                    rows[row + x] = (float) (acc / (b - a + 1));
+                }
+            }
+        });
+        Parallel.forStripes(w, (s, x0, x1) -> {
+            for (int x = x0; x < x1; x++) {
+                double acc = 0;
+                int lo = 0, hi = -1;
+                for (int y = 0; y < h; y++) {
+                    int a = Math.max(0, y - r), b = Math.min(h - 1, y + r);
+                    while (hi < b) acc += rows[++hi * w + x];
+                    while (lo < a) acc -= rows[lo++ * w + x];
+                    out[y * w + x] = (float) (acc / (b - a + 1));
+                }
+            }
+        });
+        return out;
+    }
+
+    // ---------- distance-transform watershed ----------
+
+    static short[] watershed(byte[] fg, int w, int h) {
+        float[] dist = DistanceTransform.edt(fg, w, h);
+        short[] comp = (short[]) LabelOps.binaryToLabels(new ij.process.ByteProcessor(w, h, fg, null)).getPixels();
+        int nComp = 0;
+        for (short c : comp) nComp = Math.max(nComp, c & 0xFFFF);
+        if (nComp == 0) return new short[w * h];
+
+        // component bounding boxes
+        int[] bx0 = new int[nComp + 1], by0 = new int[nComp + 1], bx1 = new int[nComp + 1], by1 = new int[nComp + 1];
+        Arrays.fill(bx0, Integer.MAX_VALUE);
+        Arrays.fill(by0, Integer.MAX_VALUE);
+        for (int y = 0, i = 0; y < h; y++) {
+            for (int x = 0; x < w; x++, i++) {
+                int c = comp[i] & 0xFFFF;
+                if (c == 0) continue;
+                if (x < bx0[c]) bx0[c] = x;
+                if (x > bx1[c]) bx1[c] = x;
+                if (y < by0[c]) by0[c] = y;
+                if (y > by1[c]) by1[c] = y;
+            }
+        }
+
+        // per component: seeds + flooding into a local label map (1..k)
+        int[][] local = new int[nComp + 1][];
+        int[] nSeeds = new int[nComp + 1];
+        final int comps = nComp;
+        Parallel.forEach(comps, k -> {
+            int c = k + 1;
+            int x0 = bx0[c], y0 = by0[c], bw = bx1[c] - x0 + 1, bh = by1[c] - y0 + 1;
+            int[] lab = new int[bw * bh];
+            nSeeds[c] = flood(dist, comp, w, h, c, x0, y0, bw, bh, lab);
+            local[c] = lab;
+        });
+
+        int[] offset = new int[nComp + 1];
+        int total = 0;
+        for (int c = 1; c <= nComp; c++) { offset[c] = total; total += nSeeds[c]; }
+        if (total > 0xFFFF) throw new IllegalStateException("More than 65535 cells: " + total);
+
+        short[] out = new short[w * h];
+        Parallel.forEach(comps, k -> {
+            int c = k + 1;
+            int x0 = bx0[c], y0 = by0[c], bw = bx1[c] - x0 + 1, bh = by1[c] - y0 + 1;
+            int[] lab = local[c];
+            for (int yy = 0; yy < bh; yy++)
+                for (int xx = 0; xx < bw; xx++) {
+                    int l = lab[yy * bw + xx];
+                    if (l > 0) out[(y0 + yy) * w + x0 + xx] = (short) (offset[c] + l);
+                }
+        });
+        return out;
+    }
+
+    /** Floods component c (bbox x0,y0,bw,bh) from its EDT seeds; returns the number of regions. */
+    private static int flood(float[] dist, short[] comp, int w, int h, int c,
+                             int x0, int y0, int bw, int bh, int[] lab) {
+        // seed candidates: 8-neighbourhood maxima of the EDT
+        List<int[]> cand = new ArrayList<>();
+        for (int yy = 0; yy < bh; yy++) {
+            int y = y0 + yy;
+            for (int xx = 0; xx < bw; xx++) {
+                int x = x0 + xx, i = y * w + x;
+                if ((comp[i] & 0xFFFF) != c) continue;
+                float d = dist[i];
+                boolean isMax = true;
+                for (int dy = -1; dy <= 1 && isMax; dy++) {
+                    int ny = y + dy;
+                    if (ny < 0 || ny >= h) continue;
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int nx = x + dx;
+                        if ((dx == 0 && dy == 0) || nx < 0 || nx >= w) continue;
+                        if (dist[ny * w + nx] > d) { isMax = false; break; }
+                    }
+                }
+                if (isMax) cand.add(new int[]{ x, y, Float.floatToIntBits(d) });
+            }
+        }
+        // strongest first; drop seeds inside a stronger seed's inscribed disc
+        cand.sort((a, b) -> Float.compare(Float.intBitsToFloat(b[2]), Float.intBitsToFloat(a[2])));
+        List<int[]> seeds = new ArrayList<>();
+        for (int[] s : cand) {
+            boolean keep = true;
+            for (int[] t : seeds) {
+                double r = Float.intBitsToFloat(t[2]);
+                double dx = s[0] - t[0], dy = s[1] - t[1];
+                if (dx * dx + dy * dy < r * r) { keep = false; break; }
+            }
+            if (keep) seeds.add(s);
+        }
+
+        if (seeds.size() <= 1) {
+            for (int yy = 0; yy < bh; yy++)
+                for (int xx = 0; xx < bw; xx++)
+                    if ((comp[(y0 + yy) * w + x0 + xx] & 0xFFFF) == c) lab[yy * bw + xx] = 1;
+            return 1;
+        }
+
+        // priority flood, highest distance first
+        Heap heap = new Heap(bw * bh);
+        for (int k = 0; k < seeds.size(); k++) {
+            int[] s = seeds.get(k);
+            int li = (s[1] - y0) * bw + (s[0] - x0);
+            lab[li] = k + 1;
+            heap.push(li, Float.intBitsToFloat(s[2]));
+        }
+        while (heap.size > 0) {
+            int li = heap.pop();
+            int xx = li % bw, yy = li / bw, l = lab[li];
+            for (int dy = -1; dy <= 1; dy++) {
+                int ny = yy + dy;
+                if (ny < 0 || ny >= bh) continue;
+                for (int dx = -1; dx <= 1; dx++) {
+                    int nx = xx + dx;
+                    if ((dx == 0 && dy == 0) || nx < 0 || nx >= bw) continue;
+                    int ni = ny * bw + nx, gi = (y0 + ny) * w + x0 + nx;
+                    if (lab[ni] != 0 || (comp[gi] & 0xFFFF) != c) continue;
+                    lab[ni] = l;
+                    heap.push(ni, dist[gi]);
+                }
+            }
+        }
+        return seeds.size();
+    }
+
+    /** Binary max-heap of int items with float keys. */
+    private static final class Heap {
+        final int[] item;
+        final float[] key;
+        int size;
+
+        Heap(int capacity) {
+            item = new int[capacity];
+            key = new float[capacity];
+        }
+
+        void push(int it, float k) {
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (key[parent] >= k) break;
+                item[i] = item[parent];
+                key[i] = key[parent];
+                i = parent;
+            }
+            item[i] = it;
+            key[i] = k;
+        }
+
+        int pop() {
+            int top = item[0];
+            int it = item[--size];
+            float k = key[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && key[child + 1] > key[child]) child++;
+                if (key[child] <= k) break;
+                item[i] = item[child];
+                key[i] = key[child];
+                i = child;
+            }
+            item[i] = it;
+            key[i] = k;
+            return top;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package Features.Core;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+import net.imagej.Dataset;
+import org.scijava.Context;
+import org.scijava.command.CommandModule;
+import org.scijava.command.CommandService;
+import org.scijava.convert.ConvertService;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Window-free counterparts of the {@link PluginCalls} stages.
+ * Everything here hands ImagePlus objects straight back to the caller: no WindowManager
+ * registration, no title lookups and no IJ.run string dispatch, so it runs on headless nodes.
+ */
+public final class DirectCalls {
+    private DirectCalls(){}
+
+    private static final String STARDIST_2D = "de.csbdresden.stardist.StarDist2D";
+
+    /** CLIJ2.getInstance() is one shared GPU context; hold this while using CLIJ2 from worker threads. */
+    public static final Object CLIJ_LOCK = new Object();
+
+    /**
+     * StarDist network runs at once across worker threads ({@link #runInference}). Each
+     * TensorFlow session is already multithreaded and holds its own model and tiles, so parallel
+     * sessions mostly add heap pressure; default one permit, -Dgat.stardist.permits=N to raise it.
+     * CPU-only commands such as StarDist's NMS do not take a permit.
+     */
+    public static final Semaphore STARDIST_PERMITS =
+            new Semaphore(Math.max(1, Integer.getInteger("gat.stardist.permits", 1)), true);
+
+    /**
+     * StarDist 2D (ZIP model) -> label image, run through the SciJava CommandService.
+     * Same settings as {@link PluginCalls#runStarDist2DLabel}, but the input is passed by
+     * reference instead of by window title and the output comes back as a module output.
+     */
+    public static ImagePlus runStarDist2DLabel(ImagePlus input, String modelZip, double prob, double nms) {
+        if (modelZip == null || !new File(modelZip).isFile())
+            throw new IllegalArgumentException("StarDist ZIP not found: " + modelZip);
+        CommandModule module = runInference(STARDIST_2D, starDistArgs(input, modelZip, prob, nms, false));
+        return labelOutput(module, input);
+    }
+
+    /** StarDist's excludeBoundary: objects within this many pixels of the input edge are dropped. */
+    static final int EXCLUDE_BOUNDARY_PX = 2;
+    /** Input normalisation percentiles (the macro's 1-99.8). */
+    static final double PERCENTILE_BOTTOM = 1.0, PERCENTILE_TOP = 99.8;
+
+    /** StarDist2D inputs as used by the pipelines (percentile normalisation, label image output). */
+    static Map<String, Object> starDistArgs(ImagePlus input, String modelZip, double prob, double nms,
+                                            boolean showProbAndDist) {
+        Map<String, Object> args = new HashMap<>();
+        args.put("input", context().getService(ConvertService.class).convert(input, Dataset.class));
+        args.put("modelChoice", "Model (.zip) from File");
+        args.put("modelFile", new File(modelZip));
+        args.put("normalizeInput", true);
+        args.put("percentileBottom", PERCENTILE_BOTTOM);
+        args.put("percentileTop", PERCENTILE_TOP);
+        args.put("probThresh", prob);
+        args.put("nmsThresh", nms);
+        args.put("outputType", "Label Image");
+        args.put("nTiles", PluginCalls.suggestTiles(input.getWidth(), input.getHeight()));
+        args.put("excludeBoundary", EXCLUDE_BOUNDARY_PX);
+        args.put("roiPosition", "Automatic");
+        args.put("verbose", false);
+        args.put("showCsbdeepProgress", false);
+        args.put("showProbAndDist", showProbAndDist);
+        return args;
+    }
+
+    /** {@link #runCommand} for a command that runs the network, holding a {@link #STARDIST_PERMITS} permit. */
+    static CommandModule runInference(String command, Map<String, Object> args) {
+        try {
+            STARDIST_PERMITS.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("StarDist was interrupted.", e);
+        }
+        try {
+            return runCommand(command, args);
+        } finally {
+            STARDIST_PERMITS.release();
+        }
+    }
+
+    /** Runs a SciJava command (no pre/post-processing) and waits for it. */
+    static CommandModule runCommand(String command, Map<String, Object> args) {
+        try {
+            return context().getService(CommandService.class).run(command, false, args).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("StarDist was interrupted.", e);
+        } catch (Exception e) {
+            throw new IllegalStateException("StarDist failed: " + e.getMessage(), e);
+        }
+    }
+
+    /** The module's "label" output as a detached ImagePlus with the input's title and calibration. */
+    static ImagePlus labelOutput(CommandModule module, ImagePlus input) {
+        Object label = module.getOutput("label");
+        if (label == null) throw new IllegalStateException("StarDist did not return a label image.");
+        ImagePlus wrapped = context().getService(ConvertService.class).convert(label, ImagePlus.class);
+        if (wrapped == null) throw new IllegalStateException("Could not convert the StarDist label output.");
+
+        // detach from the Dataset so the caller owns plain pixels
+        ImageProcessor ip = wrapped.getProcessor().duplicate();
+        ImagePlus out = new ImagePlus("labels_" + input.getTitle(), ip);
+        out.setCalibration(input.getCalibration());
+        return out;
+    }
+
+    static Context context() {
+        Object ctx = IJ.runPlugIn("org.scijava.Context", "");
+        if (!(ctx instanceof Context))
+            throw new IllegalStateException("No SciJava context available (run inside Fiji).");
+        return (Context) ctx;
+    }
+}
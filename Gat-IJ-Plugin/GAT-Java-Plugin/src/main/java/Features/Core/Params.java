@@ -4,7 +4,7 @@ package Features.Core;
 import java.awt.*;
 import java.util.List;
 
-public class Params {
+public class Params implements Cloneable {
 
     //Ganglia no hu param
     public Integer gangliaCellChannel;
@@ -16,6 +16,22 @@ public class Params {
     public String roiPath;                // Path to ROI zip file (if importing)
     public String outputDir = null;       // parent output dir (optional). We will create Analysis/<baseName> inside
 
+    /** Window-free run: no WindowManager, RoiManager or review dialogs (needs imagePath). */
+    public boolean headless = false;
+
+    /**
+     * Headless Hu runs: checkpoint every stage under Analysis/&lt;name&gt;/.gat_checkpoints and resume
+     * from matching checkpoints (the output folder is reused instead of numbered).
+     */
+    public boolean checkpointStages = false;
+
+    /** HuPreview: the MAX is shrunk by this factor before segmentation and counting. */
+    public int previewDownsample = 4;
+
+    /** Out-of-core StarDist (TiledSegmentation): core tile edge and read margin, in original pixels. */
+    public int tileSizePx = 4096;
+    public int tileOverlapPx = 128;
+
     /** 1-based channel index for Hu segmentation. */
     public int huChannel = 3;
 
@@ -35,9 +51,33 @@ public class Params {
     public boolean useClij2EDF = false;
 
 
+    /** Z planes used for the projection (1-based, inclusive); 0 = first/last plane. Only with imagePath. */
+    public int projectionZStart = 0;
+    public int projectionZEnd = 0;
+
+    /**
+     * On-disk cache of projections (ProjectionCache); null dir = ~/.gat/projection-cache.
+     * Opt-in: every cached image adds a full projection TIFF (up to the size limit).
+     */
+    public boolean useProjectionCache = false;
+    public String projectionCacheDir = null;
+    public long projectionCacheMaxMb = 2048;
+
     /** Require microns/um calibration. */
     public boolean requireMicronUnits = true;
 
+    /** Cell segmenter by {@link SegmentationBackends} name (null = StarDist). */
+    public String segmentationBackend = SegmentationBackends.STARDIST;
+
+    /** Classical backend (ClassicalSegmenter): smoothing sigma and expected soma diameter, in microns. */
+    public double classicalSigmaUm = 1.0;
+    public double classicalCellDiameterUm = 15.0;
+
+    /** Keep StarDist prob/dist maps on disk (StarDistCache) so prob/NMS changes skip the network. */
+    public boolean useStarDistCache = false;
+    public String stardistCacheDir = null;        // null = ~/.gat/stardist-cache
+    public long stardistCacheMaxMb = 4096;
+
     // Post-processing knobs (macro names: prob_neuron, overlap_neuron)
     public double probThresh = 0.5;
     public double nmsThresh = 0.3;
@@ -114,7 +154,15 @@ public class Params {
     public String projectionMethod = null; 
     public boolean createColorScale = false;
     public boolean batchMode = false;
-    
+
+    /** Shallow copy, e.g. one per image when a template drives a batch. */
+    public Params copy() {
+        try {
+            return (Params) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
 
 
@@ -5,6 +5,7 @@ import Features.Tools.SilentRun;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.gui.Roi;
 import ij.plugin.frame.RoiManager;
 
 import javax.swing.*;
@@ -71,39 +72,9 @@ public final class PluginCalls {
     }
 
     /** MorphoLibJ: Label Image -> ROIs */
-    public static void labelsToRois(ImagePlus labels) {
-        // MorphoLibJ "Label Map to ROIs"
-        String opts = "Connectivity=C8 Vertex Location=Corners Name Pattern=r%03d";
-        SilentRun.on(labels, "Label Map to ROIs", opts);
-    }
-
-    public static ImagePlus removeBorderLabels(ImagePlus labels) {
-        ImagePlus lab2d = ensure2DLabel(labels);
-        int[] before = ij.WindowManager.getIDList();
-        SilentRun.on(lab2d, "Remove Border Labels", "left right top bottom");
-        ImagePlus out = findNewImageSince(before);
-        if (out == null) out = IJ.getImage();
-        if (out == null) throw new IllegalStateException("Remove Border Labels produced no output.");
-
-        out.setCalibration(lab2d.getCalibration());
-        if (out != lab2d) lab2d.close();
-        if (out != labels) labels.close();
-        out.hide();
-        return out;
-    }
-
-    /** MorphoLibJ: Label Size Filtering (>= threshold in pixels; faithful to macro) */
-    public static ImagePlus labelMinSizeFilterPx(ImagePlus labels, int minPx) {
-        int[] before = ij.WindowManager.getIDList();
-        SilentRun.on(labels, "Label Size Filtering",
-                "operation=Greater_Than_Or_Equal size=" + Math.max(1, minPx));
-        ImagePlus out = findNewImageSince(before);
-        if (out == null) out = IJ.getImage();
-        if (out == null) throw new IllegalStateException("Label Size Filtering produced no output.");
-        out.hide();
-        out.setCalibration(labels.getCalibration());
-        if (out != labels) labels.close();
-        return out;
+    /** Label map -> ROIs (r%03d), in-process; see {@link Features.Tools.LabelOps#labelsToRois}. */
+    public static Roi[] labelsToRois(ImagePlus labels) {
+        return Features.Tools.LabelOps.labelsToRois(labels.getProcessor());
     }
 
     /** Heuristic tiling, same thresholds as the macro (after potential rescale) */
@@ -199,20 +170,6 @@ public final class PluginCalls {
         }
         return null;
     }
-    private static ImagePlus ensure2DLabel(ImagePlus src) {
-        ImagePlus lab2d;
-        if (src.getStackSize() > 1) {
-            lab2d = new ImagePlus("labels2d", src.getStack().getProcessor(1).duplicate());
-        } else {
-            lab2d = src.duplicate();
-        }
-        lab2d.setCalibration(src.getCalibration());
-        if (lab2d.getType() != ImagePlus.GRAY16) {
-            IJ.run(lab2d, "16-bit", ""); // MorphoLibJ label ops are happiest with 16-bit labels
-        }
-        return lab2d;
-    }
-
 
     public static final class GangliaPrep {
         public final ImagePlus dijInput3C;   // 3-channel, 32-bit hyperstack (C=3,Z=1,T=1), 0..1
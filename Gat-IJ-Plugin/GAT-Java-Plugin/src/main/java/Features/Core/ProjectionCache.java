@@ -0,0 +1,147 @@
+package Features.Core;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.io.FileInfo;
+import ij.io.FileSaver;
+import ij.io.Opener;
+import ij.measure.Calibration;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * On-disk cache of {@link StreamingProjector} results, so reruns on the same file (tuning
+ * thresholds, ganglia or marker settings) skip the Bio-Formats read and the projection.
+ * <p>
+ * Entries are ImageJ TIFFs (composite + calibration) named by a SHA-256 over the file fingerprint
+ * (canonical path, size, mtime, first {@value #HEAD_BYTES} bytes), the projection method and the
+ * Z range, so an edited or replaced file never hits a stale entry. A hit touches the entry's
+ * mtime; after each store the oldest entries are deleted until the folder fits the size limit (LRU).
+ * Cache failures are logged and fall back to projecting; they never fail a run.
+ */
+public final class ProjectionCache {
+    private ProjectionCache(){}
+
+    private static final int HEAD_BYTES = 1 << 20;
+    private static final String VERSION = "1";   // bump when the projection output changes
+    private static final String EXT = ".tif";
+
+    /** Projection of p.imagePath for p's method and Z range, from the cache when possible. */
+    public static ImagePlus open(Params p) {
+        StreamingProjector.Method method = StreamingProjector.methodFor(p);
+        if (!p.useProjectionCache)
+            return StreamingProjector.open(p.imagePath, method, p.projectionZStart, p.projectionZEnd);
+
+        File src = new File(p.imagePath);
+        File dir = cacheDir(p);
+        File entry = null;
+        try {
+            entry = new File(dir, key(src, method, p.projectionZStart, p.projectionZEnd) + EXT);
+            if (entry.isFile()) {
+                ImagePlus hit = new Opener().openImage(entry.getAbsolutePath());
+                if (hit != null) {
+                    entry.setLastModified(System.currentTimeMillis());
+                    return asSource(hit, src);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            IJ.log("Projection cache unavailable (" + e.getMessage() + "), projecting " + src.getName());
+        }
+
+        ImagePlus out = StreamingProjector.open(p.imagePath, method, p.projectionZStart, p.projectionZEnd);
+        if (entry == null) return out;
+        store(out, entry, p.projectionCacheMaxMb * 1024L * 1024L);
+        return asSource(out, src);   // FileSaver retitles the image after the cache file
+    }
+
+    static File cacheDir(Params p) {
+        return (p.projectionCacheDir != null && !p.projectionCacheDir.trim().isEmpty())
+                ? new File(p.projectionCacheDir.trim())
+                : new File(new File(System.getProperty("user.home"), ".gat"), "projection-cache");
+    }
+
+    static String key(File src, StreamingProjector.Method method, int zStart, int zEnd) throws IOException {
+        MessageDigest md = sha256();
+        String meta = VERSION + '\n' + src.getCanonicalPath() + '\n' + src.length() + '\n'
+                + src.lastModified() + '\n' + method + '\n' + Math.max(0, zStart) + '\n' + Math.max(0, zEnd) + '\n';
+        md.update(meta.getBytes(StandardCharsets.UTF_8));
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(src)) {
+            int left = HEAD_BYTES, n;
+            while (left > 0 && (n = in.read(buf, 0, Math.min(buf.length, left))) > 0) {
+                md.update(buf, 0, n);
+                left -= n;
+            }
+        }
+        StringBuilder sb = new StringBuilder(64);
+        for (byte b : md.digest()) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    // write to a temp file and rename, so parallel batch workers never read a half-written entry
+    private static void store(ImagePlus imp, File entry, long maxBytes) {
+        File dir = entry.getParentFile();
+        File tmp = null;
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs())
+                throw new IOException("cannot create " + dir.getAbsolutePath());
+            tmp = File.createTempFile("proj", ".part", dir);
+            if (!new FileSaver(imp).saveAsTiff(tmp.getAbsolutePath()))
+                throw new IOException("TIFF write failed");
+            Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            evict(dir, maxBytes, entry.getName());
+        } catch (IOException | RuntimeException e) {
+            IJ.log("Projection cache: could not store " + imp.getTitle() + " (" + e.getMessage() + ")");
+            if (tmp != null) tmp.delete();
+        }
+    }
+
+    /**
+     * Deletes least recently used .tif entries until the folder is within maxBytes; files whose
+     * name starts with keepPrefix (the entry just written) are never evicted.
+     */
+    static synchronized void evict(File dir, long maxBytes, String keepPrefix) {
+        File[] files = dir.listFiles((d, n) -> n.endsWith(EXT));
+        if (files == null) return;
+        long total = 0;
+        for (File f : files) total += f.length();
+        if (total <= maxBytes) return;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File f : files) {
+            if (total <= maxBytes) break;
+            if (f.getName().startsWith(keepPrefix)) continue;
+            long len = f.length();
+            if (f.delete()) total -= len;
+        }
+    }
+
+    // a cached entry must look like StreamingProjector's output for the source file
+    private static ImagePlus asSource(ImagePlus hit, File src) {
+        Calibration cal = hit.getCalibration();
+        hit.setTitle(src.getName());
+        FileInfo fi = new FileInfo();
+        fi.directory = src.getAbsoluteFile().getParent() + File.separator;
+        fi.fileName = src.getName();
+        hit.setFileInfo(fi);
+        hit.setCalibration(cal);
+        return hit;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package Features.Core;
+
+import Features.Tools.ImageOps;
+import Features.Tools.LabelOps;
+import Features.Tools.LabelStats;
+import Features.Tools.OutputIO;
+import Features.Tools.Parallel;
+import Features.Tools.ProgressUI;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.measure.Calibration;
+import ij.process.ShortProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Java port of Tools/_Test_neuron_rescaling.ijm: segments one image at several values of
+ * {@link Params#trainingRescaleFactor} and compares the results at MAX size.
+ * <p>
+ * A {@link Workspace} holds what every factor shares (the cached projection and a zero-copy view
+ * of the Hu channel), so only the resampling and StarDist run per factor. The rescaled inputs are
+ * built concurrently; StarDist runs one factor at a time since it already uses all cores.
+ * Labels get the pipeline's border + size filter, are mapped back to MAX size and saved per factor.
+ */
+public final class RescaleSweep {
+    private RescaleSweep(){}
+
+    /** Per-image state shared by all factors. */
+    public static final class Workspace {
+        public final ImagePlus max;
+        public final ImagePlus channel;   // view into max, never modified
+        public final String baseName;
+        final double pxUm;
+
+        public Workspace(Params p) {
+            if (p.imagePath == null || p.imagePath.isEmpty())
+                throw new IllegalArgumentException("The rescale sweep needs Params.imagePath.");
+            max = ProjectionCache.open(p);
+            Calibration cal = max.getCalibration();
+            if (p.requireMicronUnits && !PluginCalls.isMicronUnit(cal.getUnit()))
+                throw new IllegalStateException("Image must be calibrated in microns. Unit: " + cal.getUnit());
+            String t = max.getTitle();
+            baseName = (t.lastIndexOf('.') > 0) ? t.substring(0, t.lastIndexOf('.')) : t;
+            channel = ImageOps.extractChannel(max, p.huChannel);
+            pxUm = cal.pixelWidth;
+        }
+
+        /** Pipeline rule: pixelWidth / (trainingPixelSizeUm / rescaleFactor), snapped to 1 near 1. */
+        double scaleFactor(Params p, double rescaleFactor) {
+            double scale = (rescaleFactor > 0) ? rescaleFactor : 1.0;
+            double sf = p.rescaleToTrainingPx && (pxUm > 0) ? (pxUm / (p.trainingPixelSizeUm / scale)) : 1.0;
+            return (Math.abs(sf - 1.0) < 1e-3) ? 1.0 : sf;
+        }
+
+        ImagePlus segInput(double scaleFactor) {
+            if (scaleFactor == 1.0) return channel;
+            return ImageOps.resizeToIntensity(channel,
+                    (int) Math.round(channel.getWidth() * scaleFactor),
+                    (int) Math.round(channel.getHeight() * scaleFactor));
+        }
+    }
+
+    public static final class Row {
+        public final double rescaleFactor, targetPixelUm, scaleFactor;
+        public final int segWidth, segHeight, count;
+        public final double meanAreaUm2, medianAreaUm2, seconds;
+        public final File labels;
+
+        Row(double rescaleFactor, double targetPixelUm, double scaleFactor, int segWidth, int segHeight,
+            int count, double meanAreaUm2, double medianAreaUm2, double seconds, File labels) {
+            this.rescaleFactor = rescaleFactor;
+            this.targetPixelUm = targetPixelUm;
+            this.scaleFactor = scaleFactor;
+            this.segWidth = segWidth;
+            this.segHeight = segHeight;
+            this.count = count;
+            this.meanAreaUm2 = meanAreaUm2;
+            this.medianAreaUm2 = medianAreaUm2;
+            this.seconds = seconds;
+            this.labels = labels;
+        }
+    }
+
+    /**
+     * One row per factor (in the given order); writes &lt;name&gt;_rescale_sweep.csv and one label
+     * TIFF per factor to Analysis/&lt;name&gt;_rescale_sweep. progress may be null.
+     */
+    public static List<Row> run(Params p, double[] rescaleFactors, ProgressUI progress) {
+        if (rescaleFactors.length == 0) throw new IllegalArgumentException("No rescale factors given.");
+        if (p.stardistModelZip == null || !new File(p.stardistModelZip).isFile())
+            throw new IllegalArgumentException("StarDist model not found: " + p.stardistModelZip);
+        int n = rescaleFactors.length;
+        if (progress != null) {
+            progress.start(n + 2);
+            progress.step("Opening projection");
+        }
+        Workspace ws = new Workspace(p);
+        File outDir = OutputIO.prepareOutputDir(p.outputDir, ws.max, ws.baseName + "_rescale_sweep");
+
+        if (progress != null) progress.step("Rescaling " + n + " inputs");
+        double[] sf = new double[n];
+        ImagePlus[] inputs = new ImagePlus[n];
+        Parallel.forEach(n, i -> {
+            sf[i] = ws.scaleFactor(p, rescaleFactors[i]);
+            inputs[i] = ws.segInput(sf[i]);
+        });
+
+        List<Row> rows = new ArrayList<>();
+        Calibration maxCal = ws.max.getCalibration();
+        double maxPxArea = maxCal.pixelWidth * maxCal.pixelHeight;
+        for (int i = 0; i < n; i++) {
+            double f = rescaleFactors[i];
+            if (progress != null) progress.step(String.format(Locale.US, "Segmenting at rescale factor %.2f", f));
+            long t0 = System.nanoTime();
+            ImagePlus in = inputs[i];
+            ImagePlus lab = p.useStarDistCache
+                    ? StarDistCache.runStarDist2DLabel(in, p.stardistModelZip, p.probThresh, p.nmsThresh, p)
+                    : DirectCalls.runStarDist2DLabel(in, p.stardistModelZip, p.probThresh, p.nmsThresh);
+            int minPx = 0;
+            if (p.neuronSegLowerLimitUm != null && ws.pxUm > 0)
+                minPx = (int) Math.max(1, Math.round(p.neuronSegLowerLimitUm / in.getCalibration().pixelWidth));
+            lab = LabelOps.filterBorderAndSize(lab, true, minPx);
+            if (lab.getWidth() != ws.max.getWidth() || lab.getHeight() != ws.max.getHeight())
+                lab = ImageOps.resizeTo(lab, ws.max.getWidth(), ws.max.getHeight());
+            lab.setCalibration(maxCal);
+
+            double[] area = areaStats(LabelOps.asShortLabels(lab.getProcessor()), maxPxArea);
+            File tif = new File(outDir, String.format(Locale.US, "%s_labels_rescale_%.2f.tif", ws.baseName, f));
+            lab.setTitle(tif.getName());
+            OutputIO.saveTiff(lab, tif);
+            rows.add(new Row(f, p.trainingPixelSizeUm / (f > 0 ? f : 1.0), sf[i], in.getWidth(), in.getHeight(),
+                    (int) area[0], area[1], area[2], (System.nanoTime() - t0) / 1e9, tif));
+            IJ.log(String.format(Locale.US, "Rescale factor %.2f: %d objects, mean area %.1f um2",
+                    f, (int) area[0], area[1]));
+
+            lab.close();
+            if (in != ws.channel) in.close();
+            inputs[i] = null;
+        }
+
+        if (progress != null) progress.step("Writing comparison table");
+        File csv = new File(outDir, ws.baseName + "_rescale_sweep.csv");
+        writeCsv(csv, rows);
+        IJ.log("Rescale sweep: " + csv.getAbsolutePath());
+        if (progress != null) progress.writeMetrics(outDir);
+        return rows;
+    }
+
+    /** {count, mean, median} object area; counts IDs still present after mapping back to MAX size. */
+    private static double[] areaStats(ShortProcessor labels, double pxArea) {
+        LabelStats st = LabelStats.of(labels);
+        long[] a = new long[st.maxId];
+        int count = 0;
+        for (int id = 1; id <= st.maxId; id++) if (st.area[id] > 0) a[count++] = st.area[id];
+        if (count == 0) return new double[]{ 0, 0, 0 };
+        a = Arrays.copyOf(a, count);
+        Arrays.sort(a);
+        long sum = 0;
+        for (long v : a) sum += v;
+        double median = (count % 2 == 1) ? a[count / 2] : 0.5 * (a[count / 2 - 1] + a[count / 2]);
+        return new double[]{ count, sum * pxArea / count, median * pxArea };
+    }
+
+    private static void writeCsv(File csv, List<Row> rows) {
+        try (PrintWriter pw = new PrintWriter(csv, "UTF-8")) {
+            pw.println("rescale_factor,target_pixel_um,scale_factor,seg_width,seg_height,count,mean_area_um2,median_area_um2,seconds");
+            for (Row r : rows) {
+                pw.printf(Locale.US, "%.4f,%.4f,%.4f,%d,%d,%d,%.2f,%.2f,%.1f%n",
+                        r.rescaleFactor, r.targetPixelUm, r.scaleFactor, r.segWidth, r.segHeight,
+                        r.count, r.meanAreaUm2, r.medianAreaUm2, r.seconds);
+            }
+        } catch (IOException e) {
+            IJ.log("Failed writing rescale sweep table: " + e.getMessage());
+        }
+    }
+}
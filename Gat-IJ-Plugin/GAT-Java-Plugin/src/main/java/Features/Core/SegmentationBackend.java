@@ -0,0 +1,31 @@
+package Features.Core;
+
+import ij.ImagePlus;
+
+/**
+ * Cell segmenter used by the pipelines wherever they would call StarDist. Implementations are
+ * registered by name in {@link SegmentationBackends} and chosen with
+ * {@link Params#segmentationBackend}.
+ */
+public interface SegmentationBackend {
+
+    /**
+     * 16-bit label image (background 0) at the input's size and calibration. modelZip, prob and
+     * nms are the StarDist settings the caller would have used; backends without a model may
+     * ignore them. Must not register images with the WindowManager when p.headless is set.
+     */
+    ImagePlus segment(ImagePlus input, String modelZip, double prob, double nms, Params p);
+
+    /** False when modelZip is ignored, so the pipelines skip their model-file check. */
+    default boolean needsModel() {
+        return true;
+    }
+
+    /**
+     * The backend's own Params settings (beyond model, prob and nms) as a string, so stage
+     * checkpoints are invalidated when they change. Empty when there are none.
+     */
+    default String paramsKey(Params p) {
+        return "";
+    }
+}
@@ -0,0 +1,66 @@
+package Features.Core;
+
+import ij.ImagePlus;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Name -> {@link SegmentationBackend} registry. "StarDist" is always present and keeps the
+ * pipelines' original behaviour: {@link StarDistCache} when enabled, otherwise
+ * {@link DirectCalls} in headless runs and {@link PluginCalls} in interactive ones. "Classical"
+ * is the model-free {@link ClassicalSegmenter}.
+ */
+public final class SegmentationBackends {
+    private SegmentationBackends(){}
+
+    public static final String STARDIST = "StarDist";
+    public static final String CLASSICAL = "Classical";
+
+    private static final Map<String, SegmentationBackend> BACKENDS = new LinkedHashMap<>();
+
+    static {
+        register(STARDIST, (input, modelZip, prob, nms, p) -> {
+            if (p.useStarDistCache) return StarDistCache.runStarDist2DLabel(input, modelZip, prob, nms, p);
+            return p.headless
+                    ? DirectCalls.runStarDist2DLabel(input, modelZip, prob, nms)
+                    : PluginCalls.runStarDist2DLabel(input, modelZip, prob, nms);
+        });
+        register(CLASSICAL, new ClassicalSegmenter());
+    }
+
+    /** Adds or replaces a backend. */
+    public static synchronized void register(String name, SegmentationBackend backend) {
+        if (name == null || name.trim().isEmpty()) throw new IllegalArgumentException("Backend name is empty.");
+        if (backend == null) throw new IllegalArgumentException("Backend is null: " + name);
+        BACKENDS.put(name.trim(), backend);
+    }
+
+    public static synchronized List<String> names() {
+        return new ArrayList<>(BACKENDS.keySet());
+    }
+
+    /** Backend selected by p.segmentationBackend (null/empty = StarDist). */
+    public static synchronized SegmentationBackend forParams(Params p) {
+        String name = (p.segmentationBackend == null || p.segmentationBackend.trim().isEmpty())
+                ? STARDIST : p.segmentationBackend.trim();
+        SegmentationBackend b = BACKENDS.get(name);
+        if (b == null) throw new IllegalArgumentException("Unknown segmentation backend '" + name + "'. Available: " + BACKENDS.keySet());
+        return b;
+    }
+
+    /** Segments input with the backend selected in p. */
+    public static ImagePlus segment(ImagePlus input, String modelZip, double prob, double nms, Params p) {
+        return forParams(p).segment(input, modelZip, prob, nms, p);
+    }
+
+    /** Throws unless the selected backend ignores models or modelZip is an existing file. */
+    public static void requireModel(Params p, String modelZip, String what) {
+        if (!forParams(p).needsModel()) return;
+        if (modelZip == null || !new File(modelZip).isFile())
+            throw new IllegalArgumentException(what + " not found: " + modelZip);
+    }
+}
@@ -0,0 +1,173 @@
+package Features.Core;
+
+import ij.CompositeImage;
+import ij.ImagePlus;
+import ij.io.FileSaver;
+import ij.io.Opener;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.Supplier;
+
+/**
+ * Lazily evaluated DAG of pipeline stages with on-disk checkpoints, so a rerun after a crash
+ * resumes at the first stage that has to change.
+ * <p>
+ * A stage's key is a SHA-256 over its name, its parameter string and its dependencies' keys, so
+ * keys are known without computing anything. {@link Stage#get()} loads the checkpoint when the
+ * stored key matches, otherwise it pulls its dependencies, computes, saves the artifacts and only
+ * then writes the key (an interrupted save is never mistaken for a checkpoint). Stages nobody
+ * asks for are never loaded or computed: a restart that only lacks the last stage reads just
+ * the checkpoints that stage needs.
+ * <p>
+ * Layout: {@code <root>/<stage>/key.txt} plus whatever the stage's {@link Codec} writes there.
+ * Not thread-safe; one graph per image.
+ */
+public final class StageGraph {
+
+    /** Serialises a stage value into its checkpoint folder and back. */
+    public interface Codec<T> {
+        void save(T value, File dir) throws IOException;
+        T load(File dir) throws IOException;
+    }
+
+    /** Single image as image.tif (ImageJ TIFF keeps calibration, composite mode and LUTs). */
+    public static final Codec<ImagePlus> IMAGE = new Codec<ImagePlus>() {
+        @Override public void save(ImagePlus imp, File dir) throws IOException {
+            // save a twin sharing the pixels: FileSaver retitles whatever it writes
+            ImagePlus twin = new ImagePlus(imp.getTitle(), imp.getStack());
+            twin.setDimensions(imp.getNChannels(), imp.getNSlices(), imp.getNFrames());
+            if (imp.isComposite()) {
+                CompositeImage ci = new CompositeImage(twin, ((CompositeImage) imp).getMode());
+                ci.setLuts(((CompositeImage) imp).getLuts());
+                twin = ci;
+            }
+            twin.setCalibration(imp.getCalibration());
+            if (!new FileSaver(twin).saveAsTiff(new File(dir, "image.tif").getAbsolutePath()))
+                throw new IOException("could not write " + dir);
+        }
+        @Override public ImagePlus load(File dir) throws IOException {
+            ImagePlus imp = new Opener().openImage(new File(dir, "image.tif").getAbsolutePath());
+            if (imp == null) throw new IOException("could not read " + dir);
+            return imp;
+        }
+    };
+
+    /** Stages whose artifacts are side effects elsewhere (CSVs, overlays); only the key is kept. */
+    public static final Codec<Boolean> DONE = new Codec<Boolean>() {
+        @Override public void save(Boolean value, File dir) {}
+        @Override public Boolean load(File dir) { return Boolean.TRUE; }
+    };
+
+    private final File root;
+    private int resumed, computed;
+
+    public StageGraph(File root) {
+        this.root = root;
+    }
+
+    public int resumedCount()  { return resumed; }
+    public int computedCount() { return computed; }
+
+    /**
+     * Declares a stage. {@code compute} may call {@code get()} on the listed dependencies; a null
+     * result is returned but not checkpointed (e.g. a soft failure that should be retried).
+     */
+    public <T> Stage<T> stage(String name, String params, Codec<T> codec, Supplier<T> compute, Stage<?>... deps) {
+        return new Stage<>(name, params, codec, compute, deps);
+    }
+
+    public final class Stage<T> {
+        private final String name, params;
+        private final Codec<T> codec;
+        private final Supplier<T> compute;
+        private final Stage<?>[] deps;
+        private String key;
+        private T value;
+        private boolean done;
+
+        private Stage(String name, String params, Codec<T> codec, Supplier<T> compute, Stage<?>[] deps) {
+            this.name = name;
+            this.params = params;
+            this.codec = codec;
+            this.compute = compute;
+            this.deps = deps;
+        }
+
+        public String key() {
+            if (key == null) {
+                StringBuilder sb = new StringBuilder(name).append('\n').append(params).append('\n');
+                for (Stage<?> d : deps) sb.append(d.name).append('=').append(d.key()).append('\n');
+                key = sha256(sb.toString());
+            }
+            return key;
+        }
+
+        /** True when a checkpoint for the current key is on disk. */
+        public boolean isCheckpointed() {
+            File k = new File(new File(root, name), "key.txt");
+            try {
+                return k.isFile() && new String(Files.readAllBytes(k.toPath()), StandardCharsets.UTF_8).trim().equals(key());
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        public T get() {
+            if (done) return value;
+            File dir = new File(root, name);
+            if (isCheckpointed()) {
+                try {
+                    value = codec.load(dir);
+                    done = true;
+                    resumed++;
+                    return value;
+                } catch (IOException | RuntimeException e) {
+                    ij.IJ.log("Checkpoint " + name + " unreadable (" + e.getMessage() + "), recomputing");
+                }
+            }
+            value = compute.get();
+            done = true;
+            computed++;
+            if (value != null) commit(dir);
+            return value;
+        }
+
+        private void commit(File dir) {
+            File k = new File(dir, "key.txt");
+            try {
+                if (k.exists() && !k.delete()) throw new IOException("cannot replace " + k);
+                if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("cannot create " + dir);
+                codec.save(value, dir);
+                File tmp = new File(dir, "key.txt.part");
+                Files.write(tmp.toPath(), key().getBytes(StandardCharsets.UTF_8));
+                Files.move(tmp.toPath(), k.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException | RuntimeException e) {
+                ij.IJ.log("Could not checkpoint stage " + name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /** Stable fingerprint of an input file (path, size, mtime) for stage parameter strings. */
+    public static String fingerprint(String path) {
+        if (path == null || path.isEmpty()) return "none";
+        File f = new File(path);
+        return f.getAbsolutePath() + '|' + f.length() + '|' + f.lastModified();
+    }
+
+    private static String sha256(String s) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            StringBuilder sb = new StringBuilder(64);
+            for (byte b : md.digest(s.getBytes(StandardCharsets.UTF_8))) sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
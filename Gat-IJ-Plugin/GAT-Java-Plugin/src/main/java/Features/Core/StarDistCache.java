@@ -0,0 +1,237 @@
+package Features.Core;
+
+import Features.Tools.ImageOps;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.WindowManager;
+import ij.io.FileSaver;
+import ij.io.Opener;
+import ij.process.ImageProcessor;
+import net.imagej.Dataset;
+import org.scijava.command.CommandModule;
+import org.scijava.convert.ConvertService;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps StarDist's network output (probability and distance maps) on disk, so changing only
+ * probThresh / nmsThresh re-runs the NMS step instead of the network.
+ * <p>
+ * Entries are keyed by a SHA-256 over the segmentation input's pixels, size and pixel width
+ * (which covers the rescale factor), the model file (path, size, mtime) and the normalisation
+ * settings (percentiles, excludeBoundary). A miss runs StarDist2D once with showProbAndDist and
+ * stores the two maps; a hit runs StarDist's own NMS command (StarDist2DNMS) on the stored maps
+ * with the new thresholds.
+ * <p>
+ * StarDist only publishes prob/dist as displayed images, so inference needs the ImageJ1 image
+ * list and is serialised; if the maps cannot be found the label image is returned uncached.
+ * Headless runs (p.headless) never register images: they use stored maps when present and
+ * otherwise run the plain label path without storing anything.
+ * Storage shares {@link ProjectionCache}'s LRU eviction.
+ */
+public final class StarDistCache {
+    private StarDistCache(){}
+
+    private static final String STARDIST_2D = "de.csbdresden.stardist.StarDist2D";
+    private static final String STARDIST_NMS = "de.csbdresden.stardist.StarDist2DNMS";
+    private static final String VERSION = "2";   // bump when the key or the stored map format changes
+
+    private static final Object INFER_LOCK = new Object();
+
+    /** Network output for one input; label is set only when this call ran inference (at the given thresholds). */
+    static final class Maps {
+        final ImagePlus prob, dist, label;
+
+        Maps(ImagePlus prob, ImagePlus dist, ImagePlus label) {
+            this.prob = prob;
+            this.dist = dist;
+            this.label = label;
+        }
+    }
+
+    /** Same contract as {@link DirectCalls#runStarDist2DLabel}, served from the cache when possible. */
+    public static ImagePlus runStarDist2DLabel(ImagePlus input, String modelZip, double prob, double nms, Params p) {
+        Maps m = maps(input, modelZip, prob, nms, p);
+        if (m.label != null) return m.label;
+        return nms(input, m.prob, m.dist, prob, nms);
+    }
+
+    /**
+     * Cached prob/dist maps for input, running the network (with prob/nms) on a miss. If StarDist
+     * did not publish the maps, prob and dist are null and only label is set.
+     */
+    static Maps maps(ImagePlus input, String modelZip, double prob, double nms, Params p) {
+        if (modelZip == null || !new File(modelZip).isFile())
+            throw new IllegalArgumentException("StarDist ZIP not found: " + modelZip);
+
+        File dir = cacheDir(p);
+        String key;
+        try {
+            key = key(input, new File(modelZip));
+        } catch (IOException e) {
+            IJ.log("StarDist cache unavailable (" + e.getMessage() + "), running the full model");
+            return new Maps(null, null, DirectCalls.runStarDist2DLabel(input, modelZip, prob, nms));
+        }
+        File probF = new File(dir, key + "_prob.tif"), distF = new File(dir, key + "_dist.tif");
+
+        if (probF.isFile() && distF.isFile()) {
+            ImagePlus pm = new Opener().openImage(probF.getAbsolutePath());
+            ImagePlus dm = new Opener().openImage(distF.getAbsolutePath());
+            if (pm != null && dm != null) {
+                long now = System.currentTimeMillis();
+                probF.setLastModified(now);
+                distF.setLastModified(now);
+                return new Maps(pm, dm, null);
+            }
+        }
+        if (p.headless) {
+            // the maps only appear as registered images, which a headless run must not create
+            return new Maps(null, null, DirectCalls.runStarDist2DLabel(input, modelZip, prob, nms));
+        }
+        return inferAndStore(input, modelZip, prob, nms, key, probF, distF, p.stardistCacheMaxMb * 1024L * 1024L);
+    }
+
+    static File cacheDir(Params p) {
+        return (p.stardistCacheDir != null && !p.stardistCacheDir.trim().isEmpty())
+                ? new File(p.stardistCacheDir.trim())
+                : new File(new File(System.getProperty("user.home"), ".gat"), "stardist-cache");
+    }
+
+    static String key(ImagePlus input, File model) throws IOException {
+        MessageDigest md = sha256();
+        ImageProcessor ip = input.getProcessor();
+        String meta = VERSION + '\n' + model.getCanonicalPath() + '\n' + model.length() + '\n' + model.lastModified()
+                + '\n' + ip.getWidth() + 'x' + ip.getHeight() + '\n' + ip.getBitDepth()
+                + '\n' + input.getCalibration().pixelWidth
+                + '\n' + DirectCalls.PERCENTILE_BOTTOM + '-' + DirectCalls.PERCENTILE_TOP
+                + '|' + DirectCalls.EXCLUDE_BOUNDARY_PX + '\n';
+        md.update(meta.getBytes(StandardCharsets.UTF_8));
+        md.update(pixelBytes(ip));
+        StringBuilder sb = new StringBuilder(64);
+        for (byte b : md.digest()) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    /**
+     * StarDist2DNMS on stored maps -> label image at the input's size and calibration. Thread-safe
+     * and CPU-only, so it runs without a {@link DirectCalls#STARDIST_PERMITS} permit.
+     */
+    static ImagePlus nms(ImagePlus input, ImagePlus prob, ImagePlus dist, double probThresh, double nmsThresh) {
+        ConvertService convert = DirectCalls.context().getService(ConvertService.class);
+        Map<String, Object> args = new HashMap<>();
+        args.put("prob", convert.convert(prob, Dataset.class));
+        args.put("dist", convert.convert(dist, Dataset.class));
+        args.put("probThresh", probThresh);
+        args.put("nmsThresh", nmsThresh);
+        args.put("outputType", "Label Image");
+        args.put("excludeBoundary", DirectCalls.EXCLUDE_BOUNDARY_PX);
+        args.put("roiPosition", "Automatic");
+        args.put("verbose", false);
+        ImagePlus lab = DirectCalls.labelOutput(DirectCalls.runCommand(STARDIST_NMS, args), input);
+        // grid models predict at a reduced resolution
+        if (lab.getWidth() != input.getWidth() || lab.getHeight() != input.getHeight()) {
+            lab = ImageOps.resizeTo(lab, input.getWidth(), input.getHeight());
+            lab.setCalibration(input.getCalibration());
+        }
+        return lab;
+    }
+
+    private static Maps inferAndStore(ImagePlus input, String modelZip, double prob, double nms,
+                                           String key, File probF, File distF, long maxBytes) {
+        ImagePlus label, pm = null, dm = null;
+        synchronized (INFER_LOCK) {
+            Set<Integer> before = ids();
+            CommandModule module = DirectCalls.runInference(STARDIST_2D,
+                    DirectCalls.starDistArgs(input, modelZip, prob, nms, true));
+            label = DirectCalls.labelOutput(module, input);
+            for (int id : ids()) {
+                if (before.contains(id)) continue;
+                ImagePlus imp = WindowManager.getImage(id);
+                if (imp == null) continue;
+                String t = imp.getTitle().toLowerCase(java.util.Locale.ROOT);
+                if (t.contains("prob") || t.contains("score")) pm = imp;
+                else if (t.contains("dist")) dm = imp;
+            }
+        }
+        if (pm == null || dm == null) {
+            IJ.log("StarDist cache: probability/distance maps not found; result not cached.");
+            return new Maps(null, null, label);
+        }
+        ImagePlus pKeep = pm.duplicate(), dKeep = dm.duplicate();   // the displayed ones are closed below
+        try {
+            File dir = probF.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs())
+                throw new IOException("cannot create " + dir.getAbsolutePath());
+            save(pm, probF);
+            save(dm, distF);
+            ProjectionCache.evict(dir, maxBytes, key);
+        } catch (IOException | RuntimeException e) {
+            IJ.log("StarDist cache: could not store maps (" + e.getMessage() + ")");
+            probF.delete();
+            distF.delete();
+        } finally {
+            pm.changes = false; pm.close();
+            dm.changes = false; dm.close();
+        }
+        return new Maps(pKeep, dKeep, label);
+    }
+
+    // temp file + rename, so a concurrent reader never opens a half-written map
+    private static void save(ImagePlus imp, File target) throws IOException {
+        File tmp = File.createTempFile("sd", ".part", target.getParentFile());
+        ImagePlus copy = new ImagePlus(imp.getTitle(), imp.getStack());   // FileSaver retitles what it saves
+        copy.setDimensions(imp.getNChannels(), imp.getNSlices(), imp.getNFrames());
+        if (!new FileSaver(copy).saveAsTiff(tmp.getAbsolutePath())) {
+            tmp.delete();
+            throw new IOException("TIFF write failed");
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static Set<Integer> ids() {
+        Set<Integer> s = new HashSet<>();
+        int[] ids = WindowManager.getIDList();
+        if (ids != null) for (int id : ids) s.add(id);
+        return s;
+    }
+
+    private static byte[] pixelBytes(ImageProcessor ip) {
+        Object px = ip.getPixels();
+        if (px instanceof byte[]) return (byte[]) px;
+        if (px instanceof short[]) {
+            short[] a = (short[]) px;
+            ByteBuffer b = ByteBuffer.allocate(a.length * 2);
+            b.asShortBuffer().put(a);
+            return b.array();
+        }
+        if (px instanceof float[]) {
+            float[] a = (float[]) px;
+            ByteBuffer b = ByteBuffer.allocate(a.length * 4);
+            b.asFloatBuffer().put(a);
+            return b.array();
+        }
+        int[] a = (int[]) px;
+        ByteBuffer b = ByteBuffer.allocate(a.length * 4);
+        b.asIntBuffer().put(a);
+        return b.array();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package Features.Core;
+
+import Features.Tools.Parallel;
+import ij.CompositeImage;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.io.FileInfo;
+import ij.measure.Calibration;
+import ij.plugin.filter.GaussianBlur;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import loci.formats.ChannelSeparator;
+import loci.formats.MetadataTools;
+import loci.formats.meta.IMetadata;
+import loci.plugins.util.ImageProcessorReader;
+import loci.plugins.util.LociPrefs;
+import ome.units.UNITS;
+import ome.units.quantity.Length;
+
+import java.io.File;
+
+/**
+ * Opens a Z-stack as its projection without ever holding the stack: planes are pulled one at a
+ * time through the Bio-Formats reader API (first series, first timepoint) and folded into
+ * per-channel accumulators. Peak memory is the projection (plus, for EDF, one float score map
+ * per channel) and a single plane.
+ * <p>
+ * The result looks like an imported image reduced to Z=1: a composite with the file name as
+ * title, micron calibration from the OME metadata and FileInfo pointing at the source folder.
+ */
+public final class StreamingProjector {
+    private StreamingProjector(){}
+
+    public enum Method {
+        /** Maximum intensity, same pixel type as the source. */
+        MAX,
+        /** Per pixel, the plane with the highest smoothed local variance (same settings as the CLIJ2 EDF path). */
+        EDF_VARIANCE
+    }
+
+    // CLIJ2 "Extended Depth Of Focus (variance)" settings used by the pipelines
+    private static final int EDF_RADIUS = 2;
+    private static final double EDF_SIGMA = 10.0;
+
+    /** Projection method the pipelines use for these params. */
+    public static Method methodFor(Params p) {
+        return p.useClij2EDF ? Method.EDF_VARIANCE : Method.MAX;
+    }
+
+    public static ImagePlus open(String path, Method method) {
+        return open(path, method, 0, 0);
+    }
+
+    /** Projects Z planes zStart..zEnd (1-based, inclusive, clamped); values <= 0 mean first/last plane. */
+    public static ImagePlus open(String path, Method method, int zStart, int zEnd) {
+        try (ImageProcessorReader r = new ImageProcessorReader(new ChannelSeparator(LociPrefs.makeImageReader()))) {
+            IMetadata meta = MetadataTools.createOMEXMLMetadata();
+            r.setMetadataStore(meta);
+            r.setId(path);
+
+            int nC = r.getSizeC(), nZ = r.getSizeZ();
+            int z0 = (zStart > 0) ? Math.min(zStart, nZ) - 1 : 0;
+            int z1 = (zEnd > 0) ? Math.min(zEnd, nZ) : nZ;
+            if (z1 <= z0) throw new IllegalArgumentException("Empty Z range " + zStart + ".." + zEnd + " (Z=" + nZ + ")");
+            ImageProcessor[] acc = new ImageProcessor[nC];
+            float[][] best = (method == Method.EDF_VARIANCE && z1 - z0 > 1) ? new float[nC][] : null;
+
+            for (int z = z0; z < z1; z++) {
+                for (int c = 0; c < nC; c++) {
+                    ImageProcessor plane = r.openProcessors(r.getIndex(z, c, 0))[0];
+                    if (acc[c] == null) {
+                        acc[c] = plane;
+                        if (best != null) best[c] = focusMeasure(plane);
+                    } else if (best == null) {
+                        foldMax(acc[c], plane);
+                    } else {
+                        foldFocus(acc[c], best[c], plane, focusMeasure(plane));
+                    }
+                }
+            }
+
+            File f = new File(path);
+            ImageStack stack = new ImageStack(r.getSizeX(), r.getSizeY());
+            for (int c = 0; c < nC; c++) stack.addSlice("c" + (c + 1), acc[c]);
+            ImagePlus out = new ImagePlus(f.getName(), stack);
+            out.setDimensions(nC, 1, 1);
+            if (nC > 1) out = new CompositeImage(out, CompositeImage.COMPOSITE);
+            out.setCalibration(calibration(meta));
+
+            // keep OutputIO.prepareOutputDir working (it resolves the parent from the file info)
+            FileInfo fi = new FileInfo();
+            fi.directory = f.getAbsoluteFile().getParent() + File.separator;
+            fi.fileName = f.getName();
+            out.setFileInfo(fi);
+            return out;
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Bio-Formats could not stream " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void foldMax(ImageProcessor acc, ImageProcessor plane) {
+        int n = acc.getPixelCount();
+        Parallel.forStripes(acc.getHeight(), (s, ya, yb) -> {
+            int w = acc.getWidth();
+            for (int i = ya * w, end = Math.min(n, yb * w); i < end; i++) {
+                float v = plane.getf(i);
+                if (v > acc.getf(i)) acc.setf(i, v);
+            }
+        });
+    }
+
+    private static void foldFocus(ImageProcessor acc, float[] best, ImageProcessor plane, float[] score) {
+        int w = acc.getWidth();
+        Parallel.forStripes(acc.getHeight(), (s, ya, yb) -> {
+            for (int i = ya * w, end = yb * w; i < end; i++) {
+                if (score[i] > best[i]) { best[i] = score[i]; acc.setf(i, plane.getf(i)); }
+            }
+        });
+    }
+
+    /** Local variance in a (2r+1)^2 box, then Gaussian-smoothed, as float. */
+    private static float[] focusMeasure(ImageProcessor plane) {
+        int w = plane.getWidth(), h = plane.getHeight(), r = EDF_RADIUS;
+        float[] px = (float[]) plane.convertToFloatProcessor().getPixels();
+        float[] sum = new float[w * h], sum2 = new float[w * h];
+        // horizontal box sums
+        Parallel.forStripes(h, (s, ya, yb) -> {
+            for (int y = ya; y < yb; y++) {
+                int row = y * w;
+                for (int x = 0; x < w; x++) {
+                    float a = 0, b = 0;
+                    for (int k = Math.max(0, x - r), e = Math.min(w - 1, x + r); k <= e; k++) {
+                        float v = px[row + k];
+                        a += v; b += v * v;
+                    }
+                    sum[row + x] = a; sum2[row + x] = b;
+                }
+            }
+        });
+        float[] var = new float[w * h];
+        Parallel.forStripes(h, (s, ya, yb) -> {
+            for (int y = ya; y < yb; y++) {
+                int y0 = Math.max(0, y - r), y1 = Math.min(h - 1, y + r);
+                for (int x = 0; x < w; x++) {
+                    float a = 0, b = 0;
+                    for (int k = y0; k <= y1; k++) { a += sum[k * w + x]; b += sum2[k * w + x]; }
+                    int n = (y1 - y0 + 1) * (Math.min(w - 1, x + r) - Math.max(0, x - r) + 1);
+                    float m = a / n;
+                    var[y * w + x] = Math.max(0f, b / n - m * m);
+                }
+            }
+        });
+        FloatProcessor fp = new FloatProcessor(w, h, var);
+        new GaussianBlur().blurGaussian(fp, EDF_SIGMA, EDF_SIGMA, 0.01);
+        return var;
+    }
+
+    private static Calibration calibration(IMetadata meta) {
+        Calibration cal = new Calibration();
+        double x = um(meta.getPixelsPhysicalSizeX(0)), y = um(meta.getPixelsPhysicalSizeY(0));
+        if (x > 0) {
+            cal.pixelWidth = x;
+            cal.pixelHeight = (y > 0) ? y : x;
+            double z = um(meta.getPixelsPhysicalSizeZ(0));
+            if (z > 0) cal.pixelDepth = z;
+            cal.setUnit("micron");
+        }
+        return cal;
+    }
+
+    private static double um(Length l) {
+        try {
+            Number v = (l != null) ? l.value(UNITS.MICROMETER) : null;
+            return (v != null) ? v.doubleValue() : 0.0;
+        } catch (RuntimeException e) {
+            return 0.0;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package Features.Core;
+
+import Features.Tools.ImageOps;
+import Features.Tools.LabelOps;
+import Features.Tools.LabelStats;
+import Features.Tools.OutputIO;
+import Features.Tools.Parallel;
+import Features.Tools.ProgressUI;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.io.FileSaver;
+import ij.measure.Calibration;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Java port of Tools/_Test_neuron_probability.ijm: segments one image over a grid of
+ * probability x NMS thresholds and reports what each setting would produce.
+ * <p>
+ * The network runs once (prob/dist maps via {@link StarDistCache}, so a second sweep on the same
+ * image skips it too); every grid point then only runs StarDist's NMS step, in parallel (NMS takes
+ * no {@link DirectCalls#STARDIST_PERMITS} permit, so points run on all {@link Parallel} threads). Each
+ * point gets the pipeline's border + size filter, a count, an area distribution in µm² and an
+ * outline thumbnail. Output is one CSV row per point and a montage (columns = prob, rows = NMS).
+ */
+public final class ThresholdSweep {
+    private ThresholdSweep(){}
+
+    private static final int THUMB_MAX = 256;   // longest thumbnail side, px
+    private static final int GAP = 2;
+
+    public static final class Point {
+        public final double prob, nms;
+        public final int count;
+        public final double meanAreaUm2, medianAreaUm2, p10AreaUm2, p90AreaUm2, minAreaUm2, maxAreaUm2;
+        final ColorProcessor thumb;
+
+        Point(double prob, double nms, int count, double[] areas, ColorProcessor thumb) {
+            this.prob = prob;
+            this.nms = nms;
+            this.count = count;
+            this.meanAreaUm2 = areas[0];
+            this.medianAreaUm2 = areas[1];
+            this.p10AreaUm2 = areas[2];
+            this.p90AreaUm2 = areas[3];
+            this.minAreaUm2 = areas[4];
+            this.maxAreaUm2 = areas[5];
+            this.thumb = thumb;
+        }
+    }
+
+    public static final class Result {
+        public final List<Point> points;   // prob-major, in grid order
+        public final File csv, montage;
+
+        Result(List<Point> points, File csv, File montage) {
+            this.points = points;
+            this.csv = csv;
+            this.montage = montage;
+        }
+    }
+
+    /** from, from+step, ... up to and including to (the macro's loop, without float drift). */
+    public static double[] range(double from, double to, double step) {
+        if (to < from) throw new IllegalArgumentException("Max should be greater than min: " + from + " > " + to);
+        if (step <= 0 || from == to) return new double[]{ from };
+        int n = (int) Math.floor((to - from) / step + 1e-6) + 1;
+        double[] v = new double[n];
+        for (int i = 0; i < n; i++) v[i] = Math.round((from + i * step) * 1e6) / 1e6;
+        return v;
+    }
+
+    /**
+     * Sweep on p.imagePath: same projection, channel (p.huChannel), rescale and size filter as the
+     * Hu pipeline. Results go to Analysis/&lt;name&gt;_prob_sweep next to the image (or p.outputDir).
+     */
+    public static Result run(Params p, double[] probs, double[] nmsValues, ProgressUI progress) {
+        if (p.imagePath == null || p.imagePath.isEmpty())
+            throw new IllegalArgumentException("The threshold sweep needs Params.imagePath.");
+        ImagePlus max = ProjectionCache.open(p);
+        Calibration cal = max.getCalibration();
+        if (p.requireMicronUnits && !PluginCalls.isMicronUnit(cal.getUnit()))
+            throw new IllegalStateException("Image must be calibrated in microns. Unit: " + cal.getUnit());
+        String baseName = stripExt(max.getTitle());
+        File outDir = OutputIO.prepareOutputDir(p.outputDir, max, baseName + "_prob_sweep");
+
+        ImagePlus ch = ImageOps.extractChannel(max, p.huChannel);
+        double pxUm = cal.pixelWidth;
+        double scale = (p.trainingRescaleFactor > 0) ? p.trainingRescaleFactor : 1.0;
+        double scaleFactor = p.rescaleToTrainingPx && (pxUm > 0) ? (pxUm / (p.trainingPixelSizeUm / scale)) : 1.0;
+        if (Math.abs(scaleFactor - 1.0) < 1e-3) scaleFactor = 1.0;
+        ImagePlus segInput = (scaleFactor == 1.0) ? ch
+                : ImageOps.resizeToIntensity(ch,
+                (int) Math.round(ch.getWidth() * scaleFactor),
+                (int) Math.round(ch.getHeight() * scaleFactor));
+        int minPx = 0;
+        if (p.neuronSegLowerLimitUm != null && pxUm > 0)
+            minPx = (int) Math.max(1, Math.round(p.neuronSegLowerLimitUm / segInput.getCalibration().pixelWidth));
+
+        return run(segInput, p.stardistModelZip, probs, nmsValues, minPx, p, outDir, baseName, progress);
+    }
+
+    /** Sweep on a prepared segmentation input (already at the model's pixel size). progress may be null. */
+    public static Result run(ImagePlus segInput, String modelZip, double[] probs, double[] nmsValues,
+                             int minPx, Params p, File outDir, String baseName, ProgressUI progress) {
+        if (probs.length == 0 || nmsValues.length == 0)
+            throw new IllegalArgumentException("Empty threshold grid.");
+        int n = probs.length * nmsValues.length;
+        if (progress != null) {
+            progress.start(n + 2);
+            progress.step("Running StarDist once");
+        }
+        StarDistCache.Maps maps = StarDistCache.maps(segInput, modelZip, probs[0], nmsValues[0], p);
+        if (maps.label != null) maps.label.close();
+
+        ByteProcessor backdrop = backdrop(segInput);
+        double pxArea = segInput.getCalibration().pixelWidth * segInput.getCalibration().pixelHeight;
+        Point[] points = new Point[n];
+        AtomicInteger done = new AtomicInteger();
+        IntConsumer evaluate = i -> {
+            double pr = probs[i / nmsValues.length], nm = nmsValues[i % nmsValues.length];
+            ImagePlus lab = (maps.prob != null)
+                    ? StarDistCache.nms(segInput, maps.prob, maps.dist, pr, nm)
+                    : DirectCalls.runStarDist2DLabel(segInput, modelZip, pr, nm);
+            points[i] = evaluate(lab.getProcessor(), pr, nm, minPx, pxArea, backdrop);
+            lab.close();
+            if (progress != null)
+                progress.set(1 + done.incrementAndGet(), "Evaluated " + done.get() + "/" + n + " settings");
+        };
+        if (maps.prob != null) {
+            Parallel.forEach(n, evaluate);
+        } else {
+            // no maps to share: every point is a full network run, which is multithreaded already
+            IJ.log("Threshold sweep: running the full model for each of " + n + " settings.");
+            for (int i = 0; i < n; i++) evaluate.accept(i);
+        }
+
+        if (progress != null) progress.step("Writing sweep table and montage");
+        List<Point> list = Arrays.asList(points);
+        File csv = new File(outDir, baseName + "_probability_sweep.csv");
+        writeCsv(csv, list);
+        File png = new File(outDir, baseName + "_probability_sweep.png");
+        ImagePlus montage = new ImagePlus(baseName + "_probability_sweep", montage(points, probs.length, nmsValues.length));
+        if (!new FileSaver(montage).saveAsPng(png.getAbsolutePath()))
+            IJ.log("Threshold sweep: could not write " + png.getAbsolutePath());
+        IJ.log("Threshold sweep (" + n + " settings): " + csv.getAbsolutePath());
+        if (progress != null) progress.writeMetrics(outDir);
+        return new Result(new ArrayList<>(list), csv, png);
+    }
+
+    private static Point evaluate(ImageProcessor labels, double prob, double nms, int minPx,
+                                  double pxArea, ByteProcessor backdrop) {
+        ShortProcessor sp = LabelOps.filterBorderAndSize(labels, true, minPx);   // survivors are 1..count
+        LabelStats st = LabelStats.of(sp);
+        int count = st.maxId;
+
+        double[] stats = new double[6];
+        if (count > 0) {
+            long[] a = Arrays.copyOfRange(st.area, 1, count + 1);
+            Arrays.sort(a);
+            long sum = 0;
+            for (long v : a) sum += v;
+            stats[0] = sum * pxArea / count;
+            stats[1] = quantile(a, 0.5) * pxArea;
+            stats[2] = quantile(a, 0.1) * pxArea;
+            stats[3] = quantile(a, 0.9) * pxArea;
+            stats[4] = a[0] * pxArea;
+            stats[5] = a[count - 1] * pxArea;
+        }
+        return new Point(prob, nms, count, stats, thumbnail(sp, backdrop, prob, nms, count));
+    }
+
+    private static double quantile(long[] sorted, double q) {
+        double pos = q * (sorted.length - 1);
+        int i = (int) Math.floor(pos);
+        if (i + 1 >= sorted.length) return sorted[sorted.length - 1];
+        return sorted[i] + (pos - i) * (sorted[i + 1] - sorted[i]);
+    }
+
+    // ---------- thumbnails / montage ----------
+
+    /** Input scaled to thumbnail size, 8-bit with auto contrast; shared by all points. */
+    private static ByteProcessor backdrop(ImagePlus segInput) {
+        int[] sz = thumbSize(segInput.getWidth(), segInput.getHeight());
+        ImageProcessor ip = segInput.getProcessor().duplicate();
+        ip.resetMinAndMax();
+        ImageProcessor small = ImageOps.resampleArea(ip.convertToByte(true), sz[0], sz[1]);
+        return (ByteProcessor) small.convertToByte(false);
+    }
+
+    private static int[] thumbSize(int w, int h) {
+        double s = Math.min(1.0, THUMB_MAX / (double) Math.max(w, h));
+        return new int[]{ Math.max(1, (int) Math.round(w * s)), Math.max(1, (int) Math.round(h * s)) };
+    }
+
+    /** Grey backdrop with object outlines (label changes between neighbours) and a caption. */
+    private static ColorProcessor thumbnail(ShortProcessor labels, ByteProcessor backdrop, double prob, double nms, int count) {
+        int tw = backdrop.getWidth(), th = backdrop.getHeight();
+        short[] lab = (short[]) ImageOps.resampleNearest(labels, tw, th).getPixels();
+        byte[] g = (byte[]) backdrop.getPixels();
+        int[] rgb = new int[tw * th];
+        for (int y = 0; y < th; y++) {
+            for (int x = 0; x < tw; x++) {
+                int i = y * tw + x, v = lab[i];
+                boolean edge = v != 0 && ((x + 1 < tw && lab[i + 1] != v) || (y + 1 < th && lab[i + tw] != v)
+                        || (x > 0 && lab[i - 1] != v) || (y > 0 && lab[i - tw] != v));
+                int gv = g[i] & 0xFF;
+                rgb[i] = edge ? 0xFFFF00 : (gv << 16) | (gv << 8) | gv;
+            }
+        }
+        ColorProcessor cp = new ColorProcessor(tw, th, rgb);
+        cp.setFont(new Font("SansSerif", Font.PLAIN, 11));
+        cp.setColor(Color.white);
+        cp.drawString(String.format(Locale.US, "p=%.2f nms=%.2f n=%d", prob, nms, count), 3, 14, Color.black);
+        return cp;
+    }
+
+    private static ColorProcessor montage(Point[] points, int nProb, int nNms) {
+        int tw = points[0].thumb.getWidth(), th = points[0].thumb.getHeight();
+        ColorProcessor m = new ColorProcessor(nProb * (tw + GAP) - GAP, nNms * (th + GAP) - GAP);
+        for (int i = 0; i < points.length; i++) {
+            int col = i / nNms, row = i % nNms;
+            m.insert(points[i].thumb, col * (tw + GAP), row * (th + GAP));
+        }
+        return m;
+    }
+
+    private static void writeCsv(File csv, List<Point> points) {
+        try (PrintWriter pw = new PrintWriter(csv, "UTF-8")) {
+            pw.println("prob_thresh,nms_thresh,count,mean_area_um2,median_area_um2,p10_area_um2,p90_area_um2,min_area_um2,max_area_um2");
+            for (Point pt : points) {
+                pw.printf(Locale.US, "%.4f,%.4f,%d,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f%n",
+                        pt.prob, pt.nms, pt.count, pt.meanAreaUm2, pt.medianAreaUm2,
+                        pt.p10AreaUm2, pt.p90AreaUm2, pt.minAreaUm2, pt.maxAreaUm2);
+            }
+        } catch (IOException e) {
+            IJ.log("Failed writing sweep table: " + e.getMessage());
+        }
+    }
+
+    private static String stripExt(String name) {
+        int dot = name.lastIndexOf('.');
+        return (dot > 0) ? name.substring(0, dot) : name;
+    }
+}
@@ -0,0 +1,299 @@
+package Features.Core;
+
+import Features.Tools.ImageOps;
+import Features.Tools.ProgressUI;
+import Features.Tools.ShortTiffStream;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.measure.Calibration;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import loci.formats.ChannelSeparator;
+import loci.formats.MetadataTools;
+import loci.formats.meta.IMetadata;
+import loci.plugins.util.ImageProcessorReader;
+import loci.plugins.util.LociPrefs;
+import ome.units.UNITS;
+import ome.units.quantity.Length;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Out-of-core StarDist for whole-mount images that do not fit in the heap.
+ * <p>
+ * The image is cut into a grid of {@code tileSize} cores. Each core is read from disk together
+ * with an {@code overlap} margin (Bio-Formats region reads, max-projected over Z for the Hu
+ * channel), rescaled and segmented on its own. Seams are reconciled by ownership: a nucleus is
+ * kept only by the tile whose core contains its centroid, with a global ID from a running counter.
+ * Pixels already claimed by a neighbour are never overwritten, and an object whose pixels are
+ * mostly claimed already (neighbouring tiles disagreeing on the centroid) is dropped as a duplicate.
+ * Labels are written straight into a 16-bit {@link ShortTiffStream}, so peak memory is one
+ * padded tile (plus StarDist's own working set), independent of the image size; a run stops as
+ * soon as the 65535 IDs of a 16-bit map are used up.
+ * <p>
+ * Border removal and the minimum-size filter are applied per object while stitching, matching
+ * {@code LabelOps.filterBorderAndSize} on the full image. The overlap should exceed the largest
+ * nucleus diameter (in original pixels); objects wider than that are kept but may be clipped.
+ * Percentile normalisation is done per tile by StarDist. Tiles go through
+ * {@link SegmentationBackends#segment}, so the selected backend and the StarDist cache apply.
+ * <p>
+ * The headless Hu path switches to this driver for images wider or taller than p.tileSizePx
+ * ({@link #applies}, decided from the file before anything is projected) and reads the stitched
+ * map back with {@link #segmentLabels}.
+ */
+public final class TiledSegmentation {
+    private TiledSegmentation(){}
+
+    public static final class Result {
+        public final File labelTiff;
+        public final int width, height;
+        public final int tilesX, tilesY;
+        public final int nLabels;
+        public final int clippedLabels;   // kept objects that reached an inner tile cut (overlap too small)
+
+        Result(File labelTiff, int width, int height, int tilesX, int tilesY, int nLabels, int clippedLabels) {
+            this.labelTiff = labelTiff;
+            this.width = width;
+            this.height = height;
+            this.tilesX = tilesX;
+            this.tilesY = tilesY;
+            this.nLabels = nLabels;
+            this.clippedLabels = clippedLabels;
+        }
+    }
+
+    /**
+     * Segments p.imagePath (channel p.huChannel) tile by tile with the selected backend and writes
+     * the global label map to {@code outTiff}. Uses p.tileSizePx / p.tileOverlapPx and the usual
+     * rescale, probability/NMS and size-filter settings. progress may be null.
+     */
+    public static Result run(Params p, File outTiff, ProgressUI progress) {
+        if (p.imagePath == null || p.imagePath.isEmpty())
+            throw new IllegalArgumentException("Tiled segmentation needs Params.imagePath.");
+        if (p.tileSizePx < 64)
+            throw new IllegalArgumentException("Tile size must be at least 64 px: " + p.tileSizePx);
+        // StarDist drops objects within excludeBoundary of the tile edge; the margin must cover that
+        if (p.tileOverlapPx < DirectCalls.EXCLUDE_BOUNDARY_PX || p.tileOverlapPx >= p.tileSizePx)
+            throw new IllegalArgumentException("Tile overlap must be in [" + DirectCalls.EXCLUDE_BOUNDARY_PX
+                    + ", tile size): " + p.tileOverlapPx);
+        if (p.useClij2EDF)
+            throw new IllegalArgumentException("Tiled segmentation projects with MAX; EDF is not supported.");
+        SegmentationBackends.requireModel(p, p.stardistModelZip, "StarDist model");
+
+        try (ImageProcessorReader reader = new ImageProcessorReader(new ChannelSeparator(LociPrefs.makeImageReader()))) {
+            IMetadata meta = MetadataTools.createOMEXMLMetadata();
+            reader.setMetadataStore(meta);
+            reader.setId(p.imagePath);
+
+            int w = reader.getSizeX(), h = reader.getSizeY();
+            int c = p.huChannel - 1, nZ = reader.getSizeZ();
+            int z0 = (p.projectionZStart > 0) ? Math.min(p.projectionZStart, nZ) - 1 : 0;
+            int z1 = (p.projectionZEnd > 0) ? Math.min(p.projectionZEnd, nZ) : nZ;
+            if (z1 <= z0)
+                throw new IllegalArgumentException("Empty Z range " + p.projectionZStart + ".." + p.projectionZEnd + " (Z=" + nZ + ")");
+            if (c < 0 || c >= reader.getSizeC())
+                throw new IllegalArgumentException("Hu channel " + p.huChannel + " not in image (C=" + reader.getSizeC() + ").");
+            double pxUm = physicalSizeUm(meta);
+            if (p.requireMicronUnits && pxUm <= 0)
+                throw new IllegalStateException("Image must be calibrated in microns: " + p.imagePath);
+
+            // same rescale rule as the in-memory pipeline
+            double scale = (p.trainingRescaleFactor > 0) ? p.trainingRescaleFactor : 1.0;
+            double targetPxUm = p.trainingPixelSizeUm / scale;
+            double scaleFactor = p.rescaleToTrainingPx && (pxUm > 0) ? (pxUm / targetPxUm) : 1.0;
+            if (Math.abs(scaleFactor - 1.0) < 1e-3) scaleFactor = 1.0;
+            // size filter in ORIGINAL pixels (macro: microns / pixelWidth, on the rescaled image)
+            int minPx = 0;
+            if (p.neuronSegLowerLimitUm != null && pxUm > 0) {
+                double effPxUm = pxUm / scaleFactor;
+                int minScaled = (int) Math.max(1, Math.round(p.neuronSegLowerLimitUm / effPxUm));
+                minPx = (int) Math.max(1, Math.round(minScaled / (scaleFactor * scaleFactor)));
+            }
+
+            int core = p.tileSizePx, margin = p.tileOverlapPx;
+            int tilesX = (w + core - 1) / core, tilesY = (h + core - 1) / core;
+            if (progress != null) progress.start(tilesX * tilesY);
+
+            int nextId = 0, clipped = 0;
+            try (ShortTiffStream out = new ShortTiffStream(outTiff, w, h, pxUm)) {
+                for (int ty = 0; ty < tilesY; ty++) {
+                    for (int tx = 0; tx < tilesX; tx++) {
+                        if (progress != null)
+                            progress.step("Tile " + (ty * tilesX + tx + 1) + "/" + (tilesX * tilesY));
+                        int cx0 = tx * core, cy0 = ty * core;
+                        int cx1 = Math.min(w, cx0 + core), cy1 = Math.min(h, cy0 + core);
+                        int rx0 = Math.max(0, cx0 - margin), ry0 = Math.max(0, cy0 - margin);
+                        int rx1 = Math.min(w, cx1 + margin), ry1 = Math.min(h, cy1 + margin);
+
+                        FloatProcessor tile = readProjectedTile(reader, c, z0, z1, rx0, ry0, rx1 - rx0, ry1 - ry0);
+                        ImageProcessor lab = segmentTile(tile, pxUm, scaleFactor, p);
+                        tile = null;
+
+                        int[] counts = stitch(lab, out, w, h, rx0, ry0, cx0, cy0, cx1, cy1, minPx, nextId);
+                        nextId += counts[0];
+                        clipped += counts[1];
+                    }
+                }
+            }
+            if (clipped > 0)
+                IJ.log("Tiled segmentation: " + clipped + " object(s) reached a tile cut; consider a larger overlap.");
+            return new Result(outTiff, w, h, tilesX, tilesY, nextId, clipped);
+        } catch (IOException | loci.formats.FormatException e) {
+            throw new IllegalStateException("Tiled segmentation failed for " + p.imagePath + ": " + e.getMessage(), e);
+        }
+    }
+
+    /** Region read of one channel, max over planes z0..z1-1 (T=0), as float. */
+    private static FloatProcessor readProjectedTile(ImageProcessorReader r, int c, int z0, int z1,
+                                                    int x, int y, int tw, int th)
+            throws IOException, loci.formats.FormatException {
+        float[] acc = null;
+        for (int z = z0; z < z1; z++) {
+            ImageProcessor ip = r.openProcessors(r.getIndex(z, c, 0), x, y, tw, th)[0];
+            if (acc == null) {
+                acc = (float[]) ip.convertToFloatProcessor().getPixels();
+                continue;
+            }
+            for (int i = 0; i < acc.length; i++) {
+                float v = ip.getf(i);
+                if (v > acc[i]) acc[i] = v;
+            }
+        }
+        return new FloatProcessor(tw, th, acc);
+    }
+
+    /**
+     * Whether the headless Hu path should segment p.imagePath tile by tile: the file's XY size
+     * (from the reader's metadata, nothing is projected) exceeds a tile.
+     */
+    public static boolean applies(Params p) {
+        if (p.imagePath == null || p.imagePath.isEmpty() || p.useClij2EDF) return false;
+        try (ImageProcessorReader reader = new ImageProcessorReader(new ChannelSeparator(LociPrefs.makeImageReader()))) {
+            reader.setId(p.imagePath);
+            return Math.max(reader.getSizeX(), reader.getSizeY()) > p.tileSizePx;
+        } catch (IOException | loci.formats.FormatException e) {
+            IJ.log("Tiled segmentation: cannot read the size of " + p.imagePath + " (" + e.getMessage() + "), segmenting whole");
+            return false;
+        }
+    }
+
+    /**
+     * {@link #run} into a scratch TIFF in dir, read back as the 16-bit label map (border and size
+     * filtered, at the original image size). The scratch file is deleted afterwards.
+     */
+    public static ImagePlus segmentLabels(Params p, File dir) {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IllegalStateException("Failed to create dir: " + dir.getAbsolutePath());
+        File tiff = new File(dir, ".tiled_labels_" + System.nanoTime() + ".tif");
+        try {
+            run(p, tiff, null);
+            ImagePlus labels = new ij.io.Opener().openImage(tiff.getAbsolutePath());
+            if (labels == null || labels.getBitDepth() != 16)
+                throw new IllegalStateException("Could not read tiled labels: " + tiff.getName());
+            labels.setTitle("tiled_labels");
+            return labels;
+        } finally {
+            if (tiff.exists() && !tiff.delete()) tiff.deleteOnExit();
+        }
+    }
+
+    /** Selected backend on one padded tile; labels come back at the tile's original size. */
+    private static ImageProcessor segmentTile(FloatProcessor tile, double pxUm, double scaleFactor, Params p) {
+        ImagePlus in = new ImagePlus("tile", tile);
+        Calibration cal = new Calibration();
+        if (pxUm > 0) { cal.pixelWidth = cal.pixelHeight = pxUm; cal.setUnit("micron"); }
+        in.setCalibration(cal);
+        ImagePlus seg = (scaleFactor == 1.0) ? in
+                : ImageOps.resizeToIntensity(in,
+                (int) Math.round(tile.getWidth() * scaleFactor),
+                (int) Math.round(tile.getHeight() * scaleFactor));
+        ImagePlus lab = SegmentationBackends.segment(seg, p.stardistModelZip, p.probThresh, p.nmsThresh, p);
+        if (lab.getWidth() != tile.getWidth() || lab.getHeight() != tile.getHeight())
+            lab = ImageOps.resizeTo(lab, tile.getWidth(), tile.getHeight());
+        return lab.getProcessor();
+    }
+
+    /**
+     * Writes the objects owned by this tile (centroid inside the core, not touching the image
+     * border, at least minPx, not mostly claimed by a neighbour already) with IDs firstId+1.. into
+     * 'out'. Returns {kept, clipped}.
+     */
+    private static int[] stitch(ImageProcessor lab, ShortTiffStream out, int w, int h,
+                                int rx0, int ry0, int cx0, int cy0, int cx1, int cy1,
+                                int minPx, int firstId) throws IOException {
+        int tw = lab.getWidth(), th = lab.getHeight();
+        int maxLocal = 0;
+        for (int i = 0; i < tw * th; i++) maxLocal = Math.max(maxLocal, (int) lab.getf(i));
+
+        long[] area = new long[maxLocal + 1];
+        double[] sx = new double[maxLocal + 1], sy = new double[maxLocal + 1];
+        boolean[] imageBorder = new boolean[maxLocal + 1], cut = new boolean[maxLocal + 1];
+        for (int y = 0; y < th; y++) {
+            int gy = ry0 + y;
+            for (int x = 0; x < tw; x++) {
+                int id = (int) lab.getf(x, y);
+                if (id <= 0) continue;
+                int gx = rx0 + x;
+                area[id]++; sx[id] += gx; sy[id] += gy;
+                if (gx == 0 || gy == 0 || gx == w - 1 || gy == h - 1) imageBorder[id] = true;
+                else if (x == 0 || y == 0 || x == tw - 1 || y == th - 1) cut[id] = true;
+            }
+        }
+
+        boolean[] own = new boolean[maxLocal + 1];
+        int candidates = 0;
+        for (int id = 1; id <= maxLocal; id++) {
+            if (area[id] == 0 || imageBorder[id] || area[id] < minPx) continue;
+            double mx = sx[id] / area[id], my = sy[id] / area[id];
+            if (mx < cx0 || mx >= cx1 || my < cy0 || my >= cy1) continue;  // owned by a neighbour
+            own[id] = true;
+            candidates++;
+        }
+        if (candidates == 0) return new int[]{ 0, 0 };
+
+        // pixels of each candidate that a neighbour has written already
+        long[] claimed = new long[maxLocal + 1];
+        short[] row = new short[tw];
+        for (int y = 0; y < th; y++) {
+            out.readRow(ry0 + y, rx0, tw, row);
+            for (int x = 0; x < tw; x++) {
+                int id = (int) lab.getf(x, y);
+                if (id > 0 && own[id] && row[x] != 0) claimed[id]++;
+            }
+        }
+
+        int[] lut = new int[maxLocal + 1];
+        int kept = 0, clipped = 0;
+        for (int id = 1; id <= maxLocal; id++) {
+            if (!own[id] || 2 * claimed[id] > area[id]) continue;   // mostly a neighbour's object: duplicate
+            if (firstId + kept + 1 > 65535)
+                throw new IllegalStateException("Tiled segmentation exceeded 65535 objects; 16-bit label maps hold no more.");
+            lut[id] = firstId + (++kept);
+            if (cut[id]) clipped++;
+        }
+        if (kept == 0) return new int[]{ 0, 0 };
+
+        // read-modify-write the padded rows; first writer wins on contested pixels
+        for (int y = 0; y < th; y++) {
+            boolean dirty = false;
+            out.readRow(ry0 + y, rx0, tw, row);
+            for (int x = 0; x < tw; x++) {
+                int id = (int) lab.getf(x, y);
+                if (id > 0 && lut[id] != 0 && row[x] == 0) { row[x] = (short) lut[id]; dirty = true; }
+            }
+            if (dirty) out.writeRow(ry0 + y, rx0, tw, row);
+        }
+        return new int[]{ kept, clipped };
+    }
+
+    private static double physicalSizeUm(IMetadata meta) {
+        try {
+            Length l = meta.getPixelsPhysicalSizeX(0);
+            Number v = (l != null) ? l.value(UNITS.MICROMETER) : null;
+            return (v != null) ? v.doubleValue() : 0.0;
+        } catch (RuntimeException e) {
+            return 0.0;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package Features.Tools;
+
+import ij.CompositeImage;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.LUT;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Single-channel images that share the pixel arrays of their source instead of copying them.
+ * <p>
+ * A view has its own processor(s), so display range, LUT, title and calibration are independent
+ * of the source, but the pixels are the source's: writes would show through. Code that reads
+ * (thresholds, conversions, StarDist input, {@code duplicate()}) can use a view as is; code that
+ * writes into the pixels calls {@link #writable(ImagePlus)} first, which copies the arrays once
+ * (copy-on-write) and detaches the view from its source.
+ */
+public final class ChannelView {
+    private ChannelView(){}
+
+    private static final Map<ImagePlus, Boolean> VIEWS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /** View of 1-based channel c1 (clamped) over all Z/T of imp. */
+    public static ImagePlus of(ImagePlus imp, int c1) {
+        int nC = imp.getNChannels(), nZ = imp.getNSlices(), nT = imp.getNFrames();
+        int c = Math.max(1, Math.min(c1, nC));
+        ImageStack src = imp.getStack();
+
+        ImageStack st = new ImageStack(imp.getWidth(), imp.getHeight());
+        for (int t = 1; t <= nT; t++) {
+            for (int z = 1; z <= nZ; z++) {
+                int idx = imp.getStackIndex(c, z, t);
+                st.addSlice(src.getSliceLabel(idx), src.getPixels(idx));
+            }
+        }
+
+        String title = (nC > 1) ? "C" + c + "-" + imp.getTitle() : imp.getTitle();
+        ImagePlus view = new ImagePlus(title, st);
+        view.setDimensions(1, nZ, nT);
+        if (nZ * nT > 1) view.setOpenAsHyperStack(true);
+        if (imp.isComposite()) {
+            LUT lut = ((CompositeImage) imp).getChannelLut(c);
+            if (lut != null) view.getProcessor().setColorModel(lut);
+        } else {
+            view.getProcessor().setColorModel(imp.getProcessor().getColorModel());
+        }
+        view.setCalibration(imp.getCalibration());
+        VIEWS.put(view, Boolean.TRUE);
+        return view;
+    }
+
+    /** True while imp still shares its pixels with the image it was taken from. */
+    public static boolean isView(ImagePlus imp) {
+        return VIEWS.containsKey(imp);
+    }
+
+    /**
+     * Makes imp safe to modify: a view gets private copies of its pixel arrays (same object
+     * returned, so existing references stay valid); any other image is returned untouched.
+     */
+    public static ImagePlus writable(ImagePlus imp) {
+        if (VIEWS.remove(imp) == null) return imp;
+        ImageStack st = imp.getStack();
+        for (int i = 1; i <= st.getSize(); i++) {
+            st.setPixels(st.getProcessor(i).duplicate().getPixels(), i);
+        }
+        // the current processor may still point at the old array
+        imp.getProcessor().setPixels(st.getPixels(imp.getCurrentSlice()));
+        return imp;
+    }
+}
@@ -0,0 +1,113 @@
+package Features.Tools;
+
+import ij.process.ByteProcessor;
+
+/**
+ * Exact Euclidean distance transform (Felzenszwalb &amp; Huttenlocher lower envelope of parabolas),
+ * separable: one pass down the columns, one along the rows, each split over {@link Parallel}.
+ * Results are squared pixel distances so callers can threshold without a square root.
+ * Pixels outside the image are ignored (they are neither foreground nor background).
+ */
+public final class DistanceTransform {
+    private DistanceTransform(){}
+
+    /**
+     * Squared distance of every pixel to the nearest "target" pixel: background (0) pixels when
+     * toForeground is false (so background is 0 and cells grow towards their centre), foreground
+     * (non-zero) pixels when true (the distance used for dilation). Pixels with no target anywhere
+     * in the image get {@link Float#POSITIVE_INFINITY}.
+     */
+    public static float[] squaredEdt(byte[] mask, int w, int h, boolean toForeground) {
+        final float inf = Float.POSITIVE_INFINITY;
+        float[] d = new float[w * h];
+        for (int i = 0; i < d.length; i++) {
+            boolean fg = mask[i] != 0;
+            d[i] = (fg == toForeground) ? 0f : inf;
+        }
+
+        // columns
+        Parallel.forStripes(w, (s, x0, x1) -> {
+            float[] f = new float[h], out = new float[h];
+            int[] v = new int[h];
+            double[] z = new double[h + 1];
+            for (int x = x0; x < x1; x++) {
+                for (int y = 0; y < h; y++) f[y] = d[y * w + x];
+                transform1d(f, h, out, v, z);
+                for (int y = 0; y < h; y++) d[y * w + x] = out[y];
+            }
+        });
+        // rows
+        Parallel.forStripes(h, (s, y0, y1) -> {
+            float[] f = new float[w], out = new float[w];
+            int[] v = new int[w];
+            double[] z = new double[w + 1];
+            for (int y = y0; y < y1; y++) {
+                System.arraycopy(d, y * w, f, 0, w);
+                transform1d(f, w, out, v, z);
+                System.arraycopy(out, 0, d, y * w, w);
+            }
+        });
+        return d;
+    }
+
+    /** Euclidean distance (pixels) of every foreground pixel to the nearest background pixel. */
+    public static float[] edt(byte[] mask, int w, int h) {
+        float[] d = squaredEdt(mask, w, h, false);
+        Parallel.forStripes(h, (s, y0, y1) -> {
+            for (int i = y0 * w, end = y1 * w; i < end; i++) d[i] = (float) Math.sqrt(d[i]);
+        });
+        return d;
+    }
+
+    /**
+     * Euclidean dilation in place: every pixel within radiusPx of a non-zero pixel becomes 255.
+     * One distance transform, so the cost does not grow with the radius and the grown outline is
+     * round (repeated 3x3 dilations grow squares).
+     */
+    public static void dilate(ByteProcessor mask, double radiusPx) {
+        if (radiusPx <= 0) return;
+        int w = mask.getWidth(), h = mask.getHeight();
+        byte[] px = (byte[]) mask.getPixels();
+        float[] d = squaredEdt(px, w, h, true);
+        double r2 = radiusPx * radiusPx;
+        Parallel.forStripes(h, (s, y0, y1) -> {
+            for (int i = y0 * w, end = y1 * w; i < end; i++) if (d[i] <= r2) px[i] = (byte) 255;
+        });
+    }
+
+    // 1-D squared distance transform of sampled function f (F&H 2012); INF samples have no parabola
+    private static void transform1d(float[] f, int n, float[] out, int[] v, double[] z) {
+        int k = -1;
+        for (int q = 0; q < n; q++) {
+            if (f[q] == Float.POSITIVE_INFINITY) continue;
+            if (k < 0) {
+                k = 0;
+                v[0] = q;
+                z[0] = Double.NEGATIVE_INFINITY;
+                z[1] = Double.POSITIVE_INFINITY;
+                continue;
+            }
+            double s;
+            while (true) {
+                int p = v[k];
+                s = ((f[q] + (double) q * q) - (f[p] + (double) p * p)) / (2.0 * (q - p));
+                if (s <= z[k] && k > 0) k--;
+                else break;
+            }
+            k++;
+            v[k] = q;
+            z[k] = s;
+            z[k + 1] = Double.POSITIVE_INFINITY;
+        }
+        if (k < 0) {
+            for (int q = 0; q < n; q++) out[q] = Float.POSITIVE_INFINITY;
+            return;
+        }
+        int j = 0;
+        for (int q = 0; q < n; q++) {
+            while (z[j + 1] < q) j++;
+            int p = v[j];
+            out[q] = (float) ((double) (q - p) * (q - p) + f[p]);
+        }
+    }
+}
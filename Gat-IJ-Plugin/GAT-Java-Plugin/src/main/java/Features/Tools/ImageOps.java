@@ -1,12 +1,13 @@
 package Features.Tools;
 
-import ij.IJ;
 import ij.ImagePlus;
 import ij.measure.Calibration;
 import ij.plugin.ZProjector;
-import ij.plugin.HyperStackConverter;
-
-import static Features.Core.PluginCalls.findNewImageSince;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
 
 public final class ImageOps {
     private ImageOps() {}
@@ -24,52 +25,173 @@ public final class ImageOps {
         return out;
     }
 
-    /** Extract 1-based channel to single-channel image. */
+    /**
+     * Extract 1-based channel to single-channel image. Zero-copy: the result is a
+     * {@link ChannelView} over imp's pixels; call {@link ChannelView#writable} before modifying it.
+     */
     public static ImagePlus extractChannel(ImagePlus imp, int c1) {
-        if (imp.getNChannels()==1) return imp.duplicate();
-        int ch = Math.max(1, Math.min(c1, imp.getNChannels()));
-        ImagePlus dup = new ij.plugin.Duplicator().run(imp, ch, ch, 1, imp.getNSlices(), 1, imp.getNFrames());
-        if (dup.getNChannels() > 1) {
-            dup = ij.plugin.HyperStackConverter.toHyperStack(dup, 1, dup.getNSlices(), dup.getNFrames(), "default", "Color");
-        }
-        dup.setCalibration(imp.getCalibration());
-        return dup;
+        return ChannelView.of(imp, c1);
     }
 
     /** Resize to W×H with interpolation=None (faithful to macro), and update calibration accordingly. */
     public static ImagePlus resizeTo(ImagePlus src, int newW, int newH) {
-        int[] before = ij.WindowManager.getIDList();
-        SilentRun.on(src, "Scale...", "x=- y=- width="+newW+" height="+newH+" interpolation=None create");
-        ImagePlus out = findNewImageSince(before); if (out == null) out = IJ.getImage();
-        ij.measure.Calibration cal = src.getCalibration().copy();
-        cal.pixelWidth  = cal.pixelWidth  * src.getWidth()  / (double) out.getWidth();
-        cal.pixelHeight = cal.pixelHeight * src.getHeight() / (double) out.getHeight();
-        out.setCalibration(cal);
-        out.hide();
+        ImagePlus out = new ImagePlus(src.getTitle(), resampleNearest(src.getProcessor(), newW, newH));
+        out.setCalibration(scaledCalibration(src, newW, newH));
         return out;
     }
 
-    /** Resize to width/height (Bilinear for intensity images), update calibration. */
+    /**
+     * Resize an intensity image to W×H: area averaging when shrinking in both axes (no aliasing
+     * of small bright structures), bilinear otherwise. RGB is converted to 8-bit grey like before.
+     */
     public static ImagePlus resizeToIntensity(ImagePlus src, int newW, int newH) {
-        int[] before = ij.WindowManager.getIDList();
-        SilentRun.on(src, "Scale...", "x=- y=- width="+newW+" height="+newH+" interpolation=Bilinear create");
-        ImagePlus out = findNewImageSince(before); if (out == null) out = IJ.getImage();
+        ImageProcessor ip = src.getProcessor();
+        if (ip instanceof ColorProcessor) ip = ip.convertToByte(true);
+        boolean shrink = newW < ip.getWidth() && newH < ip.getHeight();
+        ImageProcessor r = shrink ? resampleArea(ip, newW, newH) : resampleBilinear(ip, newW, newH);
+        r.setColorModel(null); // Grays
+        ImagePlus out = new ImagePlus(src.getTitle(), r);
+        out.setCalibration(scaledCalibration(src, newW, newH));
+        return out;
+    }
 
-        //hide our output
-        out.hide();
+    private static Calibration scaledCalibration(ImagePlus src, int newW, int newH) {
+        Calibration cal = src.getCalibration().copy();
+        cal.pixelWidth  = cal.pixelWidth  * src.getWidth()  / (double) newW;
+        cal.pixelHeight = cal.pixelHeight * src.getHeight() / (double) newH;
+        return cal;
+    }
 
-        if (out.getType() == ImagePlus.COLOR_RGB) IJ.run(out, "8-bit", "");
-        IJ.run(out, "Grays", "");
-        out.setDimensions(1,1,1);
-        out.setOpenAsHyperStack(false);
+    // ---------- resamplers (pixel-centre mapping, parallel over output rows) ----------
 
-        ij.measure.Calibration cal = src.getCalibration().copy();
-        cal.pixelWidth  = cal.pixelWidth  * src.getWidth()  / (double) out.getWidth();
-        cal.pixelHeight = cal.pixelHeight * src.getHeight() / (double) out.getHeight();
-        out.setCalibration(cal);
-        out.hide();
+    /** Nearest neighbour, same pixel type; label IDs are copied, never blended. */
+    public static ImageProcessor resampleNearest(ImageProcessor src, int newW, int newH) {
+        int w = src.getWidth(), h = src.getHeight();
+        int[] xMap = new int[newW], yMap = new int[newH];
+        for (int x = 0; x < newW; x++) xMap[x] = Math.min(w - 1, (int) ((x + 0.5) * w / newW));
+        for (int y = 0; y < newH; y++) yMap[y] = Math.min(h - 1, (int) ((y + 0.5) * h / newH));
+        ImageProcessor out = src.createProcessor(newW, newH);
+        Object in = src.getPixels(), dst = out.getPixels();
+        Parallel.forStripes(newH, (s, ya, yb) -> {
+            for (int y = ya; y < yb; y++) {
+                int si = yMap[y] * w, di = y * newW;
+                if (in instanceof short[]) {
+                    short[] a = (short[]) in, b = (short[]) dst;
+                    for (int x = 0; x < newW; x++) b[di + x] = a[si + xMap[x]];
+                } else if (in instanceof byte[]) {
+                    byte[] a = (byte[]) in, b = (byte[]) dst;
+                    for (int x = 0; x < newW; x++) b[di + x] = a[si + xMap[x]];
+                } else if (in instanceof float[]) {
+                    float[] a = (float[]) in, b = (float[]) dst;
+                    for (int x = 0; x < newW; x++) b[di + x] = a[si + xMap[x]];
+                } else {
+                    int[] a = (int[]) in, b = (int[]) dst;
+                    for (int x = 0; x < newW; x++) b[di + x] = a[si + xMap[x]];
+                }
+            }
+        });
+        out.setColorModel(src.getColorModel());
         return out;
     }
 
+    /** Bilinear (edge-clamped), result in the source pixel type (rounded, clamped). Not for RGB. */
+    public static ImageProcessor resampleBilinear(ImageProcessor src, int newW, int newH) {
+        int w = src.getWidth(), h = src.getHeight();
+        float[] in = asFloat(src);
+        float[] out = new float[newW * newH];
+        int[] x0 = new int[newW]; float[] fx = new float[newW];
+        for (int x = 0; x < newW; x++) {
+            double sx = Math.max(0, Math.min(w - 1, (x + 0.5) * w / newW - 0.5));
+            x0[x] = Math.min((int) sx, Math.max(0, w - 2));
+            fx[x] = (w == 1) ? 0f : (float) (sx - x0[x]);
+        }
+        Parallel.forStripes(newH, (s, ya, yb) -> {
+            for (int y = ya; y < yb; y++) {
+                double sy = Math.max(0, Math.min(h - 1, (y + 0.5) * h / newH - 0.5));
+                int y0 = Math.min((int) sy, Math.max(0, h - 2));
+                int y1 = Math.min(h - 1, y0 + 1);
+                float fy = (float) (sy - y0);
+                int r0 = y0 * w, r1 = y1 * w, di = y * newW;
+                for (int x = 0; x < newW; x++) {
+                    int a = x0[x], b = Math.min(w - 1, a + 1);
+                    float top = in[r0 + a] + fx[x] * (in[r0 + b] - in[r0 + a]);
+                    float bot = in[r1 + a] + fx[x] * (in[r1 + b] - in[r1 + a]);
+                    out[di + x] = top + fy * (bot - top);
+                }
+            }
+        });
+        return fromFloat(src, new FloatProcessor(newW, newH, out));
+    }
 
+    /** Exact area averaging (box filter with fractional edge weights), separable. Not for RGB. */
+    public static ImageProcessor resampleArea(ImageProcessor src, int newW, int newH) {
+        int w = src.getWidth(), h = src.getHeight();
+        float[] in = asFloat(src);
+        int[][] xi = new int[newW][]; float[][] xw = new float[newW][];
+        int[][] yi = new int[newH][]; float[][] yw = new float[newH][];
+        areaWeights(w, newW, xi, xw);
+        areaWeights(h, newH, yi, yw);
+
+        float[] tmp = new float[h * newW];   // rows resampled in x
+        Parallel.forStripes(h, (s, ya, yb) -> {
+            for (int y = ya; y < yb; y++) {
+                int si = y * w, di = y * newW;
+                for (int x = 0; x < newW; x++) {
+                    float acc = 0f;
+                    int[] idx = xi[x]; float[] wt = xw[x];
+                    for (int k = 0; k < idx.length; k++) acc += wt[k] * in[si + idx[k]];
+                    tmp[di + x] = acc;
+                }
+            }
+        });
+        float[] out = new float[newW * newH];
+        Parallel.forStripes(newH, (s, ya, yb) -> {
+            for (int y = ya; y < yb; y++) {
+                int[] idx = yi[y]; float[] wt = yw[y];
+                int di = y * newW;
+                for (int k = 0; k < idx.length; k++) {
+                    int si = idx[k] * newW; float f = wt[k];
+                    for (int x = 0; x < newW; x++) out[di + x] += f * tmp[si + x];
+                }
+            }
+        });
+        return fromFloat(src, new FloatProcessor(newW, newH, out));
+    }
+
+    // source pixels overlapping output pixel i, with normalised overlap weights
+    private static void areaWeights(int n, int newN, int[][] idx, float[][] wt) {
+        double step = n / (double) newN;
+        for (int i = 0; i < newN; i++) {
+            double a = i * step, b = Math.min(n, (i + 1) * step);
+            int lo = (int) Math.floor(a), hi = Math.min(n - 1, (int) Math.ceil(b) - 1);
+            if (hi < lo) hi = lo;
+            idx[i] = new int[hi - lo + 1];
+            wt[i] = new float[hi - lo + 1];
+            double sum = 0;
+            for (int k = lo; k <= hi; k++) {
+                double cov = Math.min(b, k + 1) - Math.max(a, k);
+                if (cov < 0) cov = 0;
+                idx[i][k - lo] = k;
+                wt[i][k - lo] = (float) cov;
+                sum += cov;
+            }
+            for (int k = 0; k < wt[i].length; k++) wt[i][k] = (sum > 0) ? (float) (wt[i][k] / sum) : 1f / wt[i].length;
+        }
+    }
+
+    private static float[] asFloat(ImageProcessor ip) {
+        if (ip instanceof ColorProcessor) throw new IllegalArgumentException("RGB is not supported here; convert to 8-bit first.");
+        return (ip instanceof FloatProcessor)
+                ? (float[]) ip.getPixels()
+                : (float[]) ip.convertToFloatProcessor().getPixels();
+    }
+
+    private static ImageProcessor fromFloat(ImageProcessor like, FloatProcessor fp) {
+        ImageProcessor out;
+        if (like instanceof ByteProcessor)       out = fp.convertToByteProcessor(false);
+        else if (like instanceof ShortProcessor) out = fp.convertToShortProcessor(false);
+        else { fp.resetMinAndMax(); out = fp; }
+        out.setColorModel(like.getColorModel());
+        return out;
+    }
 }
@@ -1,10 +1,20 @@
 package Features.Tools;
 
-import Features.Core.PluginCalls;
 import ij.ImagePlus;
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.gui.Wand;
+import ij.plugin.filter.ThresholdToSelection;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 import ij.process.ShortProcessor;
 
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
 public final class LabelOps {
     private LabelOps(){}
 
@@ -14,65 +24,325 @@ public final class LabelOps {
      * where keep[huId] = true if fraction >= fracThresh.
      */
     public static boolean[] neuronsPositiveByOverlap(ImagePlus huLabels, ImagePlus markerLabels, double fracThresh) {
-        ImageProcessor hu = huLabels.getProcessor();
-        ImageProcessor mk = markerLabels.getProcessor();
-        int w = hu.getWidth(), h = hu.getHeight();
-
-        // find max Hu ID
-        int maxId = 0;
-        for (int y=0; y<h; y++) {
-            for (int x=0; x<w; x++) {
-                int id = hu.get(x,y) & 0xFFFF;
-                if (id > maxId) maxId = id;
-            }
+        LabelStats st = LabelStats.of(huLabels.getProcessor(), markerLabels.getProcessor());
+        boolean[] keep = new boolean[st.maxId + 1];
+        for (int id = 1; id <= st.maxId; id++) {
+            keep[id] = st.area[id] > 0 && st.overlapFraction(id) >= fracThresh;
         }
-        long[] total = new long[maxId + 1];
-        long[] hits  = new long[maxId + 1];
-
-        for (int y=0; y<h; y++) {
-            for (int x=0; x<w; x++) {
-                int id = hu.get(x,y) & 0xFFFF;
-                if (id == 0) continue;
-                total[id]++;
-                if ((mk.get(x,y) & 0xFFFF) > 0) hits[id]++;
-            }
+        return keep;
+    }
+
+    /**
+     * Keep only Hu labels whose keep[id] is true. Returns a NEW 16-bit label map in which the kept
+     * labels keep their Hu IDs (so saved maps and r%03d ROI names join back to the Hu table);
+     * touching neurons stay separate labels. IDs have gaps: count with {@link LabelStats#count()}.
+     */
+    public static ImagePlus keepHuLabels(ImagePlus huLabels, boolean[] keep) {
+        return keepHuLabels(huLabels, keep, false);
+    }
+
+    /** {@link #keepHuLabels(ImagePlus, boolean[])}; compact=true renumbers the kept labels 1..K in Hu ID order. */
+    public static ImagePlus keepHuLabels(ImagePlus huLabels, boolean[] keep, boolean compact) {
+        LabelSubset sub = labelSubset(huLabels.getProcessor(), keep, compact);
+        ImagePlus out = new ImagePlus("keep_labels", sub.apply(huLabels.getProcessor()));
+        out.setCalibration(huLabels.getCalibration());
+        return out;
+    }
+
+    /**
+     * A selection of label IDs as a lookup table: lut[id] is the output ID of input label id
+     * (0 = dropped) and inputId[k] the input label behind output ID k, so results on the subset
+     * map back to Hu IDs. Compacted subsets number the kept labels that occur 1..count in ID
+     * order; otherwise output IDs equal input IDs.
+     */
+    public static final class LabelSubset {
+        public final short[] lut;       // 65536 entries
+        public final int[] inputId;     // by output ID; index 0 unused
+        public final int count;         // distinct kept labels present
+
+        private LabelSubset(short[] lut, int[] inputId, int count) {
+            this.lut = lut;
+            this.inputId = inputId;
+            this.count = count;
         }
 
-        boolean[] keep = new boolean[maxId + 1];
-        for (int id=1; id<=maxId; id++) {
-            if (total[id] == 0) { keep[id] = false; continue; }
-            double frac = (double)hits[id] / (double)total[id];
-            keep[id] = frac >= fracThresh;
+        /** New 16-bit map: every pixel remapped through {@link #lut} in one striped pass. */
+        public ShortProcessor apply(ImageProcessor labels) {
+            int w = labels.getWidth(), h = labels.getHeight();
+            short[] px = (short[]) asShortLabels(labels).getPixels();
+            short[] out = new short[px.length];
+            Parallel.forStripes(h, (s, ya, yb) -> {
+                for (int i = ya * w, end = yb * w; i < end; i++) out[i] = lut[px[i] & 0xFFFF];
+            });
+            return new ShortProcessor(w, h, out, null);
         }
-        return keep;
     }
 
+    /** Builds the {@link LabelSubset} of labels with keep[id] (IDs past keep.length are dropped). */
+    public static LabelSubset labelSubset(ImageProcessor labels, boolean[] keep, boolean compact) {
+        boolean[] present = presentIds(labels);
+        short[] lut = new short[65536];
+        int n = Math.min(keep.length, present.length), count = 0, maxKept = 0;
+        for (int id = 1; id < n; id++) {
+            if (!keep[id] || !present[id]) continue;
+            count++;
+            maxKept = id;
+        }
+        int[] inputId = new int[(compact ? count : maxKept) + 1];
+        for (int id = 1, k = 0; id <= maxKept; id++) {
+            if (!keep[id] || !present[id]) continue;
+            int out = compact ? ++k : id;
+            lut[id] = (short) out;
+            inputId[out] = id;
+        }
+        return new LabelSubset(lut, inputId, count);
+    }
+
+    // which of the 65536 IDs occur; one striped scan, per-stripe flags OR-ed together
+    private static boolean[] presentIds(ImageProcessor labels) {
+        int w = labels.getWidth(), h = labels.getHeight();
+        short[] px = (short[]) asShortLabels(labels).getPixels();
+        boolean[][] parts = new boolean[Parallel.stripeCount(h)][];
+        Parallel.forStripes(h, (s, ya, yb) -> {
+            boolean[] seen = new boolean[65536];
+            for (int i = ya * w, end = yb * w; i < end; i++) seen[px[i] & 0xFFFF] = true;
+            parts[s] = seen;
+        });
+        boolean[] present = new boolean[65536];
+        for (boolean[] p : parts)
+            if (p != null) for (int id = 1; id < 65536; id++) present[id] |= p[id];
+        present[0] = false;
+        return present;
+    }
+
+
+    // ---------- window-free label kernels (no IJ.run, no WindowManager) ----------
 
+    /** Label processor as 16-bit without scaling; ShortProcessors are returned as-is. */
+    public static ShortProcessor asShortLabels(ImageProcessor ip) {
+        if (ip instanceof ShortProcessor) return (ShortProcessor) ip;
+        return (ShortProcessor) ip.convertToShort(false);
+    }
+
+    /** Largest label ID in a label processor. */
+    public static int maxLabel(ImageProcessor labels) {
+        return LabelStats.maxId(labels);
+    }
 
     /**
-     * Keep only Hu labels whose keep[id] is true. Returns a NEW 16-bit label map
-     * by converting the kept pixels to binary and re-labeling to 1..K (contiguous).
+     * MorphoLibJ "Remove Border Labels" (left right top bottom) + "Label Size Filtering"
+     * (Greater_Than_Or_Equal minPx) fused: {@link LabelStats} gives areas and bounding boxes,
+     * a second pass remaps through a LUT that drops rejected labels and renumbers the
+     * survivors 1..N in their original order. Works in place when given a ShortProcessor.
+     * minPx <= 0 disables the size filter.
      */
-    public static ImagePlus keepHuLabels(ImagePlus huLabels, boolean[] keep) {
-        int w = huLabels.getWidth(), h = huLabels.getHeight();
-        byte[] bin = new byte[w*h];
-
-        int i=0;
-        for (int y=0; y<h; y++) {
-            for (int x=0; x<w; x++, i++) {
-                int id = huLabels.getProcessor().get(x,y) & 0xFFFF;
-                bin[i] = (byte)((id>0 && id < keep.length && keep[id]) ? 255 : 0);
+    public static ShortProcessor filterBorderAndSize(ImageProcessor labels, boolean removeBorder, int minPx) {
+        ShortProcessor sp = asShortLabels(labels);
+        int w = sp.getWidth(), h = sp.getHeight();
+        short[] px = (short[]) sp.getPixels();
+
+        LabelStats st = LabelStats.of(sp);
+        short[] lut = new short[65536];
+        int next = 0;
+        for (int id = 1; id <= st.maxId; id++) {
+            long area = st.area[id];
+            boolean border = st.minX[id] == 0 || st.minY[id] == 0 || st.maxX[id] == w - 1 || st.maxY[id] == h - 1;
+            if (area == 0 || (removeBorder && border) || area < minPx) continue;
+            lut[id] = (short) ++next;
+        }
+
+        Parallel.forStripes(h, (s, ya, yb) -> {
+            for (int i = ya * w, end = yb * w; i < end; i++) px[i] = lut[px[i] & 0xFFFF];
+        });
+        sp.resetMinAndMax();
+        return sp;
+    }
+
+    /** ImagePlus form of {@link #filterBorderAndSize(ImageProcessor, boolean, int)}; returns {@code labels} when done in place. */
+    public static ImagePlus filterBorderAndSize(ImagePlus labels, boolean removeBorder, int minPx) {
+        ImageProcessor ip = labels.getProcessor();
+        ShortProcessor sp = filterBorderAndSize(ip, removeBorder, minPx);
+        if (sp == ip && labels.getStackSize() == 1) {
+            labels.updateAndDraw();
+            return labels;
+        }
+        ImagePlus out = new ImagePlus(labels.getTitle(), sp);
+        out.setCalibration(labels.getCalibration());
+        labels.changes = false;
+        labels.close();
+        return out;
+    }
+
+    /** Label map -> 8-bit mask (labels=255, background=0). */
+    public static ByteProcessor toBinary(ImageProcessor labels) {
+        short[] in = (short[]) asShortLabels(labels).getPixels();
+        byte[] out = new byte[in.length];
+        for (int i = 0; i < in.length; i++) if (in[i] != 0) out[i] = (byte) 255;
+        return new ByteProcessor(labels.getWidth(), labels.getHeight(), out, null);
+    }
+
+    /** Connected components (8-connectivity) of a binary mask -> 16-bit labels 1..K in raster order. */
+    public static ShortProcessor binaryToLabels(ImageProcessor binary) {
+        int w = binary.getWidth(), h = binary.getHeight();
+        byte[] in = (byte[]) binary.convertToByte(false).getPixels();
+        short[] out = new short[w * h];
+        int[] stack = new int[w * h];
+        int next = 0;
+        for (int start = 0; start < in.length; start++) {
+            if (in[start] == 0 || out[start] != 0) continue;
+            if (++next > 0xFFFF) throw new IllegalStateException("More than 65535 connected components.");
+            int sp = 0;
+            stack[sp++] = start;
+            out[start] = (short) next;
+            while (sp > 0) {
+                int i = stack[--sp];
+                int x = i % w, y = i / w;
+                for (int dy = -1; dy <= 1; dy++) {
+                    int yy = y + dy;
+                    if (yy < 0 || yy >= h) continue;
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int xx = x + dx;
+                        if (xx < 0 || xx >= w) continue;
+                        int j = yy * w + xx;
+                        if (in[j] != 0 && out[j] == 0) { out[j] = (short) next; stack[sp++] = j; }
+                    }
+                }
+            }
+        }
+        return new ShortProcessor(w, h, out, null);
+    }
+
+    /** Same idea as "Fill Holes": background not 4-connected to the image border becomes foreground. */
+    public static void fillHoles(ByteProcessor binary) {
+        int w = binary.getWidth(), h = binary.getHeight();
+        byte[] px = (byte[]) binary.getPixels();
+        boolean[] outside = new boolean[px.length];
+        int[] stack = new int[px.length];
+        int sp = 0;
+        for (int x = 0; x < w; x++) { sp = seed(px, outside, stack, sp, x); sp = seed(px, outside, stack, sp, (h - 1) * w + x); }
+        for (int y = 0; y < h; y++) { sp = seed(px, outside, stack, sp, y * w); sp = seed(px, outside, stack, sp, y * w + w - 1); }
+        while (sp > 0) {
+            int i = stack[--sp];
+            int x = i % w, y = i / w;
+            if (x > 0)     sp = seed(px, outside, stack, sp, i - 1);
+            if (x < w - 1) sp = seed(px, outside, stack, sp, i + 1);
+            if (y > 0)     sp = seed(px, outside, stack, sp, i - w);
+            if (y < h - 1) sp = seed(px, outside, stack, sp, i + w);
+        }
+        for (int i = 0; i < px.length; i++) if (!outside[i]) px[i] = (byte) 255;
+    }
+
+    private static int seed(byte[] px, boolean[] outside, int[] stack, int sp, int i) {
+        if (px[i] == 0 && !outside[i]) { outside[i] = true; stack[sp++] = i; }
+        return sp;
+    }
+
+    /**
+     * Label map -> one ROI per label ID (named like MorphoLibJ's r%03d pattern), without the
+     * RoiManager. {@link LabelStats} gives every label's bounding box and first raster pixel;
+     * the outlines are then traced in parallel with an 8-connected {@link Wand} (pixel-corner
+     * vertices, like MorphoLibJ's "Vertex Location=Corners"). When the traced outline's area
+     * differs from the label's pixel count (several pieces, or holes) the label falls back to a
+     * per-bbox ThresholdToSelection so no pixels are lost or added.
+     */
+    public static Roi[] labelsToRois(ImageProcessor labels) {
+        ShortProcessor sp = asShortLabels(labels);
+        int w = sp.getWidth();
+        short[] px = (short[]) sp.getPixels();
+
+        // pass 1: bbox + first pixel of every label
+        LabelStats st = LabelStats.of(sp);
+        int maxId = st.maxId;
+        int[] bx0 = st.minX, by0 = st.minY, bx1 = st.maxX, by1 = st.maxY, first = st.first;
+
+        // pass 2: trace each label independently (read-only pixels, one Wand per label)
+        Roi[] byId = new Roi[maxId + 1];
+        Parallel.forEach(maxId, k -> {
+            int id = k + 1;
+            if (first[id] < 0) return;
+            Wand wand = new Wand(sp);
+            wand.autoOutline(first[id] % w, first[id] / w, id, id, Wand.EIGHT_CONNECTED);
+            Roi r = (wand.npoints > 0)
+                    ? new PolygonRoi(new Polygon(wand.xpoints, wand.ypoints, wand.npoints), Roi.TRACED_ROI)
+                    : null;
+            if (r == null || tracedArea(wand.xpoints, wand.ypoints, wand.npoints) != st.area[id]) {
+                // outline encloses a different pixel count: more pieces or holes
+                r = thresholdRoi(px, w, id, bx0[id], by0[id], bx1[id], by1[id]);
             }
+            if (r == null) return;
+            r.setName(String.format("r%03d", id));
+            byId[id] = r;
+        });
+
+        List<Roi> rois = new ArrayList<>();
+        for (int id = 1; id <= maxId; id++) if (byId[id] != null) rois.add(byId[id]);
+        return rois.toArray(new Roi[0]);
+    }
+
+    // shoelace area of a pixel-corner outline = number of pixels it encloses
+    private static long tracedArea(int[] xs, int[] ys, int n) {
+        long twice = 0;
+        for (int i = 0, j = n - 1; i < n; j = i++) twice += (long) xs[j] * ys[i] - (long) xs[i] * ys[j];
+        return Math.abs(twice) / 2;
+    }
+
+    private static Roi thresholdRoi(short[] px, int w, int id, int x0, int y0, int x1, int y1) {
+        int bw = x1 - x0 + 1, bh = y1 - y0 + 1;
+        ByteProcessor mask = new ByteProcessor(bw, bh);
+        for (int y = 0; y < bh; y++) {
+            int row = (y0 + y) * w + x0;
+            for (int x = 0; x < bw; x++) if ((px[row + x] & 0xFFFF) == id) mask.set(x, y, 255);
         }
-        ImagePlus binary = new ImagePlus("keep_bin", new ij.process.ByteProcessor(w,h,bin,null));
-        ImagePlus relabeled = PluginCalls.binaryToLabels(binary);
-        // adopt calibration
-        relabeled.setCalibration(huLabels.getCalibration());
-        binary.close();
-        return relabeled;
+        mask.setThreshold(255, 255, ImageProcessor.NO_LUT_UPDATE);
+        Roi r = new ThresholdToSelection().convert(mask);
+        if (r != null) r.setLocation(r.getXBase() + x0, r.getYBase() + y0);
+        return r;
     }
 
+    /**
+     * ROIs -> label map, ROI k (k-th area ROI) painted with ID k. Masks are scan-converted in
+     * parallel over the ROIs, then painted in parallel over row stripes; within a stripe ROIs are
+     * painted in order, so overlaps resolve exactly like filling one by one (later ROI wins).
+     * Returns 16-bit, or 32-bit float once there are more than 65535 ROIs.
+     */
+    public static ImageProcessor roisToLabels(Roi[] rois, int w, int h) {
+        List<Roi> area = new ArrayList<>();
+        if (rois != null) for (Roi r : rois) if (r != null && r.isArea()) area.add(r);
+        int n = area.size();
 
+        Rectangle[] box = new Rectangle[n];
+        ImageProcessor[] mask = new ImageProcessor[n];   // null = whole bbox
+        Parallel.forEach(n, k -> {
+            Roi r = area.get(k);
+            box[k] = r.getBounds();
+            mask[k] = (r.getType() == Roi.RECTANGLE && r.getCornerDiameter() == 0) ? null : r.getMask();
+        });
+
+        if (n <= 65535) {
+            short[] out = new short[w * h];
+            Parallel.forStripes(h, (s, ya, yb) -> {
+                for (int k = 0; k < n; k++) paint(box[k], mask[k], w, ya, yb, (x, i) -> out[i] = (short) x, k + 1);
+            });
+            return new ShortProcessor(w, h, out, null);
+        }
+        float[] out = new float[w * h];
+        Parallel.forStripes(h, (s, ya, yb) -> {
+            for (int k = 0; k < n; k++) paint(box[k], mask[k], w, ya, yb, (x, i) -> out[i] = x, k + 1);
+        });
+        return new FloatProcessor(w, h, out, null);
+    }
 
+    private interface Painter { void put(int id, int index); }
 
+    // paints rows [ya, yb) of one ROI, clipped to the image width
+    private static void paint(Rectangle b, ImageProcessor m, int w, int ya, int yb, Painter p, int id) {
+        int y0 = Math.max(b.y, ya), y1 = Math.min(b.y + b.height, yb);
+        int x0 = Math.max(b.x, 0), x1 = Math.min(b.x + b.width, w);
+        for (int y = y0; y < y1; y++) {
+            int row = y * w;
+            for (int x = x0; x < x1; x++) {
+                if (m == null || m.get(x - b.x, y - b.y) != 0) p.put(id, row + x);
+            }
+        }
+    }
 }
@@ -0,0 +1,185 @@
+package Features.Tools;
+
+import ij.measure.Calibration;
+import ij.process.ImageProcessor;
+
+import java.util.Arrays;
+
+/**
+ * Per-label statistics of a 16-bit label map from one pass over the pixel array: max ID, area,
+ * centroid, bounding box, first raster pixel and, optionally, how many pixels of each label
+ * fall on a non-zero pixel of a second map of the same size.
+ * <p>
+ * Rows are split into {@link Parallel} stripes; each stripe fills its own partial arrays (grown
+ * to the largest ID it meets) and the partials are merged in stripe order, so results do not
+ * depend on the thread count. Arrays are indexed by label ID; index 0 is background and unused.
+ */
+public final class LabelStats {
+
+    public final int width, height;
+    public final int maxId;
+    public final long[] area;
+    public final long[] sumX, sumY;          // centroid = sum / area
+    public final int[] minX, minY, maxX, maxY;
+    public final int[] first;                // first raster index of the label, -1 if absent
+    public final long[] overlap;             // pixels on a non-zero pixel of 'other'; null without it
+
+    private LabelStats(int width, int height, int maxId, boolean withOverlap) {
+        this.width = width;
+        this.height = height;
+        this.maxId = maxId;
+        int n = maxId + 1;
+        area = new long[n];
+        sumX = new long[n];
+        sumY = new long[n];
+        minX = new int[n];
+        minY = new int[n];
+        maxX = new int[n];
+        maxY = new int[n];
+        first = new int[n];
+        Arrays.fill(first, -1);
+        overlap = withOverlap ? new long[n] : null;
+    }
+
+    public static LabelStats of(ImageProcessor labels) {
+        return of(labels, null);
+    }
+
+    /** other may be null; otherwise it must have the same size as labels. */
+    public static LabelStats of(ImageProcessor labels, ImageProcessor other) {
+        int w = labels.getWidth(), h = labels.getHeight();
+        short[] px = (short[]) LabelOps.asShortLabels(labels).getPixels();
+        short[] ot = null;
+        if (other != null) {
+            if (other.getWidth() != w || other.getHeight() != h)
+                throw new IllegalArgumentException("Label maps differ in size: " + w + "x" + h
+                        + " vs " + other.getWidth() + "x" + other.getHeight());
+            ot = (short[]) LabelOps.asShortLabels(other).getPixels();
+        }
+        final short[] o = ot;
+
+        Partial[] parts = new Partial[Parallel.stripeCount(h)];
+        Parallel.forStripes(h, (s, ya, yb) -> {
+            Partial p = new Partial(o != null);
+            for (int y = ya; y < yb; y++) {
+                for (int x = 0, i = y * w; x < w; x++, i++) {
+                    int id = px[i] & 0xFFFF;
+                    if (id == 0) continue;
+                    if (id > p.max) p.grow(id);
+                    if (p.area[id]++ == 0) {
+                        p.first[id] = i;
+                        p.minX[id] = p.maxX[id] = x;
+                        p.minY[id] = y;
+                    } else {
+                        if (x < p.minX[id]) p.minX[id] = x;
+                        if (x > p.maxX[id]) p.maxX[id] = x;
+                    }
+                    p.maxY[id] = y;
+                    p.sumX[id] += x;
+                    p.sumY[id] += y;
+                    if (o != null && o[i] != 0) p.overlap[id]++;
+                }
+            }
+            parts[s] = p;
+        });
+
+        int maxId = 0;
+        for (Partial p : parts) if (p != null) maxId = Math.max(maxId, p.max);
+        LabelStats st = new LabelStats(w, h, maxId, o != null);
+        for (Partial p : parts) {          // stripe order = raster order
+            if (p == null) continue;
+            for (int id = 1; id <= p.max; id++) {
+                long a = p.area[id];
+                if (a == 0) continue;
+                if (st.area[id] == 0) {
+                    st.first[id] = p.first[id];
+                    st.minX[id] = p.minX[id];
+                    st.maxX[id] = p.maxX[id];
+                    st.minY[id] = p.minY[id];
+                } else {
+                    st.minX[id] = Math.min(st.minX[id], p.minX[id]);
+                    st.maxX[id] = Math.max(st.maxX[id], p.maxX[id]);
+                }
+                st.maxY[id] = p.maxY[id];
+                st.area[id] += a;
+                st.sumX[id] += p.sumX[id];
+                st.sumY[id] += p.sumY[id];
+                if (o != null) st.overlap[id] += p.overlap[id];
+            }
+        }
+        return st;
+    }
+
+    /** Largest ID only (a striped max scan, no per-label arrays). */
+    public static int maxId(ImageProcessor labels) {
+        int h = labels.getHeight(), w = labels.getWidth();
+        short[] px = (short[]) LabelOps.asShortLabels(labels).getPixels();
+        int[] max = new int[Parallel.stripeCount(h)];
+        Parallel.forStripes(h, (s, ya, yb) -> {
+            int m = 0;
+            for (int i = ya * w, end = yb * w; i < end; i++) { int u = px[i] & 0xFFFF; if (u > m) m = u; }
+            max[s] = m;
+        });
+        int m = 0;
+        for (int v : max) m = Math.max(m, v);
+        return m;
+    }
+
+    /** Number of IDs that occur (equals maxId for contiguous 1..K maps). */
+    public int count() {
+        int n = 0;
+        for (int id = 1; id <= maxId; id++) if (area[id] > 0) n++;
+        return n;
+    }
+
+    public double centroidX(int id) {
+        return area[id] > 0 ? sumX[id] / (double) area[id] : Double.NaN;
+    }
+
+    public double centroidY(int id) {
+        return area[id] > 0 ? sumY[id] / (double) area[id] : Double.NaN;
+    }
+
+    /** Fraction of label id on non-zero pixels of the second map (0 when absent). */
+    public double overlapFraction(int id) {
+        if (overlap == null) throw new IllegalStateException("No second label map was given.");
+        return area[id] > 0 ? overlap[id] / (double) area[id] : 0.0;
+    }
+
+    /** Areas in calibrated units² (pixelWidth², 1 if uncalibrated), indexed by ID. */
+    public double[] areaUm2(Calibration cal) {
+        double pxUm = (cal != null && cal.pixelWidth > 0) ? cal.pixelWidth : 1.0;
+        double s = pxUm * pxUm;
+        double[] out = new double[maxId + 1];
+        for (int id = 1; id <= maxId; id++) out[id] = area[id] * s;
+        return out;
+    }
+
+    // per-stripe sums, grown on demand so sparse stripes stay small
+    private static final class Partial {
+        int max = 0;
+        long[] area = new long[0], sumX = area, sumY = area, overlap;
+        int[] minX = new int[0], minY = minX, maxX = minX, maxY = minX, first = minX;
+        final boolean withOverlap;
+
+        Partial(boolean withOverlap) {
+            this.withOverlap = withOverlap;
+            overlap = withOverlap ? new long[0] : null;
+        }
+
+        void grow(int id) {
+            max = id;
+            if (id < area.length) return;
+            int n = Math.min(65536, Math.max(id + 1, area.length * 2));
+            area = Arrays.copyOf(area, n);
+            sumX = Arrays.copyOf(sumX, n);
+            sumY = Arrays.copyOf(sumY, n);
+            minX = Arrays.copyOf(minX, n);
+            minY = Arrays.copyOf(minY, n);
+            maxX = Arrays.copyOf(maxX, n);
+            maxY = Arrays.copyOf(maxY, n);
+            first = Arrays.copyOf(first, n);
+            if (withOverlap) overlap = Arrays.copyOf(overlap, n);
+        }
+    }
+}
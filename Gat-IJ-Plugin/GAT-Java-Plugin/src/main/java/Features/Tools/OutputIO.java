@@ -3,18 +3,29 @@ package Features.Tools;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.gui.Overlay;
+import ij.gui.Roi;
 import ij.io.FileSaver;
+import ij.io.RoiDecoder;
+import ij.io.RoiEncoder;
 import ij.plugin.frame.RoiManager;
 import ij.io.FileInfo;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 public final class OutputIO {
     private OutputIO(){}
 
-    public static File prepareOutputDir(String explicitParent, ImagePlus imp, String baseName) {
+    // synchronized: parallel batch workers must not pick the same unique folder
+    public static synchronized File prepareOutputDir(String explicitParent, ImagePlus imp, String baseName) {
         // 1) Resolve parent dir
         File parent;
         if (explicitParent != null && !explicitParent.trim().isEmpty()) {
@@ -44,6 +55,21 @@ public final class OutputIO {
         return out;
     }
 
+    /**
+     * Analysis/&lt;baseName&gt; under explicitParent (else the source file's folder), reused when it
+     * already exists instead of numbering a new one: resumable runs write into the same folder.
+     */
+    public static synchronized File stableOutputDir(String explicitParent, File source, String baseName) {
+        File parent = (explicitParent != null && !explicitParent.trim().isEmpty())
+                ? new File(explicitParent)
+                : source.getAbsoluteFile().getParentFile();
+        File out = new File(new File(parent, "Analysis"), baseName);
+        if (!out.isDirectory() && !out.mkdirs()) {
+            throw new IllegalStateException("Failed to create dir: " + out.getAbsolutePath());
+        }
+        return out;
+    }
+
     private static File uniqueDir(File target) {
         File parent = target.getParentFile();
         String name = target.getName();
@@ -70,6 +96,53 @@ public final class OutputIO {
         rm.runCommand("Save", zip.getAbsolutePath());
     }
 
+    /** Same zip layout as RoiManager "Save", written straight from an ROI array (no RoiManager). */
+    public static void saveRois(Roi[] rois, File zip) {
+        Set<String> used = new HashSet<>();
+        try (ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zip)));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(zos))) {
+            RoiEncoder re = new RoiEncoder(out);
+            for (int i = 0; i < rois.length; i++) {
+                Roi r = rois[i];
+                if (r == null) continue;
+                String name = (r.getName() != null && !r.getName().isEmpty()) ? r.getName() : String.format("r%04d", i + 1);
+                String entry = name;
+                for (int k = 1; !used.add(entry); k++) entry = name + "-" + k;
+                zos.putNextEntry(new ZipEntry(entry + ".roi"));
+                re.write(r);
+                out.flush();
+            }
+        } catch (IOException e) {
+            IJ.log("Failed writing ROI zip: " + e.getMessage());
+        }
+    }
+
+    /** Read every .roi entry of an ROI zip (or a single .roi file) without the RoiManager. */
+    public static Roi[] loadRois(File file) {
+        List<Roi> rois = new ArrayList<>();
+        if (!file.getName().toLowerCase().endsWith(".zip")) {
+            Roi r = RoiDecoder.open(file.getAbsolutePath());
+            if (r != null) rois.add(r);
+            return rois.toArray(new Roi[0]);
+        }
+        try (ZipInputStream zis = new ZipInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            ZipEntry e;
+            byte[] buf = new byte[8192];
+            while ((e = zis.getNextEntry()) != null) {
+                if (!e.getName().toLowerCase().endsWith(".roi")) continue;
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                int n;
+                while ((n = zis.read(buf)) > 0) bytes.write(buf, 0, n);
+                String name = e.getName().substring(0, e.getName().length() - 4);
+                Roi r = new RoiDecoder(bytes.toByteArray(), name).getRoi();
+                if (r != null) { r.setName(name); rois.add(r); }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed reading ROI zip " + file + ": " + e.getMessage(), e);
+        }
+        return rois.toArray(new Roi[0]);
+    }
+
     public static void saveTiff(ImagePlus imp, File out) {
         new FileSaver(imp).saveAsTiff(out.getAbsolutePath());
     }
@@ -92,6 +165,21 @@ public final class OutputIO {
         flat.changes = false; flat.close();
     }
 
+    /** Same output as the RoiManager variant, but the overlay is built from an ROI array. */
+    public static void saveFlattenedOverlay(ImagePlus base, Roi[] rois, File out) {
+        ImagePlus dup = base.duplicate();
+        Overlay ov = new Overlay();
+        for (Roi r : rois) if (r != null) ov.add((Roi) r.clone());
+        ov.drawLabels(true);
+        dup.setOverlay(ov);
+
+        ImagePlus flat = dup.flatten();
+        new ij.io.FileSaver(flat).saveAsTiff(out.getAbsolutePath());
+
+        dup.changes = false;  dup.close();
+        flat.changes = false; flat.close();
+    }
+
     public static void writeCountsCsv(File csv, String baseName, String cellType, int count) {
         try (PrintWriter pw = new PrintWriter(new FileWriter(csv))) {
             pw.println("File name,Total " + cellType);
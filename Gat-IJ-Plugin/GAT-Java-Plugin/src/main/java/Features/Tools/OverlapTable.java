@@ -0,0 +1,211 @@
+package Features.Tools;
+
+import ij.process.ImageProcessor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hu ID -> (pixel area, pixels on each marker) contingency, filled once per marker with a
+ * {@link LabelStats} pass. Hits are stored sparsely (only Hu IDs that touch the marker), so
+ * positivity at any overlap fraction, for one marker or the AND of several, is array arithmetic.
+ * {@link #positive(String, double)} matches {@link LabelOps#neuronsPositiveByOverlap}.
+ * Saved next to the run outputs as one CSV row per Hu ID.
+ */
+public final class OverlapTable {
+
+    public static final String FILE_PREFIX = "Hu_marker_overlap_";
+
+    private final long[] area;                                     // by Hu ID
+    private final Map<String, Hits> hits = new LinkedHashMap<>();  // marker -> sparse hits
+
+    private static final class Hits {
+        final int[] ids;      // ascending Hu IDs with at least one hit
+        final long[] px;
+
+        Hits(int[] ids, long[] px) {
+            this.ids = ids;
+            this.px = px;
+        }
+    }
+
+    private OverlapTable(long[] area) {
+        this.area = area;
+    }
+
+    /** Areas of every Hu label; add markers with {@link #add}. */
+    public static OverlapTable of(ImageProcessor huLabels) {
+        return new OverlapTable(LabelStats.of(huLabels).area);
+    }
+
+    /** Records marker hits for every Hu label (markerLabels: any non-zero pixel counts). */
+    public synchronized void add(String marker, ImageProcessor huLabels, ImageProcessor markerLabels) {
+        LabelStats st = LabelStats.of(huLabels, markerLabels);
+        if (st.maxId != maxHuId())
+            throw new IllegalArgumentException("Hu labels differ from the ones this table was built from.");
+        int n = 0;
+        for (int id = 1; id <= st.maxId; id++) if (st.overlap[id] > 0) n++;
+        int[] ids = new int[n];
+        long[] px = new long[n];
+        for (int id = 1, k = 0; id <= st.maxId; id++) {
+            if (st.overlap[id] > 0) { ids[k] = id; px[k++] = st.overlap[id]; }
+        }
+        hits.put(marker, new Hits(ids, px));
+    }
+
+    public int maxHuId() {
+        return area.length - 1;
+    }
+
+    public synchronized List<String> markers() {
+        return new ArrayList<>(hits.keySet());
+    }
+
+    /** Hu IDs (index) covered by the marker for at least frac of their pixels. */
+    public boolean[] positive(String marker, double frac) {
+        boolean[] keep = new boolean[area.length];
+        Hits h = hits(marker);
+        if (frac <= 0) {
+            for (int id = 1; id < area.length; id++) keep[id] = area[id] > 0;
+            return keep;
+        }
+        for (int k = 0; k < h.ids.length; k++) {
+            int id = h.ids[k];
+            keep[id] = h.px[k] / (double) area[id] >= frac;
+        }
+        return keep;
+    }
+
+    /** AND of {@link #positive(String, double)} over the given markers. */
+    public boolean[] positive(double frac, String... markers) {
+        if (markers.length == 0) throw new IllegalArgumentException("No markers given.");
+        boolean[] keep = positive(markers[0], frac);
+        for (int i = 1; i < markers.length; i++) {
+            boolean[] b = positive(markers[i], frac);
+            for (int id = 0; id < keep.length; id++) keep[id] &= b[id];
+        }
+        return keep;
+    }
+
+    /** Hu IDs that have pixels (the universe for {@link Phenotypes}). */
+    public BitSet present() {
+        BitSet b = new BitSet(area.length);
+        for (int id = 1; id < area.length; id++) if (area[id] > 0) b.set(id);
+        return b;
+    }
+
+    public int count(double frac, String... markers) {
+        int n = 0;
+        for (boolean b : positive(frac, markers)) if (b) n++;
+        return n;
+    }
+
+    /** Pixels of Hu label id on the marker (0 if none). */
+    public long hits(String marker, int id) {
+        Hits h = hits(marker);
+        int k = Arrays.binarySearch(h.ids, id);
+        return k >= 0 ? h.px[k] : 0;
+    }
+
+    public long area(int id) {
+        return area[id];
+    }
+
+    private synchronized Hits hits(String marker) {
+        Hits h = hits.get(marker);
+        if (h == null) throw new IllegalArgumentException("Unknown marker '" + marker + "'. Known: " + hits.keySet());
+        return h;
+    }
+
+    // ---------- CSV ----------
+
+    /** hu_id,area_px,&lt;marker&gt;_px,... for every Hu ID that has pixels. */
+    public synchronized void write(File csv) throws IOException {
+        List<String> names = markers();
+        try (PrintWriter pw = new PrintWriter(csv, "UTF-8")) {
+            StringBuilder head = new StringBuilder("hu_id,area_px");
+            for (String m : names) head.append(',').append(csvField(m + "_px"));
+            pw.println(head);
+            for (int id = 1; id < area.length; id++) {
+                if (area[id] == 0) continue;
+                StringBuilder row = new StringBuilder().append(id).append(',').append(area[id]);
+                for (String m : names) row.append(',').append(hits(m, id));
+                pw.println(row);
+            }
+        }
+    }
+
+    /** Reads a table written by {@link #write}. */
+    public static OverlapTable read(File csv) throws IOException {
+        List<long[]> rows = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(csv), StandardCharsets.UTF_8))) {
+            String header = br.readLine();
+            if (header == null || !header.startsWith("hu_id,area_px"))
+                throw new IOException("Not an overlap table: " + csv.getName());
+            List<String> cols = splitCsv(header);
+            for (int c = 2; c < cols.size(); c++) {
+                String col = cols.get(c);
+                names.add(col.endsWith("_px") ? col.substring(0, col.length() - 3) : col);
+            }
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                String[] f = line.split(",");
+                if (f.length != cols.size()) throw new IOException("Bad row in " + csv.getName() + ": " + line);
+                long[] r = new long[f.length];
+                for (int i = 0; i < f.length; i++) r[i] = Long.parseLong(f[i].trim());
+                rows.add(r);
+            }
+        }
+        rows.sort((a, b) -> Long.compare(a[0], b[0]));   // ascending IDs for binarySearch
+        int maxId = rows.isEmpty() ? 0 : (int) rows.get(rows.size() - 1)[0];
+        long[] area = new long[maxId + 1];
+        for (long[] r : rows) area[(int) r[0]] = r[1];
+        OverlapTable t = new OverlapTable(area);
+        for (int m = 0; m < names.size(); m++) {
+            int col = m + 2, n = 0;
+            for (long[] r : rows) if (r[col] > 0) n++;
+            int[] ids = new int[n];
+            long[] px = new long[n];
+            int k = 0;
+            for (long[] r : rows) if (r[col] > 0) { ids[k] = (int) r[0]; px[k++] = r[col]; }
+            t.hits.put(names.get(m), new Hits(ids, px));
+        }
+        return t;
+    }
+
+    private static String csvField(String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) return s;
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+
+    private static List<String> splitCsv(String line) {
+        List<String> out = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') { cur.append('"'); i++; }
+                else if (c == '"') quoted = false;
+                else cur.append(c);
+            } else if (c == '"') quoted = true;
+            else if (c == ',') { out.add(cur.toString()); cur.setLength(0); }
+            else cur.append(c);
+        }
+        out.add(cur.toString());
+        return out;
+    }
+}
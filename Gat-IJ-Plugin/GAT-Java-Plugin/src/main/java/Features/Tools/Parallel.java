@@ -0,0 +1,47 @@
+package Features.Tools;
+
+import ij.Prefs;
+
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Small data-parallel helpers for the pixel kernels. Thread count follows ImageJ's
+ * Edit > Options > Memory & Threads setting ({@link Prefs#getThreads()}).
+ */
+public final class Parallel {
+    private Parallel(){}
+
+    public static int threads() {
+        return Math.max(1, Prefs.getThreads());
+    }
+
+    /** body(i) for every i in [0, n); order is unspecified. */
+    public static void forEach(int n, IntConsumer body) {
+        if (n <= 0) return;
+        if (n == 1 || threads() == 1) {
+            for (int i = 0; i < n; i++) body.accept(i);
+            return;
+        }
+        IntStream.range(0, n).parallel().forEach(body);
+    }
+
+    /** Rows are split into this many contiguous stripes; size per-stripe scratch arrays with it. */
+    public static int stripeCount(int height) {
+        return Math.max(1, Math.min(height, threads()));
+    }
+
+    public interface StripeBody {
+        /** Process rows [y0, y1) as stripe number {@code stripe}. */
+        void run(int stripe, int y0, int y1);
+    }
+
+    /**
+     * Runs {@code body} once per row stripe (see {@link #stripeCount}). Stripe k always covers the
+     * same rows, so callers can merge per-stripe results in stripe order for deterministic output.
+     */
+    public static void forStripes(int height, StripeBody body) {
+        int n = stripeCount(height);
+        forEach(n, k -> body.run(k, (int) ((long) height * k / n), (int) ((long) height * (k + 1) / n)));
+    }
+}
@@ -0,0 +1,147 @@
+package Features.Tools;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Marker phenotypes as set algebra over {@link BitSet}s (64 members per word). Members are cell
+ * IDs when markers gate a common reference (Hu labels) or pixel indices when they do not
+ * (No-Hu masks); the engine does not care which.
+ * <p>
+ * Expressions like {@code "A+B-C"} (also U+2212 minus) combine markers with AND / AND NOT;
+ * marker names are matched longest-first, so names may themselves contain '+' or '-'.
+ * {@link #forEachCombination} walks marker subsets depth-first, carrying the running
+ * intersection, and prunes a branch as soon as it is empty (supersets can only shrink).
+ */
+public final class Phenotypes {
+
+    public static final class Phenotype {
+        public final String name;
+        public final List<String> positive, negative;
+        public final BitSet members;
+
+        Phenotype(String name, List<String> positive, List<String> negative, BitSet members) {
+            this.name = name;
+            this.positive = Collections.unmodifiableList(positive);
+            this.negative = Collections.unmodifiableList(negative);
+            this.members = members;
+        }
+
+        public int count() {
+            return members.cardinality();
+        }
+    }
+
+    private final BitSet universe;
+    private final Map<String, BitSet> markers = new LinkedHashMap<>();
+
+    /** universe: every member that exists (used for leading negations such as "-C"). */
+    public Phenotypes(BitSet universe) {
+        this.universe = (BitSet) universe.clone();
+    }
+
+    public void add(String marker, BitSet members) {
+        if (marker == null || marker.isEmpty()) throw new IllegalArgumentException("Marker name is empty.");
+        BitSet b = (BitSet) members.clone();
+        b.and(universe);
+        markers.put(marker, b);
+    }
+
+    public List<String> markers() {
+        return new ArrayList<>(markers.keySet());
+    }
+
+    public BitSet members(String marker) {
+        BitSet b = markers.get(marker);
+        if (b == null) throw new IllegalArgumentException("Unknown marker '" + marker + "'. Known: " + markers.keySet());
+        return b;
+    }
+
+    /** Positive markers ANDed, negative ones removed; no positives = universe minus negatives. */
+    public Phenotype evaluate(List<String> positive, List<String> negative) {
+        BitSet b = (BitSet) universe.clone();
+        for (String m : positive) { b.and(members(m)); if (b.isEmpty()) break; }
+        for (String m : negative) { if (b.isEmpty()) break; b.andNot(members(m)); }
+        StringBuilder name = new StringBuilder();
+        for (String m : positive) name.append(name.length() > 0 ? "+" : "").append(m);
+        for (String m : negative) name.append('-').append(m);
+        return new Phenotype(name.toString(), new ArrayList<>(positive), new ArrayList<>(negative), b);
+    }
+
+    /** Parses and evaluates e.g. "A+B-C"; the result keeps the expression as its name. */
+    public Phenotype evaluate(String expression) {
+        List<String> pos = new ArrayList<>(), neg = new ArrayList<>();
+        String s = expression.trim().replace('\u2212', '-');
+        int i = 0;
+        char op = '+';
+        if (!s.isEmpty() && (s.charAt(0) == '+' || s.charAt(0) == '-')) op = s.charAt(i++);
+        if (i >= s.length()) throw new IllegalArgumentException("Empty phenotype: '" + expression + "'");
+        while (true) {
+            String hit = null;
+            for (String m : markers.keySet()) {
+                int end = i + m.length();
+                if (s.startsWith(m, i) && (end == s.length() || s.charAt(end) == '+' || s.charAt(end) == '-')
+                        && (hit == null || m.length() > hit.length())) hit = m;
+            }
+            if (hit == null)
+                throw new IllegalArgumentException("Unknown marker at '" + s.substring(i) + "' in phenotype '"
+                        + expression + "'. Known: " + markers.keySet());
+            (op == '+' ? pos : neg).add(hit);
+            i += hit.length();
+            if (i == s.length()) break;
+            op = s.charAt(i++);     // '+' or '-', guaranteed by the match above
+            if (i == s.length()) throw new IllegalArgumentException("Phenotype ends with an operator: '" + expression + "'");
+        }
+        Phenotype p = evaluate(pos, neg);
+        return new Phenotype(expression.trim(), pos, neg, p.members);
+    }
+
+    /**
+     * Visits every non-empty intersection of minOrder..maxOrder markers (named "A+B+C", markers in
+     * insertion order), depth-first. Empty intersections are neither visited nor extended.
+     */
+    public void forEachCombination(int minOrder, int maxOrder, Consumer<Phenotype> visitor) {
+        List<String> names = markers();
+        walk(names, 0, null, new ArrayList<>(), Math.max(1, minOrder), Math.min(maxOrder, names.size()), visitor);
+    }
+
+    private void walk(List<String> names, int start, BitSet acc, List<String> chosen,
+                      int minOrder, int maxOrder, Consumer<Phenotype> visitor) {
+        for (int k = start; k < names.size(); k++) {
+            BitSet b = (BitSet) (acc == null ? members(names.get(k)) : acc).clone();
+            if (acc != null) b.and(members(names.get(k)));
+            if (b.isEmpty()) continue;
+            chosen.add(names.get(k));
+            if (chosen.size() >= minOrder)
+                visitor.accept(new Phenotype(String.join("+", chosen), new ArrayList<>(chosen), new ArrayList<>(), b));
+            if (chosen.size() < maxOrder) walk(names, k + 1, b, chosen, minOrder, maxOrder, visitor);
+            chosen.remove(chosen.size() - 1);
+        }
+    }
+
+    // ---------- conversions ----------
+
+    public static BitSet fromMask(boolean[] keep) {
+        BitSet b = new BitSet(keep.length);
+        for (int i = 0; i < keep.length; i++) if (keep[i]) b.set(i);
+        return b;
+    }
+
+    public static boolean[] toMask(BitSet b, int length) {
+        boolean[] keep = new boolean[length];
+        for (int i = b.nextSetBit(0); i >= 0 && i < length; i = b.nextSetBit(i + 1)) keep[i] = true;
+        return keep;
+    }
+
+    /** Non-zero pixels of a label map as pixel indices. */
+    public static BitSet fromLabels(short[] px) {
+        BitSet b = new BitSet(px.length);
+        for (int i = 0; i < px.length; i++) if (px[i] != 0) b.set(i);
+        return b;
+    }
+}
@@ -2,15 +2,40 @@ package Features.Tools;
 
 import javax.swing.*;
 import java.awt.*;
+import java.io.File;
+import java.io.IOException;
 
+/**
+ * Progress dialog + ImageJ status bar. Every {@link #step} is also a measured stage
+ * ({@link StageMetrics}); the bar shows an ETA from earlier runs and {@link #writeMetrics}
+ * saves the per-stage report next to the results.
+ */
 public final class ProgressUI implements AutoCloseable {
+    public static final String METRICS_FILE = "run_metrics.json";
+
     private final JDialog dialog;
     private final JProgressBar bar;
     private final JLabel label;
+    private final boolean quiet;
+    private final StageMetrics metrics;
+    private final Timer etaTimer;
     private int total = 100;
     private int current = 0;
+    private int steps = 0;
 
     public ProgressUI(String title) {
+        this(title, true);
+    }
+
+    /** showUi=false keeps only the step bookkeeping (no dialog, no ImageJ status bar), e.g. for batch workers. */
+    public ProgressUI(String title, boolean showUi) {
+        quiet = !showUi;
+        metrics = new StageMetrics(title, showUi);
+        // Headless batch nodes have no display: keep the step bookkeeping, skip the dialog.
+        if (quiet || GraphicsEnvironment.isHeadless()) {
+            dialog = null; bar = null; label = null; etaTimer = null;
+            return;
+        }
         dialog = new JDialog((Frame) null, title, false);
         Dimension fixedSize = new Dimension(300, 100);
         dialog.setPreferredSize(fixedSize);
@@ -26,6 +51,8 @@ public final class ProgressUI implements AutoCloseable {
         dialog.setLocationRelativeTo(null);
         dialog.setAlwaysOnTop(true);
         dialog.setVisible(true);
+        etaTimer = new Timer(1000, e -> showEta());
+        etaTimer.start();
     }
 
     public void start(int totalSteps) {
@@ -34,17 +61,40 @@ public final class ProgressUI implements AutoCloseable {
     }
 
     public void step(String msg) {
+        metrics.begin(msg);
+        steps++;
         set(current + 1, msg);
     }
 
+    /** Number of {@link #step} calls so far (unlike the bar position, not capped at the total). */
+    public int steps() {
+        return steps;
+    }
+
+    public StageMetrics metrics() {
+        return metrics;
+    }
+
+    /** Writes {@value #METRICS_FILE} (stages so far) into dir; failures are only logged. */
+    public void writeMetrics(File dir) {
+        if (dir == null) return;
+        metrics.end();
+        try {
+            metrics.writeJson(new File(dir, METRICS_FILE));
+        } catch (IOException e) {
+            ij.IJ.log("Could not write " + METRICS_FILE + ": " + e.getMessage());
+        }
+    }
+
     public void set(int step, String msg) {
         this.current = Math.max(0, Math.min(step, total));
         int pct = (int)Math.round(100.0 * current / total);
-        SwingUtilities.invokeLater(() -> {
+        if (dialog != null) SwingUtilities.invokeLater(() -> {
             label.setText(msg);
             bar.setValue(pct);
-            bar.setString(pct + "%");
+            bar.setString(barText(pct));
         });
+        if (quiet) return;
         // Also mirror to ImageJ status bar:
         ij.IJ.showStatus(msg);
         ij.IJ.showProgress(current, total);
@@ -52,28 +102,44 @@ public final class ProgressUI implements AutoCloseable {
 
     /** For long unknown-duration tasks, call periodically. */
     public void pulse(String msg) {
-        SwingUtilities.invokeLater(() -> {
+        if (dialog != null) SwingUtilities.invokeLater(() -> {
             label.setText(msg);
             bar.setIndeterminate(true);
         });
-        ij.IJ.showStatus(msg);
+        if (!quiet) ij.IJ.showStatus(msg);
     }
 
     public void stopPulse(String msg) {
-        SwingUtilities.invokeLater(() -> {
+        if (dialog != null) SwingUtilities.invokeLater(() -> {
             label.setText(msg);
             bar.setIndeterminate(false);
         });
-        ij.IJ.showStatus(msg);
+        if (!quiet) ij.IJ.showStatus(msg);
+    }
+
+    // EDT (timer): refresh the remaining-time estimate between steps
+    private void showEta() {
+        if (bar.isIndeterminate()) return;
+        bar.setString(barText(bar.getValue()));
+    }
+
+    private String barText(int pct) {
+        double eta = metrics.etaSeconds(current, total);
+        if (eta < 0) return pct + "%";
+        long s = Math.round(eta);
+        return String.format("%d%%  (~%d:%02d left)", pct, s / 60, s % 60);
     }
 
     @Override public void close() {
-        SwingUtilities.invokeLater(() -> dialog.dispose());
+        metrics.finish();
+        if (etaTimer != null) etaTimer.stop();
+        if (dialog != null) SwingUtilities.invokeLater(() -> dialog.dispose());
+        if (quiet) return;
         ij.IJ.showProgress(1.0);
         ij.IJ.showStatus("");
     }
 
     public void setVisible(boolean visible) {
-        SwingUtilities.invokeLater(() -> dialog.setVisible(visible));
+        if (dialog != null) SwingUtilities.invokeLater(() -> dialog.setVisible(visible));
     }
 }
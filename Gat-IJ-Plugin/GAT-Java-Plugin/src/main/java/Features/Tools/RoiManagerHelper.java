@@ -1,5 +1,6 @@
 package Features.Tools;
 
+import ij.gui.Roi;
 import ij.plugin.frame.RoiManager;
 
 /** Utilities for managing the global ImageJ RoiManager across workflows. */
@@ -33,6 +34,12 @@ public final class RoiManagerHelper {
         if (s != null) ref[0] = s;
     }
 
+    /** Replace the RoiManager contents with {@code rois} (e.g. from LabelOps.labelsToRois) for review. */
+    public static void fillRM(RoiManager rm, Roi[] rois) {
+        rm.reset();
+        for (Roi r : rois) rm.addRoi(r);
+    }
+
     /** Close the RoiManager only if we created it in this run; otherwise leave it alone. */
     public static void maybeCloseRM(RmHandle h) {
         if (h != null && h.weOpened && h.rm != null) {
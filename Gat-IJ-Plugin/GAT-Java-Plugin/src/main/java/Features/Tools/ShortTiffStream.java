@@ -0,0 +1,131 @@
+package Features.Tools;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Disk-backed 16-bit (unsigned) image, e.g. a label map, written as a plain (uncompressed, one
+ * strip per row, little-endian) TIFF that ImageJ opens directly as a ShortProcessor. Pixels live
+ * in the file, not the heap: callers read and write row segments, so memory stays bounded by what
+ * they hold. The header is written on {@link #close()}; classic TIFF, so the pixel data must stay
+ * below 4 GB.
+ */
+public final class ShortTiffStream implements Closeable {
+    private static final int HEADER = 8;
+
+    private final RandomAccessFile raf;
+    private final int width, height;
+    private final double pixelWidthUm;
+    private boolean closed;
+
+    /** pixelWidthUm <= 0 leaves the image uncalibrated. */
+    public ShortTiffStream(File out, int width, int height, double pixelWidthUm) throws IOException {
+        long bytes = (long) width * height * 2L;
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("Bad image size: " + width + "x" + height);
+        if (bytes > 0xFFFF_FFFFL - (1 << 20) - 16L * height)
+            throw new IllegalArgumentException("Label map too large for a classic TIFF: " + width + "x" + height);
+        this.width = width;
+        this.height = height;
+        this.pixelWidthUm = pixelWidthUm;
+        this.raf = new RandomAccessFile(out, "rw");
+        raf.setLength(0);
+        raf.setLength(HEADER + bytes);   // zero-filled (sparse where the FS allows)
+    }
+
+    public int getWidth()  { return width; }
+    public int getHeight() { return height; }
+
+    /** Reads n pixels of row y starting at x into dst[0..n). */
+    public void readRow(int y, int x, int n, short[] dst) throws IOException {
+        byte[] buf = new byte[n * 2];
+        raf.seek(offset(x, y));
+        raf.readFully(buf);
+        ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(dst, 0, n);
+    }
+
+    /** Writes src[0..n) to row y starting at x. */
+    public void writeRow(int y, int x, int n, short[] src) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(n * 2).order(ByteOrder.LITTLE_ENDIAN);
+        bb.asShortBuffer().put(src, 0, n);
+        raf.seek(offset(x, y));
+        raf.write(bb.array());
+    }
+
+    private long offset(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) throw new IndexOutOfBoundsException(x + "," + y);
+        return HEADER + ((long) y * width + x) * 2L;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            writeDirectory();
+        } finally {
+            raf.close();
+        }
+    }
+
+    // IFD after the pixel data; strips are the rows, so offsets/counts are arrays of height entries
+    private void writeDirectory() throws IOException {
+        boolean cal = pixelWidthUm > 0;
+        byte[] desc = ("ImageJ=1.54\n" + (cal ? "unit=micron\n" : "") + "\0").getBytes(StandardCharsets.US_ASCII);
+        int nTags = cal ? 14 : 11;
+
+        long ifd = HEADER + (long) width * height * 2L;
+        long extra = ifd + 2 + 12L * nTags + 4;
+        long offsArr = extra, countsArr = offsArr + 4L * height, descPos = countsArr + 4L * height;
+        long resPos = descPos + desc.length + (desc.length & 1);
+
+        ByteBuffer b = ByteBuffer.allocate((int) (resPos + 16 - ifd)).order(ByteOrder.LITTLE_ENDIAN);
+        b.putShort((short) nTags);
+        tag(b, 256, 4, 1, width);                      // ImageWidth
+        tag(b, 257, 4, 1, height);                     // ImageLength
+        tag(b, 258, 3, 1, 16);                         // BitsPerSample
+        tag(b, 259, 3, 1, 1);                          // Compression: none
+        tag(b, 262, 3, 1, 1);                          // Photometric: min-is-black
+        tag(b, 270, 2, desc.length, descPos);          // ImageDescription (ImageJ header)
+        tag(b, 273, 4, height, offsArr);               // StripOffsets
+        tag(b, 277, 3, 1, 1);                          // SamplesPerPixel
+        tag(b, 278, 4, 1, 1);                          // RowsPerStrip
+        tag(b, 279, 4, height, countsArr);             // StripByteCounts
+        if (cal) {
+            tag(b, 282, 5, 1, resPos);                 // XResolution (pixels per micron)
+            tag(b, 283, 5, 1, resPos + 8);             // YResolution
+            tag(b, 296, 3, 1, 1);                      // ResolutionUnit: none (unit comes from the description)
+        }
+        tag(b, 339, 3, 1, 1);                          // SampleFormat: unsigned integer
+        b.putInt(0);                                   // no next IFD
+        for (int y = 0; y < height; y++) b.putInt((int) (HEADER + (long) y * width * 2L));
+        for (int y = 0; y < height; y++) b.putInt(width * 2);
+        b.put(desc);
+        if ((desc.length & 1) == 1) b.put((byte) 0);
+        if (cal) {
+            long den = 1_000_000L;
+            long num = Math.max(1L, Math.round(den / pixelWidthUm));
+            b.putInt((int) num).putInt((int) den);
+            b.putInt((int) num).putInt((int) den);
+        }
+
+        raf.seek(ifd);
+        raf.write(b.array(), 0, b.position());
+
+        ByteBuffer head = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        head.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt((int) ifd);
+        raf.seek(0);
+        raf.write(head.array());
+    }
+
+    // tags must be written in ascending order; 'value' is either the value itself or an offset
+    private static void tag(ByteBuffer b, int tag, int type, int count, long value) {
+        b.putShort((short) tag).putShort((short) type).putInt(count);
+        if (type == 3 && count == 1) b.putShort((short) value).putShort((short) 0);
+        else b.putInt((int) value);
+    }
+}
@@ -0,0 +1,372 @@
+package Features.Tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Per-stage resource accounting behind {@link ProgressUI}: wall time, CPU time, allocated bytes
+ * and heap high-water mark of every step, plus an ETA from earlier runs' stage durations.
+ * <p>
+ * CPU, allocation and heap figures are process-wide (StarDist and the parallel kernels run on
+ * other threads), so batch workers running concurrently share them; wall time is exact. The heap
+ * high-water mark is the largest used heap sampled while the stage ran (every
+ * {@value #HEAP_SAMPLE_MS} ms), so concurrent stages never reset each other's peaks.
+ * Stage durations are remembered per progress title in ~/.gat/stage-history.properties
+ * (moving average, digits in labels folded) together with the last run's stage order, and
+ * pipelines record their step counts there ({@link #recordSteps}) to size the progress bar.
+ * Time spent waiting for the user ({@link #pause}/{@link #resume}) is left out of a stage's wall
+ * time and reported separately; stages that waited are kept out of the history.
+ */
+public final class StageMetrics {
+
+    public static final class Stage {
+        public final String name;
+        public long wallNs, userWaitNs, cpuNs = -1, allocatedBytes = -1, heapPeakBytes = -1;
+
+        Stage(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final double HISTORY_WEIGHT = 0.3;   // weight of the newest run in the moving average
+    static final long HEAP_SAMPLE_MS = 50;
+
+    // metrics with an open stage; one shared daemon samples the heap for all of them
+    private static final Set<StageMetrics> SAMPLED = Collections.newSetFromMap(new WeakHashMap<>());
+    private static Thread sampler;
+
+    private final String title;
+    private final long startedMs = System.currentTimeMillis();
+    private final List<Stage> stages = new ArrayList<>();
+    private final Map<String, Double> history;   // normalised label -> seconds
+    private final List<String> lastOrder;
+
+    private Stage open;
+    private long t0, cpu0, heapMax;
+    private long pausedAt = -1, pausedNs;
+    private Map<Long, Long> alloc0;
+
+    /** withHistory=false neither reads nor updates the history file (e.g. per-file batch workers). */
+    public StageMetrics(String title, boolean withHistory) {
+        this.title = title;
+        if (withHistory) {
+            Properties h = loadHistory();
+            history = new HashMap<>();
+            String prefix = title + "|";
+            for (String k : h.stringPropertyNames()) {
+                if (!k.startsWith(prefix)) continue;
+                try { history.put(k.substring(prefix.length()), Double.valueOf(h.getProperty(k))); }
+                catch (NumberFormatException ignore) {}
+            }
+            String order = h.getProperty("order." + title);
+            lastOrder = new ArrayList<>();
+            if (order != null && !order.isEmpty()) Collections.addAll(lastOrder, order.split("\t"));
+        } else {
+            history = null;
+            lastOrder = Collections.emptyList();
+        }
+    }
+
+    /** Ends the running stage (if any) and starts measuring the next one. */
+    public synchronized void begin(String name) {
+        end();
+        open = new Stage(name);
+        heapMax = heapUsed();
+        pausedAt = -1;
+        pausedNs = 0;
+        watch(this);
+        alloc0 = threadAllocations();
+        cpu0 = processCpuNs();
+        t0 = System.nanoTime();
+    }
+
+    public synchronized void end() {
+        if (open == null) return;
+        resume();
+        open.wallNs = System.nanoTime() - t0 - pausedNs;
+        open.userWaitNs = pausedNs;
+        long cpu = processCpuNs();
+        if (cpu >= 0 && cpu0 >= 0) open.cpuNs = cpu - cpu0;
+        Map<Long, Long> alloc = threadAllocations();
+        if (alloc != null && alloc0 != null) {
+            long sum = 0;
+            for (Map.Entry<Long, Long> e : alloc.entrySet()) {
+                Long before = alloc0.get(e.getKey());
+                sum += e.getValue() - (before != null ? before : 0L);
+            }
+            open.allocatedBytes = sum;
+        }
+        synchronized (SAMPLED) { SAMPLED.remove(this); }
+        open.heapPeakBytes = Math.max(heapMax, heapUsed());
+        stages.add(open);
+        open = null;
+    }
+
+    /** Stops the running stage's clock while an interactive dialog waits for the user. */
+    public synchronized void pause() {
+        if (open != null && pausedAt < 0) pausedAt = System.nanoTime();
+    }
+
+    /** Restarts the clock stopped by {@link #pause}; harmless when not paused. */
+    public synchronized void resume() {
+        if (pausedAt < 0) return;
+        pausedNs += System.nanoTime() - pausedAt;
+        pausedAt = -1;
+    }
+
+    private synchronized void observeHeap(long used) {
+        if (open != null && used > heapMax) heapMax = used;
+    }
+
+    public synchronized List<Stage> stages() {
+        return new ArrayList<>(stages);
+    }
+
+    /**
+     * Seconds left, or -1 when unknown. Uses the remembered durations of this stage and of the
+     * stages that followed it last time; without history, the mean of the finished stages times
+     * the steps left.
+     */
+    public synchronized double etaSeconds(int current, int total) {
+        double elapsed = 0;
+        if (open != null) {
+            long now = (pausedAt >= 0) ? pausedAt : System.nanoTime();
+            elapsed = (now - t0 - pausedNs) / 1e9;
+        }
+        String cur = (open != null) ? normalise(open.name) : null;
+        if (history != null && cur != null && history.containsKey(cur)) {
+            double eta = Math.max(0, history.get(cur) - elapsed);
+            int at = lastOrder.indexOf(cur);
+            if (at >= 0) {
+                for (int i = at + 1; i < lastOrder.size(); i++) {
+                    Double d = history.get(lastOrder.get(i));
+                    if (d != null) eta += d;
+                }
+                return eta;
+            }
+        }
+        if (stages.isEmpty()) return -1;
+        double done = 0;
+        for (Stage s : stages) done += s.wallNs / 1e9;
+        double mean = done / stages.size();
+        return Math.max(0, mean - elapsed) + mean * Math.max(0, total - current);
+    }
+
+    /**
+     * Ends the running stage and folds this run's durations into the history file. Stages that
+     * waited for the user are skipped: their length depends on the reviewer, not the data.
+     */
+    public void finish() {
+        end();
+        if (history == null) return;
+        List<Stage> done = stages();
+        if (done.isEmpty()) return;
+        synchronized (StageMetrics.class) {
+            Properties h = loadHistory();
+            StringBuilder order = new StringBuilder();
+            for (Stage s : done) {
+                if (s.userWaitNs > 0) continue;
+                String k = normalise(s.name);
+                String prop = title + "|" + k;
+                double sec = s.wallNs / 1e9;
+                String old = h.getProperty(prop);
+                try {
+                    if (old != null) sec = (1 - HISTORY_WEIGHT) * Double.parseDouble(old) + HISTORY_WEIGHT * sec;
+                } catch (NumberFormatException ignore) {}
+                h.setProperty(prop, String.format(Locale.US, "%.3f", sec));
+                if (order.length() > 0) order.append('\t');
+                order.append(k);
+            }
+            if (order.length() == 0) return;
+            h.setProperty("order." + title, order.toString());
+            storeHistory(h);
+        }
+    }
+
+    /** Step count last recorded under key with {@link #recordSteps}, or -1 if none. */
+    public static int recordedSteps(String key) {
+        synchronized (StageMetrics.class) {
+            try {
+                return Integer.parseInt(loadHistory().getProperty("steps." + key, "-1"));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+
+    /** Remembers how many progress steps a completed run of the pipeline variant key took. */
+    public static void recordSteps(String key, int steps) {
+        if (steps <= 0) return;
+        synchronized (StageMetrics.class) {
+            Properties h = loadHistory();
+            String v = String.valueOf(steps);
+            if (v.equals(h.getProperty("steps." + key))) return;
+            h.setProperty("steps." + key, v);
+            storeHistory(h);
+        }
+    }
+
+    /** run_metrics.json: one entry per stage plus totals. */
+    public void writeJson(File out) throws IOException {
+        List<Stage> done = stages();
+        long wall = 0, wait = 0, cpu = 0, alloc = 0, peak = 0;
+        for (Stage s : done) {
+            wall += s.wallNs;
+            wait += s.userWaitNs;
+            cpu += Math.max(0, s.cpuNs);
+            alloc += Math.max(0, s.allocatedBytes);
+            peak = Math.max(peak, s.heapPeakBytes);
+        }
+        SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX", Locale.ROOT);
+        try (PrintWriter pw = new PrintWriter(out, "UTF-8")) {
+            pw.println("{");
+            pw.println("  \"title\": " + quote(title) + ",");
+            pw.println("  \"started\": " + quote(iso.format(new Date(startedMs))) + ",");
+            pw.println("  \"threads\": " + Parallel.threads() + ",");
+            pw.println("  \"max_heap_mb\": " + mb(Runtime.getRuntime().maxMemory()) + ",");
+            pw.println("  \"total_wall_s\": " + sec(wall) + ",");
+            pw.println("  \"total_user_wait_s\": " + sec(wait) + ",");
+            pw.println("  \"total_cpu_s\": " + sec(cpu) + ",");
+            pw.println("  \"total_allocated_mb\": " + mb(alloc) + ",");
+            pw.println("  \"heap_peak_mb\": " + mb(peak) + ",");
+            pw.println("  \"stages\": [");
+            for (int i = 0; i < done.size(); i++) {
+                Stage s = done.get(i);
+                pw.print("    {\"name\": " + quote(s.name)
+                        + ", \"wall_s\": " + sec(s.wallNs)
+                        + ", \"user_wait_s\": " + sec(s.userWaitNs)
+                        + ", \"cpu_s\": " + (s.cpuNs >= 0 ? sec(s.cpuNs) : "null")
+                        + ", \"allocated_mb\": " + (s.allocatedBytes >= 0 ? mb(s.allocatedBytes) : "null")
+                        + ", \"heap_peak_mb\": " + (s.heapPeakBytes >= 0 ? mb(s.heapPeakBytes) : "null") + "}");
+                pw.println(i + 1 < done.size() ? "," : "");
+            }
+            pw.println("  ]");
+            pw.println("}");
+        }
+    }
+
+    // "Segmenting at rescale factor 0.50" and "... 1.00" share one history entry
+    static String normalise(String label) {
+        return label.replaceAll("[0-9]+([.,][0-9]+)?", "#").trim();
+    }
+
+    private static File historyFile() {
+        return new File(new File(System.getProperty("user.home"), ".gat"), "stage-history.properties");
+    }
+
+    private static void storeHistory(Properties h) {
+        File f = historyFile();
+        File dir = f.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) return;
+        try (OutputStream os = new FileOutputStream(f)) {
+            h.store(os, "GAT stage durations (seconds)");
+        } catch (IOException e) {
+            ij.IJ.log("Could not save stage history: " + e.getMessage());
+        }
+    }
+
+    private static Properties loadHistory() {
+        Properties h = new Properties();
+        File f = historyFile();
+        if (!f.isFile()) return h;
+        try (InputStream is = new FileInputStream(f)) {
+            h.load(is);
+        } catch (IOException | IllegalArgumentException e) {
+            ij.IJ.log("Ignoring unreadable stage history: " + e.getMessage());
+        }
+        return h;
+    }
+
+    private static void watch(StageMetrics m) {
+        synchronized (SAMPLED) {
+            SAMPLED.add(m);
+            if (sampler != null) return;
+            sampler = new Thread(StageMetrics::sampleHeap, "GAT heap sampler");
+            sampler.setDaemon(true);
+            sampler.start();
+        }
+    }
+
+    // exits when no stage is open; watch() starts a new one
+    private static void sampleHeap() {
+        while (true) {
+            try {
+                Thread.sleep(HEAP_SAMPLE_MS);
+            } catch (InterruptedException e) {
+                synchronized (SAMPLED) { sampler = null; }
+                return;
+            }
+            List<StageMetrics> open;
+            synchronized (SAMPLED) {
+                if (SAMPLED.isEmpty()) { sampler = null; return; }
+                open = new ArrayList<>(SAMPLED);
+            }
+            long used = heapUsed();
+            for (StageMetrics m : open) m.observeHeap(used);
+        }
+    }
+
+    private static long heapUsed() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP && pool.getUsage() != null) used += pool.getUsage().getUsed();
+        return used;
+    }
+
+    private static long processCpuNs() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        return -1;
+    }
+
+    private static Map<Long, Long> threadAllocations() {
+        ThreadMXBean tm = ManagementFactory.getThreadMXBean();
+        if (!(tm instanceof com.sun.management.ThreadMXBean)) return null;
+        com.sun.management.ThreadMXBean st = (com.sun.management.ThreadMXBean) tm;
+        if (!st.isThreadAllocatedMemorySupported() || !st.isThreadAllocatedMemoryEnabled()) return null;
+        long[] ids = st.getAllThreadIds();
+        long[] bytes = st.getThreadAllocatedBytes(ids);
+        Map<Long, Long> m = new HashMap<>(ids.length * 2);
+        for (int i = 0; i < ids.length; i++) if (bytes[i] >= 0) m.put(ids[i], bytes[i]);
+        return m;
+    }
+
+    private static String sec(long ns) {
+        return String.format(Locale.US, "%.3f", ns / 1e9);
+    }
+
+    private static String mb(long bytes) {
+        return String.format(Locale.US, "%.1f", bytes / (1024.0 * 1024.0));
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -1,6 +1,8 @@
 package UI.panes.Results;
 
+import Features.AnalyseWorkflows.NeuronsMultiPipeline;
 import Features.AnalyseWorkflows.NeuronsMultiPipeline.MultiResult;
+import Features.Tools.Phenotypes;
 import ij.IJ;
 import ij.ImagePlus;
 
@@ -105,6 +107,7 @@ public class ResultsMultiUI {
         tableScroll.getViewport().setBackground(summary.getBackground());
 
         center.add(tableScroll);
+        if (r.overlap != null) center.add(makeOverlapSlider(r, summary));
 
         // Tabs: Markers vs Combinations
         center.add(Box.createVerticalStrut(10));
@@ -226,6 +229,43 @@ public class ResultsMultiUI {
         return t;
     }
 
+    /**
+     * Re-gates the automatic (pre-review) counts at another overlap fraction from the saved
+     * Hu x marker table; adds an "auto_at_overlap" column to the summary and keeps it live.
+     */
+    private static JPanel makeOverlapSlider(MultiResult r, JTable summary) {
+        DefaultTableModel model = (DefaultTableModel) summary.getModel();
+        model.addColumn("auto_at_overlap");
+        JLabel label = new JLabel();
+        int start = Double.isNaN(r.overlapFrac) ? 40 : (int) Math.round(r.overlapFrac * 100);
+        JSlider slider = new JSlider(0, 100, Math.max(0, Math.min(100, start)));
+        Runnable update = () -> {
+            double frac = slider.getValue() / 100.0;
+            label.setText(String.format(Locale.US, "Overlap fraction %.2f", frac));
+            Phenotypes ph = NeuronsMultiPipeline.markerPhenotypes(r.overlap, frac);
+            List<String> markers = ph.markers();
+            for (int row = 0; row < model.getRowCount(); row++) {
+                // row names are marker names or phenotype names ("A+B", "A+B-C"), resolved by Phenotypes
+                String key = String.valueOf(model.getValueAt(row, 0));
+                Object n;
+                try {
+                    n = markers.contains(key) ? ph.members(key).cardinality() : ph.evaluate(key).count();
+                } catch (IllegalArgumentException notAPhenotype) {
+                    n = "";
+                }
+                model.setValueAt(n, row, model.getColumnCount() - 1);
+            }
+        };
+        slider.addChangeListener(e -> update.run());
+        update.run();
+        JPanel p = new JPanel(new BorderLayout(8, 0));
+        p.setBorder(new EmptyBorder(4, 0, 0, 0));
+        p.add(label, BorderLayout.WEST);
+        p.add(slider, BorderLayout.CENTER);
+        p.setMaximumSize(new Dimension(Integer.MAX_VALUE, p.getPreferredSize().height));
+        return p;
+    }
+
     // ---------- plotting ----------
 
     private static BufferedImage makeBoxPlotFromCounts(int[] countsPerGanglion) {
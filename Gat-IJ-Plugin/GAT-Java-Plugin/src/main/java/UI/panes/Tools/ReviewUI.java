@@ -1,14 +1,13 @@
 
         package UI.panes.Tools;
 
+import Features.Tools.LabelOps;
+import Features.Tools.LabelStats;
 import ij.IJ;
 import ij.ImagePlus;
-import ij.gui.Roi;
 import ij.gui.WaitForUserDialog;
 import ij.measure.Calibration;
 import ij.plugin.frame.RoiManager;
-import ij.process.ImageProcessor;
-import ij.process.ShortProcessor;
 
 public final class ReviewUI {
     private ReviewUI(){}
@@ -57,29 +56,13 @@ public final class ReviewUI {
     }
 
     private static ImagePlus labelsFromRois(int w, int h, Calibration cal, RoiManager rm) {
-        ShortProcessor sp = new ShortProcessor(w, h);
-        ImageProcessor ip = sp;
-        Roi[] rois = rm.getRoisAsArray();
-        int id = 1;
-        for (Roi r : rois) {
-            if (r == null || !r.isArea()) continue; // skip points/lines
-            ip.setRoi(r);
-            ip.setValue(id & 0xFFFF);
-            ip.fill();                 // <-- KEY FIX: fill at ROI’s true position
-            id++;
-        }
-        ImagePlus out = new ImagePlus("labels_from_review", sp);
+        // area ROIs get IDs 1..N in RoiManager order; points/lines are skipped
+        ImagePlus out = new ImagePlus("labels_from_review", LabelOps.roisToLabels(rm.getRoisAsArray(), w, h));
         out.setCalibration(cal);
         return out;
     }
 
-    private static int countLabels(ImagePlus labels16) {
-        short[] px = (short[]) labels16.getProcessor().getPixels();
-        int max = 0;
-        for (short v : px) {
-            int u = v & 0xFFFF;
-            if (u > max) max = u;
-        }
-        return max;
+    private static int countLabels(ImagePlus labels) {
+        return LabelStats.maxId(labels.getProcessor());
     }
 }
@@ -0,0 +1,65 @@
+package Features.Tools;
+
+import ij.process.ByteProcessor;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/** The separable EDT against a brute-force nearest-pixel search. */
+public class DistanceTransformTest {
+
+    // squared distance to the nearest pixel whose "is foreground" equals toForeground
+    private static float[] bruteForce(byte[] mask, int w, int h, boolean toForeground) {
+        float[] d = new float[w * h];
+        for (int i = 0; i < d.length; i++) {
+            int x = i % w, y = i / w;
+            long best = Long.MAX_VALUE;
+            for (int j = 0; j < d.length; j++) {
+                if ((mask[j] != 0) != toForeground) continue;
+                long dx = j % w - x, dy = j / w - y;
+                best = Math.min(best, dx * dx + dy * dy);
+            }
+            d[i] = (best == Long.MAX_VALUE) ? Float.POSITIVE_INFINITY : best;
+        }
+        return d;
+    }
+
+    private static byte[] randomMask(Random rnd, int n, double fill) {
+        byte[] m = new byte[n];
+        for (int i = 0; i < n; i++) if (rnd.nextDouble() < fill) m[i] = (byte) 255;
+        return m;
+    }
+
+    @Test
+    public void squaredEdtMatchesBruteForce() {
+        Random rnd = new Random(7);
+        for (int[] size : new int[][]{{1, 1}, {1, 17}, {17, 1}, {23, 19}, {64, 48}}) {
+            int w = size[0], h = size[1];
+            for (double fill : new double[]{0.0, 0.02, 0.3, 0.9, 1.0}) {
+                byte[] mask = randomMask(rnd, w * h, fill);
+                for (boolean toForeground : new boolean[]{false, true}) {
+                    float[] want = bruteForce(mask, w, h, toForeground);
+                    float[] got = DistanceTransform.squaredEdt(mask, w, h, toForeground);
+                    for (int i = 0; i < want.length; i++)
+                        assertEquals(w + "x" + h + " fill " + fill + " fg " + toForeground + " at " + i,
+                                want[i], got[i], 0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void dilateGrowsRoundDisc() {
+        int w = 41, h = 41;
+        ByteProcessor mask = new ByteProcessor(w, h);
+        mask.set(20, 20, 255);
+        DistanceTransform.dilate(mask, 10.0);
+        for (int y = 0; y < h; y++)
+            for (int x = 0; x < w; x++) {
+                int dx = x - 20, dy = y - 20;
+                assertEquals(x + "," + y, dx * dx + dy * dy <= 100 ? 255 : 0, mask.get(x, y));
+            }
+    }
+}
@@ -0,0 +1,80 @@
+package Features.Tools;
+
+import ij.process.ShortProcessor;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/** LabelStats against a plain per-pixel scan on random label maps. */
+public class LabelStatsTest {
+
+    private static ShortProcessor randomLabels(Random rnd, int w, int h, int maxId, double fill) {
+        ShortProcessor ip = new ShortProcessor(w, h);
+        short[] px = (short[]) ip.getPixels();
+        for (int i = 0; i < px.length; i++)
+            if (rnd.nextDouble() < fill) px[i] = (short) (1 + rnd.nextInt(maxId));
+        return ip;
+    }
+
+    @Test
+    public void matchesNaiveScan() {
+        Random rnd = new Random(42);
+        for (int[] size : new int[][]{{1, 1}, {7, 3}, {64, 97}, {301, 211}}) {
+            int w = size[0], h = size[1];
+            // IDs above 32767 check the unsigned read
+            ShortProcessor labels = randomLabels(rnd, w, h, rnd.nextBoolean() ? 40 : 65535, 0.6);
+            ShortProcessor other = randomLabels(rnd, w, h, 5, 0.5);
+            short[] px = (short[]) labels.getPixels(), ot = (short[]) other.getPixels();
+
+            int maxId = 0;
+            for (short v : px) maxId = Math.max(maxId, v & 0xFFFF);
+            long[] area = new long[maxId + 1], overlap = new long[maxId + 1];
+            int[] minX = new int[maxId + 1], minY = new int[maxId + 1], maxX = new int[maxId + 1], maxY = new int[maxId + 1];
+            for (int id = 0; id <= maxId; id++) { minX[id] = minY[id] = Integer.MAX_VALUE; maxX[id] = maxY[id] = -1; }
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++) {
+                    int id = px[y * w + x] & 0xFFFF;
+                    if (id == 0) continue;
+                    area[id]++;
+                    if (ot[y * w + x] != 0) overlap[id]++;
+                    minX[id] = Math.min(minX[id], x);
+                    minY[id] = Math.min(minY[id], y);
+                    maxX[id] = Math.max(maxX[id], x);
+                    maxY[id] = Math.max(maxY[id], y);
+                }
+            }
+
+            LabelStats st = LabelStats.of(labels, other);
+            String at = w + "x" + h;
+            assertEquals(at, maxId, st.maxId);
+            assertEquals(at, maxId, LabelStats.maxId(labels));
+            assertArrayEquals(at, area, st.area);
+            assertArrayEquals(at, overlap, st.overlap);
+            int present = 0;
+            for (int id = 1; id <= maxId; id++) {
+                if (area[id] == 0) continue;
+                present++;
+                assertEquals(at + " id " + id, minX[id], st.minX[id]);
+                assertEquals(at + " id " + id, minY[id], st.minY[id]);
+                assertEquals(at + " id " + id, maxX[id], st.maxX[id]);
+                assertEquals(at + " id " + id, maxY[id], st.maxY[id]);
+            }
+            assertEquals(at, present, st.count());
+        }
+    }
+
+    @Test
+    public void emptyMapHasNoLabels() {
+        LabelStats st = LabelStats.of(new ShortProcessor(10, 10));
+        assertEquals(0, st.maxId);
+        assertEquals(0, st.count());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMismatchedSizes() {
+        LabelStats.of(new ShortProcessor(10, 10), new ShortProcessor(10, 11));
+    }
+}
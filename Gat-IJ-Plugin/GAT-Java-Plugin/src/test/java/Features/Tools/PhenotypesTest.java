@@ -0,0 +1,81 @@
+package Features.Tools;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/** Phenotype expressions on hand-built marker sets. */
+public class PhenotypesTest {
+
+    private static BitSet bits(int... members) {
+        BitSet b = new BitSet();
+        for (int m : members) b.set(m);
+        return b;
+    }
+
+    private static Phenotypes sample() {
+        BitSet universe = new BitSet();
+        universe.set(1, 11);                       // cells 1..10
+        Phenotypes ph = new Phenotypes(universe);
+        ph.add("A", bits(1, 2, 3, 4, 5, 6));
+        ph.add("B", bits(2, 3, 4, 5, 9));
+        ph.add("C", bits(3, 5, 10));
+        return ph;
+    }
+
+    @Test
+    public void andThenAndNot() {
+        Phenotypes ph = sample();
+        assertEquals(bits(2, 4), ph.evaluate("A+B-C").members);
+        assertEquals(bits(2, 3, 4, 5), ph.evaluate("A+B").members);
+        assertEquals(bits(1, 2, 4, 6), ph.evaluate("A-C").members);
+        assertEquals("A+B-C", ph.evaluate(" A+B-C ").name);
+    }
+
+    @Test
+    public void leadingNegationStartsFromUniverse() {
+        assertEquals(bits(1, 2, 4, 6, 7, 8, 9), sample().evaluate("-C").members);
+        assertEquals(bits(1, 2, 4, 6, 7, 8, 9), sample().evaluate("\u2212C").members);
+    }
+
+    @Test
+    public void markerNamesMayContainOperators() {
+        Phenotypes ph = sample();
+        ph.add("nNOS+ChAT", bits(1, 4, 7));
+        assertEquals(bits(4), ph.evaluate("nNOS+ChAT+B").members);
+        assertEquals(bits(1, 7), ph.evaluate("nNOS+ChAT-B").members);
+    }
+
+    @Test
+    public void membersOutsideUniverseAreDropped() {
+        Phenotypes ph = sample();
+        ph.add("D", bits(0, 1, 42));
+        assertEquals(bits(1), ph.evaluate("D").members);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownMarkerIsRejected() {
+        sample().evaluate("A+X");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void trailingOperatorIsRejected() {
+        sample().evaluate("A+");
+    }
+
+    @Test
+    public void combinationsSkipEmptyIntersections() {
+        List<String> seen = new ArrayList<>();
+        sample().forEachCombination(2, 3, p -> seen.add(p.name + "=" + p.count()));
+        List<String> want = new ArrayList<>();
+        want.add("A+B=4");
+        want.add("A+B+C=2");
+        want.add("A+C=2");
+        want.add("B+C=2");
+        assertEquals(want, seen);
+    }
+}